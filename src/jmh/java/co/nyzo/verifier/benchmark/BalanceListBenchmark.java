@@ -0,0 +1,97 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.BalanceList;
+import co.nyzo.verifier.Block;
+import co.nyzo.verifier.FieldByteSize;
+import co.nyzo.verifier.HashUtil;
+import co.nyzo.verifier.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BalanceListBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int numberOfAccounts;
+
+    @Param({"100"})
+    public int numberOfTransactions;
+
+    private BalanceList balanceList;
+    private Block previousBlock;
+    private List<Transaction> transactions;
+    private byte[] verifierIdentifier;
+    private byte[] competingVerifierIdentifier;
+
+    @State(Scope.Thread)
+    public static class CompetingLists {
+
+        private BalanceList hashedList;
+        private BalanceList list;
+
+        // Two lists are derived at the same height from the same transactions with different verifiers, as for
+        // competing blocks. The first is hashed, so the second can resume from its checkpoints.
+        @Setup(Level.Invocation)
+        public void setUp(BalanceListBenchmark benchmark) {
+
+            hashedList = Block.balanceListForApprovedTransactions(benchmark.previousBlock, benchmark.balanceList,
+                    benchmark.transactions, benchmark.verifierIdentifier, BenchmarkFixtures.blockchainVersion);
+            hashedList.getHash();
+            list = Block.balanceListForApprovedTransactions(benchmark.previousBlock, benchmark.balanceList,
+                    benchmark.transactions, benchmark.competingVerifierIdentifier,
+                    BenchmarkFixtures.blockchainVersion);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+
+        Random random = new Random(numberOfAccounts);
+        long height = 1000000L;
+        balanceList = BenchmarkFixtures.balanceList(numberOfAccounts, height, random);
+        previousBlock = BenchmarkFixtures.block(height, new ArrayList<>(),
+                balanceList.getPreviousVerifiers().get(0));
+        transactions = BenchmarkFixtures.transactionsForBalanceList(balanceList, numberOfTransactions, random);
+        verifierIdentifier = BenchmarkFixtures.randomBytes(random, FieldByteSize.identifier);
+        competingVerifierIdentifier = BenchmarkFixtures.randomBytes(random, FieldByteSize.identifier);
+    }
+
+    @Benchmark
+    public byte[] hashSerializedList(CompetingLists lists) {
+
+        // This is the previous implementation of BalanceList.getHash(), which serialized and hashed the entire list.
+        return HashUtil.doubleSHA256(lists.list.getBytes());
+    }
+
+    @Benchmark
+    public byte[] hashWithCheckpoints(CompetingLists lists) {
+
+        return lists.list.getHash();
+    }
+
+    @Benchmark
+    public BalanceList balanceListForNextBlock() {
+
+        // Transaction approval depends on the state of the block manager, so this measures derivation from a list of
+        // transactions that have already been approved. This is the part of Block.balanceListForNextBlock() that
+        // depends on the size of the balance list.
+        return Block.balanceListForApprovedTransactions(previousBlock, balanceList, transactions, verifierIdentifier,
+                BenchmarkFixtures.blockchainVersion);
+    }
+
+    @Benchmark
+    public byte[] balanceListForNextBlockWithHash() {
+
+        return Block.balanceListForApprovedTransactions(previousBlock, balanceList, transactions, verifierIdentifier,
+                BenchmarkFixtures.blockchainVersion).getHash();
+    }
+}
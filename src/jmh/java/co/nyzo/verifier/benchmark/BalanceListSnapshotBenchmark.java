@@ -0,0 +1,71 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.BalanceList;
+import co.nyzo.verifier.BalanceListSnapshot;
+import co.nyzo.verifier.Block;
+import co.nyzo.verifier.BlockManager;
+import co.nyzo.verifier.FieldByteSize;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// This compares the two ways of loading the frozen-edge balance list at startup: reading the individual block file,
+// which holds the block and its serialized list, and reading the memory-mapped snapshot. Both produce a list that has
+// been checked against the balance-list hash of the block. The files are in the page cache after the first iteration,
+// so this measures the work of the verifier rather than of the disk.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BalanceListSnapshotBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int numberOfAccounts;
+
+    private Block block;
+    private File blockFile;
+    private File snapshotFile;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        Random random = new Random(numberOfAccounts);
+        long height = 1000000L;
+        BalanceList balanceList = BenchmarkFixtures.balanceList(numberOfAccounts, height, random);
+        byte[] verifierIdentifier = BenchmarkFixtures.randomBytes(random, FieldByteSize.identifier);
+        block = new Block(BenchmarkFixtures.blockchainVersion, height, new byte[FieldByteSize.hash], 0L, 0L,
+                new ArrayList<>(), balanceList.getHash(), verifierIdentifier, new byte[FieldByteSize.signature],
+                false);
+
+        blockFile = File.createTempFile("benchmark_block", ".nyzoblock");
+        BlockManager.writeBlocksToFile(Collections.singletonList(block), Collections.singletonList(balanceList),
+                blockFile);
+        snapshotFile = File.createTempFile("benchmark_balance_list", ".nyzosnapshot");
+        BalanceListSnapshot.write(snapshotFile, block, balanceList);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        blockFile.delete();
+        snapshotFile.delete();
+    }
+
+    @Benchmark
+    public BalanceList loadFromBlockFile() {
+
+        return BlockManager.loadBalanceListFromFile(blockFile, block.getBlockHeight());
+    }
+
+    @Benchmark
+    public BalanceList loadFromSnapshot() {
+
+        return BalanceListSnapshot.read(snapshotFile, block);
+    }
+}
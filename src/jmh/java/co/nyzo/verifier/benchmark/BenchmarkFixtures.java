@@ -0,0 +1,116 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+// The fixtures are generated from fixed seeds, so the benchmarks run offline and measure the same data on every run.
+// Transaction and block signatures are only valid where a benchmark depends on them.
+public class BenchmarkFixtures {
+
+    public static final int blockchainVersion = Block.maximumBlockchainVersion;
+
+    static {
+        RunMode.setRunMode(RunMode.Test);
+    }
+
+    public static byte[] randomBytes(Random random, int length) {
+
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+
+        return bytes;
+    }
+
+    public static byte[] seed(int index) {
+
+        return randomBytes(new Random(index), FieldByteSize.seed);
+    }
+
+    public static Transaction signedTransaction(Random random, byte[] signerSeed) {
+
+        return Transaction.standardTransaction(System.currentTimeMillis(),
+                random.nextInt(1000) * Transaction.micronyzoMultiplierRatio + 1L,
+                randomBytes(random, FieldByteSize.identifier), 0L, new byte[FieldByteSize.hash],
+                randomBytes(random, random.nextInt(33)), signerSeed);
+    }
+
+    public static Transaction unsignedTransaction(Random random, byte[] senderIdentifier, long amount,
+                                                  byte[] receiverIdentifier) {
+
+        return Transaction.standardTransaction(System.currentTimeMillis(), amount, receiverIdentifier, 0L,
+                new byte[FieldByteSize.hash], senderIdentifier, randomBytes(random, random.nextInt(33)),
+                randomBytes(random, FieldByteSize.signature));
+    }
+
+    public static Block block(long height, List<Transaction> transactions, byte[] verifierIdentifier) {
+
+        return new Block(blockchainVersion, height, new byte[FieldByteSize.hash], 1000000L * height, 0L,
+                transactions, new byte[FieldByteSize.hash], verifierIdentifier, new byte[FieldByteSize.signature],
+                false);
+    }
+
+    public static Block blockWithTransactions(int numberOfTransactions) {
+
+        Random random = new Random(17);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < numberOfTransactions; i++) {
+            transactions.add(unsignedTransaction(random, randomBytes(random, FieldByteSize.identifier),
+                    Transaction.micronyzoMultiplierRatio, randomBytes(random, FieldByteSize.identifier)));
+        }
+
+        return block(1000000L, transactions, randomBytes(random, FieldByteSize.identifier));
+    }
+
+    public static BalanceList balanceList(int numberOfAccounts, long blockHeight, Random random) {
+
+        // The balances sum to the number of micronyzos in the system, as required for a valid list. Blocks-until-fee
+        // counters are spread over the entire fee interval. For large lists, the balances are limited so that their
+        // sum does not exceed the number of micronyzos in the system.
+        int maximumBalance = (int) Math.max(1L, Math.min(1000L, Transaction.micronyzosInSystem /
+                Transaction.micronyzoMultiplierRatio / numberOfAccounts / 2L));
+        List<BalanceListItem> items = new ArrayList<>(numberOfAccounts + 1);
+        items.add(new BalanceListItem(BalanceListItem.cycleAccountIdentifier,
+                Transaction.micronyzoMultiplierRatio * 1000L, (short) random.nextInt(500)));
+        long sum = Transaction.micronyzoMultiplierRatio * 1000L;
+        for (int i = 0; i < numberOfAccounts; i++) {
+            long balance = random.nextInt(maximumBalance) * Transaction.micronyzoMultiplierRatio +
+                    random.nextInt(1000000) + 1L;
+            items.add(new BalanceListItem(randomBytes(random, FieldByteSize.identifier), balance,
+                    (short) random.nextInt(501)));
+            sum += balance;
+        }
+        items.set(1, items.get(1).adjustByAmount(Transaction.micronyzosInSystem - sum));
+
+        List<byte[]> previousVerifiers = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            previousVerifiers.add(randomBytes(random, FieldByteSize.identifier));
+        }
+
+        return new BalanceList(blockchainVersion, blockHeight, (byte) 0, previousVerifiers, items, 0L, 0L,
+                new HashMap<>(), new ArrayList<>());
+    }
+
+    public static List<Transaction> transactionsForBalanceList(BalanceList balanceList, int numberOfTransactions,
+                                                               Random random) {
+
+        // Each transaction is from a distinct existing account, and half of the transactions are to new accounts.
+        List<BalanceListItem> items = new ArrayList<>(balanceList.getItems());
+        items.remove(0);
+        Collections.shuffle(items, random);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < numberOfTransactions && i < items.size(); i++) {
+            BalanceListItem sender = items.get(i);
+            byte[] receiver = i % 2 == 0 ? randomBytes(random, FieldByteSize.identifier) :
+                    items.get(items.size() - 1 - i).getIdentifier();
+            transactions.add(unsignedTransaction(random, sender.getIdentifier(), sender.getBalance() / 2L + 1L,
+                    receiver));
+        }
+
+        return transactions;
+    }
+}
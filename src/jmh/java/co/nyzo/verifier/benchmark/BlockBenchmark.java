@@ -0,0 +1,54 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.Block;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockBenchmark {
+
+    @Param({"0", "100", "1000"})
+    public int numberOfTransactions;
+
+    private byte[] blockBytes;
+
+    @State(Scope.Thread)
+    public static class UnserializedBlock {
+
+        private Block block;
+
+        // Blocks keep their serialized bytes after the first request, so each invocation serializes a block that has
+        // just been read and has not been serialized.
+        @Setup(Level.Invocation)
+        public void setUp(BlockBenchmark benchmark) {
+
+            block = Block.fromByteBuffer(ByteBuffer.wrap(benchmark.blockBytes), false);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+
+        blockBytes = BenchmarkFixtures.blockWithTransactions(numberOfTransactions).getBytes();
+    }
+
+    @Benchmark
+    public Block fromByteBuffer() {
+
+        // Transactions are not validated, as when blocks are read from files.
+        return Block.fromByteBuffer(ByteBuffer.wrap(blockBytes), false);
+    }
+
+    @Benchmark
+    public byte[] getBytes(UnserializedBlock unserializedBlock) {
+
+        return unserializedBlock.block.getBytes();
+    }
+}
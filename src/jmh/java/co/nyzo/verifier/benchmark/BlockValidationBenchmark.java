@@ -0,0 +1,98 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// This measures a burst of competing candidate blocks one past the frozen edge, registered directly, as the message
+// threads did before, and through the validation pipeline. Each invocation registers a fresh copy of the burst, with no
+// memoized signatures or cached balance lists. The time per operation is the time to register the entire burst, so
+// the throughput in blocks per second is the burst size divided by that time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BlockValidationBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int numberOfAccounts;
+
+    @Param({"30"})
+    public int burstSize;
+
+    private Block frozenEdge;
+    private BalanceList frozenEdgeList;
+    private byte[][] burstBytes;
+    private List<Block> burst;
+
+    @Setup
+    public void setUp() {
+
+        Random random = new Random(numberOfAccounts);
+        long height = 1000000L;
+        long now = System.currentTimeMillis();
+        BlockManager.setGenesisBlockStartTimestamp(now - Block.blockDuration * 2L - (height + 1) * Block.blockDuration);
+
+        frozenEdgeList = BenchmarkFixtures.balanceList(numberOfAccounts, height, random);
+        frozenEdge = new Block(BenchmarkFixtures.blockchainVersion, height, new byte[FieldByteSize.hash],
+                BlockManager.startTimestampForHeight(height), now - Block.blockDuration * 3L, new ArrayList<>(),
+                frozenEdgeList.getHash(), BenchmarkFixtures.randomBytes(random, FieldByteSize.identifier),
+                BenchmarkFixtures.randomBytes(random, FieldByteSize.signature), false);
+        BlockManagerMap.addBlock(frozenEdge);
+        BlockManager.setFrozenEdge(frozenEdge, null);
+        BalanceListManager.updateFrozenEdge(frozenEdge, frozenEdgeList);
+
+        // Each block of the burst is signed by a different verifier.
+        burstBytes = new byte[burstSize][];
+        for (int i = 0; i < burstSize; i++) {
+            byte[] seed = BenchmarkFixtures.seed(1000 + i);
+            BalanceList balanceList = Block.balanceListForNextBlock(frozenEdge, frozenEdgeList, new ArrayList<>(),
+                    KeyUtil.identifierForSeed(seed), BenchmarkFixtures.blockchainVersion);
+            Block block = new Block(BenchmarkFixtures.blockchainVersion, height + 1, frozenEdge.getHash(),
+                    BlockManager.startTimestampForHeight(height + 1), new ArrayList<>(), balanceList.getHash(), seed);
+            burstBytes[i] = block.getBytes();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpBurst() {
+
+        UnfrozenBlockManager.purge();
+        BalanceListManager.updateFrozenEdge(frozenEdge, frozenEdgeList);
+        burst = new ArrayList<>();
+        for (byte[] bytes : burstBytes) {
+            burst.add(Block.fromByteBuffer(ByteBuffer.wrap(bytes), false));
+        }
+    }
+
+    @Benchmark
+    public int registerDirectly() {
+
+        for (Block block : burst) {
+            UnfrozenBlockManager.registerBlock(block);
+        }
+
+        return UnfrozenBlockManager.numberOfBlocksAtHeight(frozenEdge.getBlockHeight() + 1);
+    }
+
+    @Benchmark
+    public int registerThroughPipeline() throws InterruptedException {
+
+        long targetCount = BlockValidationPipeline.getProcessedCount() + burst.size();
+        for (Block block : burst) {
+            BlockValidationPipeline.submit(block);
+        }
+        while (BlockValidationPipeline.getProcessedCount() < targetCount) {
+            Thread.sleep(1L);
+        }
+
+        return UnfrozenBlockManager.numberOfBlocksAtHeight(frozenEdge.getBlockHeight() + 1);
+    }
+}
@@ -0,0 +1,71 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.HashUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"32", "1024", "1048576"})
+    public int dataLength;
+
+    private byte[] data;
+
+    // This reproduces the previous implementation, which shared one digest behind a lock, as a baseline for the
+    // concurrent benchmarks.
+    private static MessageDigest sharedDigest;
+
+    @State(Scope.Thread)
+    public static class Output {
+        public final byte[] hash = new byte[HashUtil.hashLength];
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+
+        data = BenchmarkFixtures.randomBytes(new Random(31), dataLength);
+        sharedDigest = MessageDigest.getInstance("SHA-256");
+    }
+
+    private static synchronized byte[] synchronizedDoubleSHA256(byte[] data) {
+
+        return sharedDigest.digest(sharedDigest.digest(data));
+    }
+
+    @Benchmark
+    public byte[] doubleSHA256() {
+
+        return HashUtil.doubleSHA256(data);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] doubleSHA256Concurrent() {
+
+        return HashUtil.doubleSHA256(data);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] doubleSHA256ConcurrentIntoOutput(Output output) {
+
+        HashUtil.doubleSHA256(data, 0, data.length, output.hash, 0);
+        return output.hash;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] synchronizedBaselineConcurrent() {
+
+        return synchronizedDoubleSHA256(data);
+    }
+}
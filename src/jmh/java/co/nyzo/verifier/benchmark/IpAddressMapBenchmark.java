@@ -0,0 +1,109 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.util.IpAddressMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+// This compares the previous ByteBuffer-keyed maps with IpAddressMap for the lookups made for every incoming message and
+// the counter updates made for every connection. Run with "-Pjmh.profilers=gc" to see the garbage produced by each.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IpAddressMapBenchmark {
+
+    @Param({"2500"})
+    public int numberOfAddresses;
+
+    private byte[][] addresses;
+    private Map<ByteBuffer, Long> byteBufferMap;
+    private IpAddressMap<Long> ipAddressMap;
+    private Map<ByteBuffer, Integer> byteBufferCounts;
+    private IpAddressMap<Integer> ipAddressCounts;
+
+    private static final BiFunction<Integer, Integer, Integer> mergeFunction =
+            new BiFunction<Integer, Integer, Integer>() {
+                @Override
+                public Integer apply(Integer integer0, Integer integer1) {
+                    int sum = integer0 + integer1;
+                    return sum == 0 ? null : sum;
+                }
+            };
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        @Setup
+        public void setUp() {
+            index = new Random(Thread.currentThread().getId()).nextInt(1 << 20);
+        }
+
+        int next(int limit) {
+            index = index * 1103515245 + 12345;
+            return (index >>> 8) % limit;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+
+        // Half of the lookups are for addresses in the maps, and half are for addresses that are not, as for the
+        // blacklist and whitelist checks, which usually miss.
+        Random random = new Random(9444);
+        addresses = new byte[numberOfAddresses * 2][];
+        byteBufferMap = new ConcurrentHashMap<>();
+        ipAddressMap = new IpAddressMap<>();
+        byteBufferCounts = new ConcurrentHashMap<>();
+        ipAddressCounts = new IpAddressMap<>();
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = BenchmarkFixtures.randomBytes(random, 4);
+            if (i < numberOfAddresses) {
+                byteBufferMap.put(ByteBuffer.wrap(addresses[i]), (long) i);
+                ipAddressMap.put(addresses[i], (long) i);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Long lookupByteBufferMap(Cursor cursor) {
+
+        return byteBufferMap.get(ByteBuffer.wrap(addresses[cursor.next(addresses.length)]));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Long lookupIpAddressMap(Cursor cursor) {
+
+        return ipAddressMap.get(addresses[cursor.next(addresses.length)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer countConnectionByteBufferMap(Cursor cursor) {
+
+        // This is the increment when a connection is accepted and the decrement when it is closed.
+        byte[] address = addresses[cursor.next(numberOfAddresses)];
+        byteBufferCounts.merge(ByteBuffer.wrap(address), 1, mergeFunction);
+        return byteBufferCounts.merge(ByteBuffer.wrap(address), -1, mergeFunction);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer countConnectionIpAddressMap(Cursor cursor) {
+
+        byte[] address = addresses[cursor.next(numberOfAddresses)];
+        ipAddressCounts.merge(address, 1, mergeFunction);
+        return ipAddressCounts.merge(address, -1, mergeFunction);
+    }
+}
@@ -0,0 +1,41 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.Message;
+import co.nyzo.verifier.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+
+    private static final byte[] sourceIpAddress = {127, 0, 0, 1};
+
+    private byte[] messageBytes;
+
+    @Setup
+    public void setUp() {
+
+        // This is a transaction message, as received by the mesh listener. The message signature and the transaction
+        // signature are both valid, so both are verified when the message is read. The length field is removed, as it
+        // is for TCP messages.
+        Random random = new Random(23);
+        Message message = new Message(MessageType.Transaction5,
+                BenchmarkFixtures.signedTransaction(random, BenchmarkFixtures.seed(1)), BenchmarkFixtures.seed(2));
+        byte[] bytesForTransmission = message.getBytesForTransmission();
+        messageBytes = Arrays.copyOfRange(bytesForTransmission, 4, bytesForTransmission.length);
+    }
+
+    @Benchmark
+    public Message fromBytes() {
+
+        return Message.fromBytes(messageBytes, sourceIpAddress, false);
+    }
+}
@@ -0,0 +1,44 @@
+package co.nyzo.verifier.benchmark;
+
+import co.nyzo.verifier.KeyUtil;
+import co.nyzo.verifier.util.SignatureUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureBenchmark {
+
+    private byte[] signedBytes;
+    private byte[] signature;
+    private byte[] identifier;
+
+    @Setup
+    public void setUp() {
+
+        byte[] seed = BenchmarkFixtures.seed(3);
+        signedBytes = BenchmarkFixtures.randomBytes(new Random(29), 200);
+        signature = SignatureUtil.signBytes(signedBytes, seed);
+        identifier = KeyUtil.identifierForSeed(seed);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean signatureIsValid() {
+
+        return SignatureUtil.signatureIsValid(signature, signedBytes, identifier);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean signatureIsValidConcurrent() {
+
+        return SignatureUtil.signatureIsValid(signature, signedBytes, identifier);
+    }
+}
@@ -1,8 +1,11 @@
 package co.nyzo.verifier;
 
+import co.nyzo.verifier.util.PreferencesUtil;
 import co.nyzo.verifier.util.PrintUtil;
 
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -32,22 +35,47 @@ public class BalanceList implements MessageObject {
     private long blockHeight;
     private byte rolloverFees;
     private List<byte[]> previousVerifiers;
-    private List<BalanceListItem> items;
+    private BalanceTree tree;
     private long unlockThreshold;
     private long unlockTransferSum;
     private Map<ByteBuffer, Transaction> pendingCycleTransactions;
     private List<ApprovedCycleTransaction> recentlyApprovedCycleTransactions;
 
+    // The hash, size, and bytes are memoized when the list has no pending cycle transactions. Pending cycle
+    // transactions can receive signatures after the list is built, which changes their serialized form. The bytes are
+    // large, so they are held softly and rebuilt if they are reclaimed.
+    private volatile byte[] hash = null;
+    private volatile int byteSize = -1;
+    private volatile SoftReference<byte[]> bytes = null;
+
+    // Hashing stores SHA-256 midstates every checkpoint interval accounts. A value of zero disables checkpoints.
+    private static final int hashCheckpointInterval = Math.max(0,
+            PreferencesUtil.getInt("balance_list_hash_checkpoint_interval", 4096));
+    private static volatile BalanceTree.HashCheckpoints latestHashCheckpoints = null;
+
     public BalanceList(int blockchainVersion, long blockHeight, byte rolloverFees, List<byte[]> previousVerifiers,
                        List<BalanceListItem> items, long unlockThreshold, long unlockTransferSum,
                        Map<ByteBuffer, Transaction> pendingCycleTransactions,
                        List<ApprovedCycleTransaction> recentlyApprovedCycleTransactions) {
 
+        this(blockchainVersion, blockHeight, rolloverFees, previousVerifiers, (BalanceTree) null, unlockThreshold,
+                unlockTransferSum, pendingCycleTransactions, recentlyApprovedCycleTransactions);
+
+        this.tree = BalanceTree.fromSortedItems(normalize(items), blockHeight);
+    }
+
+    // This constructor is used when deriving a balance list from the previous list. The tree shares all unchanged
+    // accounts with the tree of the previous list.
+    BalanceList(int blockchainVersion, long blockHeight, byte rolloverFees, List<byte[]> previousVerifiers,
+                BalanceTree tree, long unlockThreshold, long unlockTransferSum,
+                Map<ByteBuffer, Transaction> pendingCycleTransactions,
+                List<ApprovedCycleTransaction> recentlyApprovedCycleTransactions) {
+
         this.blockchainVersion = Block.limitBlockchainVersion(blockchainVersion);
         this.blockHeight = blockHeight;
         this.rolloverFees = rolloverFees;
         this.previousVerifiers = previousVerifiers;
-        this.items = normalize(items);
+        this.tree = tree;
         this.unlockThreshold = this.blockchainVersion == 0 ? 0 : unlockThreshold;      // implicitly 0 for version 0
         this.unlockTransferSum = this.blockchainVersion == 0 ? 0 : unlockTransferSum;  // implicitly 0 for version 0
         this.pendingCycleTransactions = this.blockchainVersion < 2 ? new ConcurrentHashMap<>() :
@@ -96,8 +124,14 @@ public class BalanceList implements MessageObject {
         return previousVerifiers;
     }
 
+    // The items are not stored. This returns a read-only view of the tree, which creates each item when it is accessed.
     public List<BalanceListItem> getItems() {
-        return items;
+
+        return tree.itemList(blockHeight);
+    }
+
+    BalanceTree getTree() {
+        return tree;
     }
 
     public long getUnlockThreshold() {
@@ -131,9 +165,11 @@ public class BalanceList implements MessageObject {
             previousVerifiers.add(verifierIdentifier);
         }
 
-        long numberOfPairs = buffer.getInt();
+        // Items in the canonical form are read directly into the tree. Others are read individually and normalized.
+        int numberOfPairs = buffer.getInt();
+        BalanceTree tree = BalanceTree.fromSerializedItems(buffer, numberOfPairs, blockHeight);
         List<BalanceListItem> items = new ArrayList<>();
-        for (int i = 0; i < numberOfPairs; i++) {
+        for (int i = 0; tree == null && i < numberOfPairs; i++) {
             byte[] identifier = new byte[FieldByteSize.identifier];
             buffer.get(identifier);
             long balance = buffer.getLong();
@@ -165,21 +201,62 @@ public class BalanceList implements MessageObject {
             }
         }
 
-        return new BalanceList(blockchainVersion, blockHeight, rolloverFees, previousVerifiers, items, unlockThreshold,
-                unlockTransferSum, pendingCycleTransactions, recentlyApprovedCycleTransactions);
+        return tree == null ?
+                new BalanceList(blockchainVersion, blockHeight, rolloverFees, previousVerifiers, items, unlockThreshold,
+                        unlockTransferSum, pendingCycleTransactions, recentlyApprovedCycleTransactions) :
+                new BalanceList(blockchainVersion, blockHeight, rolloverFees, previousVerifiers, tree, unlockThreshold,
+                        unlockTransferSum, pendingCycleTransactions, recentlyApprovedCycleTransactions);
+    }
+
+    // This is used when the serialized form of the list has already been checked against the hash, so the hash does
+    // not need to be computed again.
+    void setVerifiedHash(byte[] hash) {
+
+        if (serializationIsStable()) {
+            this.hash = hash;
+        }
+    }
+
+    private boolean serializationIsStable() {
+        return pendingCycleTransactions.isEmpty();
     }
 
     @Override
     public int getByteSize() {
-        int numberOfPreviousVerifiers = (int) Math.min(blockHeight, 9);
+
+        int size = byteSize;
+        if (size < 0) {
+            size = computeByteSize();
+            if (serializationIsStable()) {
+                byteSize = size;
+            }
+        }
+
+        return size;
+    }
+
+    private int computeByteSize() {
+
         int bytesPerItem = FieldByteSize.identifier + FieldByteSize.transactionAmount + FieldByteSize.blocksUntilFee;
 
-        int size = FieldByteSize.blockHeight +
+        return prefixByteSize() + bytesPerItem * tree.size() + suffixByteSize();
+    }
+
+    // The prefix is the part of the serialized list before the items.
+    private int prefixByteSize() {
+
+        int numberOfPreviousVerifiers = (int) Math.min(blockHeight, 9);
+
+        return FieldByteSize.blockHeight +
                 FieldByteSize.rolloverTransactionFees +
                 FieldByteSize.identifier * numberOfPreviousVerifiers +
-                FieldByteSize.balanceListLength +
-                bytesPerItem * items.size() +
-                (blockchainVersion > 0 ? FieldByteSize.transactionAmount * 2 : 0);
+                FieldByteSize.balanceListLength;
+    }
+
+    // The suffix is the part of the serialized list after the items.
+    private int suffixByteSize() {
+
+        int size = blockchainVersion > 0 ? FieldByteSize.transactionAmount * 2 : 0;
 
         // For blockchain version 2 and above, add the pending cycle transactions and approved cycle transactions.
         if (blockchainVersion > 1) {
@@ -200,19 +277,61 @@ public class BalanceList implements MessageObject {
     @Override
     public byte[] getBytes() {
 
+        SoftReference<byte[]> reference = bytes;
+        byte[] result = reference == null ? null : reference.get();
+        if (result == null) {
+            result = serialize();
+            if (serializationIsStable()) {
+                bytes = new SoftReference<>(result);
+            }
+        }
+
+        return result;
+    }
+
+    private byte[] serialize() {
+
         byte[] result = new byte[getByteSize()];
-        ByteBuffer buffer = ByteBuffer.wrap(result);
+        writeFields(ByteBuffer.wrap(result));
+
+        return result;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+
+        SoftReference<byte[]> reference = bytes;
+        byte[] serialized = reference == null ? null : reference.get();
+        if (serialized != null) {
+            buffer.put(serialized);
+        } else {
+            writeFields(buffer);
+        }
+    }
+
+    // This writes the list from the tree. Any bytes not written, as for a list with fewer previous verifiers than its
+    // height implies, are skipped, so they remain zero as they are in an array produced by getBytes().
+    private void writeFields(ByteBuffer buffer) {
+
+        int endPosition = buffer.position() + getByteSize();
+        writePrefix(buffer);
+        tree.writeItems(buffer, blockHeight);
+        writeSuffix(buffer);
+        buffer.position(endPosition);
+    }
+
+    private void writePrefix(ByteBuffer buffer) {
+
         buffer.putLong(ShortLong.combinedValue(blockchainVersion, blockHeight));
         buffer.put(rolloverFees);
         for (byte[] previousVerifier : previousVerifiers) {
             buffer.put(previousVerifier);
         }
-        buffer.putInt(items.size());
-        for (BalanceListItem item : items) {
-            buffer.put(item.getIdentifier());
-            buffer.putLong(item.getBalance());
-            buffer.putShort(item.getBlocksUntilFee());
-        }
+        buffer.putInt(tree.size());
+    }
+
+    private void writeSuffix(ByteBuffer buffer) {
+
         if (blockchainVersion > 0) {
             buffer.putLong(unlockThreshold);
             buffer.putLong(unlockTransferSum);
@@ -233,41 +352,63 @@ public class BalanceList implements MessageObject {
                 buffer.put(transaction.getBytes());
             }
         }
+    }
+
+    public byte[] getHash() {
+
+        byte[] result = hash;
+        if (result == null) {
+            result = hashCheckpointInterval > 0 ? hashWithCheckpoints() : HashUtil.doubleSHA256(getBytes());
+            if (serializationIsStable()) {
+                hash = result;
+            }
+        }
 
         return result;
     }
 
-    public byte[] getHash() {
+    // This produces the same hash as the full serialized list, but it hashes the items directly from the tree, and it
+    // resumes from the checkpoints of the most recently hashed list when that list is at the same height.
+    private byte[] hashWithCheckpoints() {
+
+        byte[] result;
+        try {
+            // The suffix is sized from the full byte size, so that any bytes left unwritten by the serialization,
+            // such as for a list with fewer previous verifiers than expected, are hashed as they are in the full list.
+            ByteBuffer prefixBuffer = ByteBuffer.allocate(prefixByteSize());
+            writePrefix(prefixBuffer);
+            byte[] prefix = Arrays.copyOf(prefixBuffer.array(), prefixBuffer.position());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(prefix);
+            BalanceTree.HashCheckpoints checkpoints = tree.digestItems(digest, blockHeight, prefix,
+                    latestHashCheckpoints, hashCheckpointInterval);
+            latestHashCheckpoints = checkpoints;
+
+            int bytesPerItem = FieldByteSize.identifier + FieldByteSize.transactionAmount +
+                    FieldByteSize.blocksUntilFee;
+            byte[] suffix = new byte[getByteSize() - prefix.length - bytesPerItem * tree.size()];
+            writeSuffix(ByteBuffer.wrap(suffix));
+            digest = checkpoints.digestOfAllItems();
+            digest.update(suffix);
+            result = HashUtil.singleSHA256(digest.digest());
+        } catch (Exception e) {
+            System.err.println("unable to hash balance list with checkpoints: " + PrintUtil.printException(e));
+            result = HashUtil.doubleSHA256(getBytes());
+        }
 
-        return HashUtil.doubleSHA256(getBytes());
+        return result;
     }
 
-    public long balanceForIdentifier(byte[] identifier) {
+    // This estimates the memory retained by this list while the other list is also retained. The lists of competing
+    // blocks share all unchanged accounts with the list of their parent.
+    long unsharedByteSize(BalanceList other) {
 
-        // This method performs a binary search on the identifier to efficiently find the balance.
-        long balance = 0L;
-        int lowIndex = 0;
-        int highIndex = items.size() - 1;
-        BalanceListItem identifierItem = new BalanceListItem(identifier, 0L);
-        while (lowIndex < highIndex && balance == 0L) {
-            int midIndex = (lowIndex + highIndex) / 2;
-            if (ByteUtil.arraysAreEqual(identifier, items.get(lowIndex).getIdentifier())) {
-                balance = items.get(lowIndex).getBalance();
-            } else if (ByteUtil.arraysAreEqual(identifier, items.get(highIndex).getIdentifier())) {
-                balance = items.get(highIndex).getBalance();
-            } else {
-                int midComparison = balanceListItemComparator.compare(identifierItem, items.get(midIndex));
-                if (midComparison > 0) {
-                    lowIndex = midIndex + 1;
-                } else if (midComparison < 0) {
-                    highIndex = midIndex - 1;
-                } else {
-                    balance = items.get(midIndex).getBalance();
-                }
-            }
-        }
+        return tree.unsharedByteSize(other == null ? null : other.tree);
+    }
+
+    public long balanceForIdentifier(byte[] identifier) {
 
-        return balance;
+        return tree.balance(identifier);
     }
 
     @Override
@@ -1,23 +1,35 @@
 package co.nyzo.verifier;
 
 
+import co.nyzo.verifier.util.PreferencesUtil;
+
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class BalanceListManager {
 
     private static BalanceList genesisList = null;
     private static final int numberOfRecentLists = 4;
     private static BalanceList[] recentLists = new BalanceList[numberOfRecentLists];
-    private static Map<ByteBuffer, Long> frozenEdgeBalanceMap = new ConcurrentHashMap<>();
-
-    private static Set<ByteBuffer> accountsInSystem = ConcurrentHashMap.newKeySet();
-
-    private static final long maximumMapSize = 6;
 
-    // This is a map from balance list hash to balance list.
-    private static final Map<ByteBuffer, BalanceList> balanceListMap = new ConcurrentHashMap<>();
+    // This is a map from block hash to balance list for the frozen edge and the unfrozen blocks past it. Keying on the
+    // block hash ties each list to the transactions and verifier it was derived from, so competing blocks that share a
+    // parent each derive their list once, from the cached list of the parent. The lists share all unchanged accounts
+    // with the frozen-edge list, so the memory of each list is estimated as the size of the nodes it does not share
+    // with that list, and the total is limited by a budget. The map is pruned to the descendants of the frozen edge
+    // when the frozen edge advances.
+    private static final Map<ByteBuffer, CachedBalanceList> balanceListMap = new ConcurrentHashMap<>();
+    private static final long cacheByteBudget = PreferencesUtil.getLong("balance_list_cache_megabytes", 128L) *
+            1024L * 1024L;
+    private static final AtomicLong cacheByteSize = new AtomicLong(0L);
+
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder contestedCacheHits = new LongAdder();
+    private static final LongAdder derivations = new LongAdder();
+    private static final LongAdder budgetRejections = new LongAdder();
 
     public static BalanceList recentBalanceListForHeight(long blockHeight) {
 
@@ -57,11 +69,15 @@ public class BalanceListManager {
                 balanceList = recentList;
             } else if (frozenEdgeList == null || block.getBlockHeight() == frozenEdgeList.getBlockHeight() + 1) {
 
-                // First, try to get the balance list from the map.
-                balanceList = balanceListMap.get(ByteBuffer.wrap(block.getBalanceListHash()));
-
-                // If the balance list was not in the map, try to derive it.
-                if (balanceList == null) {
+                // First, try to get the balance list from the map. Hits at heights with competing blocks are counted
+                // separately, as these are the derivations that a smaller cache would repeat.
+                balanceList = cachedBalanceList(block);
+                if (balanceList != null) {
+                    cacheHits.increment();
+                    if (UnfrozenBlockManager.numberOfBlocksAtHeight(block.getBlockHeight()) > 1) {
+                        contestedCacheHits.increment();
+                    }
+                } else {
 
                     // Step back to previous blocks until we are able to find a balance list that we have.
                     Block startBlock = block;
@@ -71,20 +87,22 @@ public class BalanceListManager {
                         startBlock = startBlock.getPreviousBlock();
                         if (startBlock != null) {
                             blocks.add(0, startBlock);
-                            startBalanceList = balanceListMap.get(ByteBuffer.wrap(startBlock.getBalanceListHash()));
+                            startBalanceList = cachedBalanceList(startBlock);
                         }
                     }
 
-                    // If a suitable start balance list was found, derive the desired list.
+                    // If a suitable start balance list was found, derive the desired list, registering the list of
+                    // each block along the way.
                     if (startBalanceList != null) {
                         balanceList = startBalanceList;
-                        for (int i = 0; i < blocks.size() - 1; i++) {
+                        for (int i = 0; i < blocks.size() - 1 && balanceList != null; i++) {
+                            Block nextBlock = blocks.get(i + 1);
                             balanceList = Block.balanceListForNextBlock(blocks.get(i), balanceList,
-                                    blocks.get(i + 1).getTransactions(), blocks.get(i + 1).getVerifierIdentifier(),
-                                    blocks.get(i + 1).getBlockchainVersion());
+                                    nextBlock.getTransactions(), nextBlock.getVerifierIdentifier(),
+                                    nextBlock.getBlockchainVersion());
+                            derivations.increment();
+                            registerBalanceList(nextBlock, balanceList);
                         }
-
-                        registerBalanceList(balanceList);
                     }
                 }
             }
@@ -93,10 +111,26 @@ public class BalanceListManager {
         return balanceList;
     }
 
-    public static void registerBalanceList(BalanceList balanceList) {
+    private static BalanceList cachedBalanceList(Block block) {
 
-        if (balanceList != null && balanceListMap.size() < maximumMapSize) {
-            balanceListMap.put(ByteBuffer.wrap(balanceList.getHash()), balanceList);
+        CachedBalanceList cachedList = balanceListMap.get(ByteBuffer.wrap(block.getHash()));
+        return cachedList == null ? null : cachedList.balanceList;
+    }
+
+    private static void registerBalanceList(Block block, BalanceList balanceList) {
+
+        // Only lists that match their blocks are stored. The lists of invalid blocks are not needed by the unfrozen
+        // tree, as those blocks are not registered.
+        if (balanceList != null && ByteUtil.arraysAreEqual(balanceList.getHash(), block.getBalanceListHash())) {
+            long byteSize = balanceList.unsharedByteSize(recentLists[0]);
+            if (cacheByteSize.get() + byteSize <= cacheByteBudget) {
+                CachedBalanceList cachedList = new CachedBalanceList(block, balanceList, byteSize);
+                if (balanceListMap.putIfAbsent(ByteBuffer.wrap(block.getHash()), cachedList) == null) {
+                    cacheByteSize.addAndGet(byteSize);
+                }
+            } else {
+                budgetRejections.increment();
+            }
         }
     }
 
@@ -104,33 +138,87 @@ public class BalanceListManager {
         return recentLists[0];
     }
 
-    public static Map<ByteBuffer, Long> getFrozenEdgeBalanceMap() {
-        return frozenEdgeBalanceMap;
+    // The frozen-edge list is the index of frozen-edge balances. Its balance tree is derived from the tree of the
+    // previous list by applying only the accounts changed in the block, so nothing needs to be rebuilt when the frozen
+    // edge advances.
+    public static long frozenEdgeBalance(byte[] identifier) {
+
+        BalanceList frozenEdgeList = recentLists[0];
+        return frozenEdgeList == null ? 0L : frozenEdgeList.balanceForIdentifier(identifier);
     }
 
     public static boolean accountIsInSystem(byte[] identifier) {
 
-        return accountsInSystem.contains(ByteBuffer.wrap(identifier));
+        // Lists only contain accounts with balances greater than zero.
+        return frozenEdgeBalance(identifier) > 0L;
     }
 
-    public static void updateFrozenEdge(BalanceList frozenEdgeList) {
+    public static void updateFrozenEdge(Block frozenEdge, BalanceList frozenEdgeList) {
 
-        if (frozenEdgeList != null) {
+        if (frozenEdge != null && frozenEdgeList != null) {
             for (int i = numberOfRecentLists - 1; i > 0; i--) {
                 recentLists[i] = recentLists[i - 1];
             }
             recentLists[0] = frozenEdgeList;
-            frozenEdgeBalanceMap = BalanceManager.makeBalanceMap(frozenEdgeList);
 
-            Set<ByteBuffer> accountsInSystem = ConcurrentHashMap.newKeySet();
-            for (BalanceListItem item : frozenEdgeList.getItems()) {
-                accountsInSystem.add(ByteBuffer.wrap(item.getIdentifier()));
+            pruneCache(frozenEdge, frozenEdgeList);
+        }
+    }
+
+    private static synchronized void pruneCache(Block frozenEdge, BalanceList frozenEdgeList) {
+
+        // Keep the lists of the blocks that descend from the new frozen edge, processing the blocks in order of
+        // increasing height so that each block is kept only if its parent was kept. The sizes of the kept lists are
+        // estimated again, relative to the new frozen-edge list.
+        List<CachedBalanceList> cachedLists = new ArrayList<>(balanceListMap.values());
+        cachedLists.sort(new Comparator<CachedBalanceList>() {
+            @Override
+            public int compare(CachedBalanceList list1, CachedBalanceList list2) {
+                return Long.compare(list1.blockHeight, list2.blockHeight);
+            }
+        });
+
+        Set<ByteBuffer> keptBlockHashes = new HashSet<>();
+        ByteBuffer frozenEdgeHash = ByteBuffer.wrap(frozenEdge.getHash());
+        keptBlockHashes.add(frozenEdgeHash);
+        long byteSize = 0L;
+        for (CachedBalanceList cachedList : cachedLists) {
+            ByteBuffer blockHash = ByteBuffer.wrap(cachedList.blockHash);
+            if (cachedList.blockHeight > frozenEdge.getBlockHeight() &&
+                    keptBlockHashes.contains(ByteBuffer.wrap(cachedList.previousBlockHash))) {
+                keptBlockHashes.add(blockHash);
+                cachedList.byteSize = cachedList.balanceList.unsharedByteSize(frozenEdgeList);
+                byteSize += cachedList.byteSize;
+            } else {
+                balanceListMap.remove(blockHash);
             }
+        }
+
+        balanceListMap.put(frozenEdgeHash, new CachedBalanceList(frozenEdge, frozenEdgeList, 0L));
+        cacheByteSize.set(byteSize);
+    }
+
+    public static String getCacheStatistics() {
+
+        return "hits=" + cacheHits.sum() + ", contested hits=" + contestedCacheHits.sum() + ", derivations=" +
+                derivations.sum() + ", over budget=" + budgetRejections.sum() + ", entries=" + balanceListMap.size() +
+                ", MB=" + String.format("%.1f", cacheByteSize.get() / 1048576.0);
+    }
+
+    private static class CachedBalanceList {
 
-            BalanceListManager.accountsInSystem = accountsInSystem;
+        final long blockHeight;
+        final byte[] blockHash;
+        final byte[] previousBlockHash;
+        final BalanceList balanceList;
+        volatile long byteSize;
 
-            balanceListMap.clear();
-            balanceListMap.put(ByteBuffer.wrap(frozenEdgeList.getHash()), frozenEdgeList);
+        CachedBalanceList(Block block, BalanceList balanceList, long byteSize) {
+            this.blockHeight = block.getBlockHeight();
+            this.blockHash = block.getHash();
+            this.previousBlockHash = block.getPreviousBlockHash();
+            this.balanceList = balanceList;
+            this.byteSize = byteSize;
         }
     }
 }
@@ -0,0 +1,179 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.LogUtil;
+import co.nyzo.verifier.util.PreferencesUtil;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A balance-list snapshot is a single file holding the serialized balance list of a frozen block, preceded by a
+// fixed-size header: a marker, the block height, the balance-list hash of the block, and the length of the list. On
+// startup, the header is compared to the block at its height, the list is checked against the hash by hashing the
+// memory-mapped bytes, and the list is then read from the mapping directly into its tree. The snapshot is written
+// periodically behind the frozen edge, and the lists of any later blocks are derived from it.
+public class BalanceListSnapshot {
+
+    public static final File file = new File(BlockManager.blockRootDirectory, "balance_list.nyzosnapshot");
+
+    private static final int marker = 0x4e5a4231;  // "NZB1"
+    private static final int headerSize = 4 + FieldByteSize.blockHeight + FieldByteSize.hash + 4;
+
+    // A value of zero disables snapshots.
+    private static final long interval = Math.max(0L, PreferencesUtil.getLong("balance_list_snapshot_interval",
+            100L));
+    private static final AtomicBoolean writeInProgress = new AtomicBoolean(false);
+
+    public static void blockFrozen(Block block, BalanceList balanceList) {
+
+        // The list is immutable once its hash is memoized, so it can be written on a separate thread. If a write is
+        // already in progress, the block is skipped, and the next block at the interval is written instead.
+        if (interval > 0L && block.getBlockHeight() % interval == 0L && !writeInProgress.getAndSet(true)) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(file, block, balanceList);
+                    } catch (Exception reportOnly) {
+                        LogUtil.println("unable to write balance-list snapshot: " +
+                                PrintUtil.printException(reportOnly));
+                    } finally {
+                        writeInProgress.set(false);
+                    }
+                }
+            }, "BalanceListSnapshot-write").start();
+        }
+    }
+
+    public static boolean write(File file, Block block, BalanceList balanceList) {
+
+        // The snapshot is written to a temporary file and moved into place, so a partially written snapshot is never
+        // read.
+        boolean successful = false;
+        if (balanceList != null && balanceList.getBlockHeight() == block.getBlockHeight() &&
+                ByteUtil.arraysAreEqual(balanceList.getHash(), block.getBalanceListHash())) {
+
+            File temporaryFile = new File(file.getAbsolutePath() + "_temp");
+            temporaryFile.delete();
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(temporaryFile, "rw")) {
+                byte[] listBytes = balanceList.getBytes();
+                ByteBuffer header = ByteBuffer.allocate(headerSize);
+                header.putInt(marker);
+                header.putLong(block.getBlockHeight());
+                header.put(block.getBalanceListHash());
+                header.putInt(listBytes.length);
+                randomAccessFile.write(header.array());
+                randomAccessFile.write(listBytes);
+                successful = true;
+            } catch (Exception ignored) { }
+
+            if (successful) {
+                try {
+                    Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (Exception ignored) {
+                    successful = false;
+                }
+            }
+
+            if (!successful) {
+                temporaryFile.delete();
+            }
+        }
+
+        return successful;
+    }
+
+    // This returns the height of the snapshot in the file, or -1 if the file is not a valid snapshot.
+    public static long blockHeight(File file) {
+
+        long blockHeight = -1L;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            if (channel.read(header, 0L) == headerSize) {
+                header.flip();
+                if (header.getInt() == marker) {
+                    blockHeight = header.getLong();
+                }
+            }
+        } catch (Exception ignored) { }
+
+        return blockHeight;
+    }
+
+    // This returns null if the file is not a snapshot of the balance list of the block.
+    public static BalanceList read(File file, Block block) {
+
+        BalanceList balanceList = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > headerSize && length <= Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                int fileMarker = buffer.getInt();
+                long blockHeight = buffer.getLong();
+                byte[] hash = new byte[FieldByteSize.hash];
+                buffer.get(hash);
+                int listLength = buffer.getInt();
+                boolean headerMatches = fileMarker == marker && blockHeight == block.getBlockHeight() &&
+                        ByteUtil.arraysAreEqual(hash, block.getBalanceListHash()) && listLength == length - headerSize;
+
+                // The hash is checked on the mapped bytes before the list is read.
+                if (headerMatches && ByteUtil.arraysAreEqual(HashUtil.doubleSHA256(buffer), hash)) {
+                    BalanceList list = BalanceList.fromByteBuffer(buffer);
+                    if (list.getBlockHeight() == block.getBlockHeight()) {
+                        list.setVerifiedHash(hash);
+                        balanceList = list;
+                    }
+                }
+            }
+        } catch (Exception ignored) { }
+
+        return balanceList;
+    }
+
+    // This loads the balance list of the frozen edge from the snapshot, deriving the lists of any blocks between the
+    // snapshot and the frozen edge. It returns null if the snapshot cannot be used.
+    static BalanceList loadForFrozenEdge() {
+
+        BalanceList balanceList = null;
+        long frozenEdgeHeight = BlockManager.getFrozenEdgeHeight();
+        long snapshotHeight = blockHeight(file);
+        if (snapshotHeight >= 0L && snapshotHeight <= frozenEdgeHeight) {
+            long startTimestamp = System.currentTimeMillis();
+            Block previousBlock = BlockManager.frozenBlockForHeight(snapshotHeight);
+            if (previousBlock != null) {
+                balanceList = read(file, previousBlock);
+            }
+
+            for (long height = snapshotHeight + 1L; height <= frozenEdgeHeight && balanceList != null; height++) {
+                Block block = BlockManager.frozenBlockForHeight(height);
+                if (block == null) {
+                    balanceList = null;
+                } else {
+                    balanceList = Block.balanceListForNextBlock(previousBlock, balanceList, block.getTransactions(),
+                            block.getVerifierIdentifier(), block.getBlockchainVersion());
+                    if (balanceList != null && !ByteUtil.arraysAreEqual(balanceList.getHash(),
+                            block.getBalanceListHash())) {
+                        balanceList = null;
+                    }
+                    previousBlock = block;
+                }
+            }
+
+            if (balanceList != null) {
+                LogUtil.println(String.format("loaded balance list for height %d from snapshot at height %d, " +
+                        "elapsed %.2fs", frozenEdgeHeight, snapshotHeight,
+                        (System.currentTimeMillis() - startTimestamp) / 1000.0));
+            }
+        }
+
+        return balanceList;
+    }
+}
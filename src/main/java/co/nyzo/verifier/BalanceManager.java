@@ -100,29 +100,26 @@ public class BalanceManager {
 
         // Assemble the final list of transactions with valid amounts. This has to be done in ascending order of
         // timestamp, because older transactions take precedence over newer transactions.
+        // Balances are read from the list, and only the balances changed by the transactions are stored in the map.
         List<Transaction> approvedTransactions = new ArrayList<>();
-        Map<ByteBuffer, Long> identifierToBalanceMap = makeBalanceMap(balanceList);
+        Map<ByteBuffer, Long> changedBalanceMap = new HashMap<>();
         for (Transaction transaction : dedupedTransactions) {
             ByteBuffer senderIdentifier = transaction.getType() == Transaction.typeCycle ?
                     ByteBuffer.wrap(BalanceListItem.cycleAccountIdentifier) :
                     ByteBuffer.wrap(transaction.getSenderIdentifier());
-            Long senderBalance = identifierToBalanceMap.getOrDefault(senderIdentifier, 0L);
+            long senderBalance = balance(balanceList, changedBalanceMap, senderIdentifier);
             if (transaction.getAmount() <= senderBalance || (transaction.getType() == Transaction.typeSeed &&
                     transaction.getFee() <= senderBalance)) {
 
                 approvedTransactions.add(transaction);
-                identifierToBalanceMap.put(senderIdentifier, senderBalance - transaction.getAmount());
+                changedBalanceMap.put(senderIdentifier, senderBalance - transaction.getAmount());
 
                 // Add the amount after fee to the receiver's account.
                 long amountAfterFee = transaction.getAmount() - transaction.getFee();
                 if (amountAfterFee > 0L) {
                     ByteBuffer receiverIdentifier = ByteBuffer.wrap(transaction.getReceiverIdentifier());
-                    Long receiverBalance = identifierToBalanceMap.get(receiverIdentifier);
-                    if (receiverBalance == null) {
-                        receiverBalance = 0L;
-                    }
-                    receiverBalance += amountAfterFee;
-                    identifierToBalanceMap.put(receiverIdentifier, receiverBalance);
+                    long receiverBalance = balance(balanceList, changedBalanceMap, receiverIdentifier);
+                    changedBalanceMap.put(receiverIdentifier, receiverBalance + amountAfterFee);
                 }
             } else {
                 LogUtil.println("removed transaction because amount " + transaction.getAmount() + " was greater " +
@@ -160,6 +157,18 @@ public class BalanceManager {
         return approvedTransactions;
     }
 
+    private static long balance(BalanceList balanceList, Map<ByteBuffer, Long> changedBalanceMap,
+                                ByteBuffer identifier) {
+
+        Long balance = changedBalanceMap.get(identifier);
+        return balance != null ? balance : balance(balanceList, identifier.array());
+    }
+
+    private static long balance(BalanceList balanceList, byte[] identifier) {
+
+        return balanceList == null ? 0L : balanceList.balanceForIdentifier(identifier);
+    }
+
     public static Map<ByteBuffer, Long> makeBalanceMap(BalanceList balanceList) {
 
         Map<ByteBuffer, Long> balanceMap = new ConcurrentHashMap<>();
@@ -231,7 +240,7 @@ public class BalanceManager {
         return transactionsWithoutDuplicates;
     }
 
-    public static boolean transactionSpamsBalanceList(Map<ByteBuffer, Long> balanceMap, Transaction transaction,
+    public static boolean transactionSpamsBalanceList(BalanceList balanceList, Transaction transaction,
                                                       List<Transaction> allTransactionsInBlock) {
 
         // To prevent issues related to an exceptionally large balance list, some limitations are needed to avoid the
@@ -253,7 +262,7 @@ public class BalanceManager {
             // for a new account is less confusing than a minimum of ∩10.025063. A transaction of only μ1 will not spam
             // the balance list, as the full transaction amount is consumed by the transaction fee, and a new entry is
             // not created in the balance list.
-            if (!balanceMap.keySet().contains(ByteBuffer.wrap(transaction.getReceiverIdentifier())) &&
+            if (balance(balanceList, transaction.getReceiverIdentifier()) == 0L &&
                     transaction.getAmount() > 1L && transaction.getAmount() < minimumPreferredBalance) {
                 isSpam = true;
             } else {
@@ -261,8 +270,7 @@ public class BalanceManager {
                 // This is the indirect case. The existing account needs to have at least ∩10 in it or be empty after
                 // the block. All transactions must be considered, or multiple transactions could be sent from a single
                 // account to bypass the rule.
-                long senderBalance = balanceMap.getOrDefault(ByteBuffer.wrap(transaction.getSenderIdentifier()),
-                        0L);
+                long senderBalance = balance(balanceList, transaction.getSenderIdentifier());
                 long senderSum = 0L;
                 for (Transaction blockTransaction : allTransactionsInBlock) {
                     if (ByteUtil.arraysAreEqual(transaction.getSenderIdentifier(),
@@ -279,12 +287,12 @@ public class BalanceManager {
         return isSpam;
     }
 
-    public static List<Transaction> transactionsWithoutBalanceListSpam(Map<ByteBuffer, Long> balanceMap,
+    public static List<Transaction> transactionsWithoutBalanceListSpam(BalanceList balanceList,
                                                                        List<Transaction> transactions) {
 
         List<Transaction> transactionsFiltered = new ArrayList<>();
         for (Transaction transaction : transactions) {
-            if (!transactionSpamsBalanceList(balanceMap, transaction, transactions)) {
+            if (!transactionSpamsBalanceList(balanceList, transaction, transactions)) {
                 transactionsFiltered.add(transaction);
             }
         }
@@ -292,12 +300,12 @@ public class BalanceManager {
         return transactionsFiltered;
     }
 
-    public static int numberOfTransactionsSpammingBalanceList(Map<ByteBuffer, Long> balanceMap,
+    public static int numberOfTransactionsSpammingBalanceList(BalanceList balanceList,
                                                               List<Transaction> transactions) {
 
         int numberOfTransactions = 0;
         for (Transaction transaction : transactions) {
-            if (transactionSpamsBalanceList(balanceMap, transaction, transactions)) {
+            if (transactionSpamsBalanceList(balanceList, transaction, transactions)) {
                 numberOfTransactions++;
             }
         }
@@ -0,0 +1,735 @@
+package co.nyzo.verifier;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+
+// This is a persistent (immutable, structurally shared) sorted map from account identifier to balance and fee height,
+// used as the storage of BalanceList. It is a radix tree on the bytes of the identifier: each branch node has 256
+// children, indexed by the identifier byte at the depth of the node, and each leaf holds a small number of accounts in
+// packed arrays sorted on identifier. An update copies only the nodes on the paths to the changed accounts, so a new
+// tree shares all untouched nodes with the tree it was derived from. Traversal produces accounts in the same unsigned
+// byte order used by the balance list.
+//
+// Instead of a blocks-until-fee counter, each account stores the height at which its counter reaches zero. Outside of
+// fee resets, the counter decrements by one every block, so storing the height allows the counters of all unchanged
+// accounts to advance without modification. The counter for a particular height is the fee height minus that height.
+// Each node also stores the lowest fee height in its subtree, so the accounts that owe fees at a height are found by
+// visiting only the subtrees that contain them, like the buckets of a timing wheel that are due.
+public class BalanceTree {
+
+    private static final int maximumLeafSize = 64;
+    private static final int identifierLength = FieldByteSize.identifier;
+    private static final int bytesPerItem = identifierLength + FieldByteSize.transactionAmount +
+            FieldByteSize.blocksUntilFee;
+
+    public static final BalanceTree empty = new BalanceTree(null);
+
+    private final Node root;
+
+    private BalanceTree(Node root) {
+        this.root = root;
+    }
+
+    public static BalanceTree fromSortedItems(List<BalanceListItem> items, long blockHeight) {
+
+        // The items must be sorted on identifier, without duplicates.
+        int size = items.size();
+        byte[] identifiers = new byte[size * identifierLength];
+        long[] balances = new long[size];
+        long[] feeHeights = new long[size];
+        for (int i = 0; i < size; i++) {
+            BalanceListItem item = items.get(i);
+            System.arraycopy(item.getIdentifier(), 0, identifiers, i * identifierLength, identifierLength);
+            balances[i] = item.getBalance();
+            feeHeights[i] = blockHeight + item.getBlocksUntilFee();
+        }
+
+        return new BalanceTree(build(identifiers, balances, feeHeights, 0, size, 0));
+    }
+
+    // This reads serialized items directly into packed arrays, without creating an object for each item. It returns
+    // null, leaving the position of the buffer unchanged, if the items are not in the form produced by BalanceList
+    // (sorted on identifier, without duplicates, with positive balances), so that the caller can read and normalize
+    // them individually.
+    public static BalanceTree fromSerializedItems(ByteBuffer buffer, int numberOfItems, long blockHeight) {
+
+        BalanceTree tree = null;
+        if (numberOfItems >= 0 && numberOfItems <= buffer.remaining() / bytesPerItem) {
+            int startPosition = buffer.position();
+            byte[] identifiers = new byte[numberOfItems * identifierLength];
+            long[] balances = new long[numberOfItems];
+            long[] feeHeights = new long[numberOfItems];
+            boolean valid = true;
+            for (int i = 0; i < numberOfItems && valid; i++) {
+                buffer.get(identifiers, i * identifierLength, identifierLength);
+                balances[i] = buffer.getLong();
+                feeHeights[i] = blockHeight + buffer.getShort();
+                valid = balances[i] > 0L && (i == 0 || compare(identifiers, (i - 1) * identifierLength, identifiers,
+                        i * identifierLength) < 0);
+            }
+
+            if (valid) {
+                tree = new BalanceTree(build(identifiers, balances, feeHeights, 0, numberOfItems, 0));
+            } else {
+                buffer.position(startPosition);
+            }
+        }
+
+        return tree;
+    }
+
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    public long balanceSum() {
+        return root == null ? 0L : root.balanceSum;
+    }
+
+    public long balance(byte[] identifier) {
+
+        long balance = 0L;
+        Leaf leaf = leafForIdentifier(identifier);
+        if (leaf != null) {
+            int index = leaf.indexOf(identifier);
+            if (index >= 0) {
+                balance = leaf.balances[index];
+            }
+        }
+
+        return balance;
+    }
+
+    public BalanceListItem item(byte[] identifier, long blockHeight) {
+
+        BalanceListItem item = null;
+        Leaf leaf = leafForIdentifier(identifier);
+        if (leaf != null) {
+            int index = leaf.indexOf(identifier);
+            if (index >= 0) {
+                item = leaf.item(index, blockHeight);
+            }
+        }
+
+        return item;
+    }
+
+    public List<BalanceListItem> items(long blockHeight) {
+
+        List<BalanceListItem> items = new ArrayList<>(size());
+        addItems(root, blockHeight, items);
+
+        return items;
+    }
+
+    // This returns a read-only list of the items at the provided height. The list is backed by the leaves of the tree,
+    // and each item is created when it is accessed, so the list does not hold an object for each account.
+    public List<BalanceListItem> itemList(long blockHeight) {
+
+        return new ItemList(this, blockHeight);
+    }
+
+    public void writeItems(ByteBuffer buffer, long blockHeight) {
+
+        writeItems(root, buffer, blockHeight);
+    }
+
+    // This adds the serialized items to a SHA-256 digest that already contains the bytes that precede the items, and it
+    // returns checkpoints that hold clones of the digest every checkpoint interval accounts and after the last account.
+    // If checkpoints from another tree are provided for the same height and the same preceding bytes, hashing resumes
+    // from the last of those checkpoints at or before the first account that differs between the trees. This helps
+    // when several lists are derived at the same height, such as for competing blocks. It does not help from one
+    // height to the next, because the preceding bytes and the blocks-until-fee counters of all accounts change.
+    HashCheckpoints digestItems(MessageDigest digest, long blockHeight, byte[] prefix, HashCheckpoints previous,
+                                int checkpointInterval) throws CloneNotSupportedException {
+
+        List<Leaf> leafList = new ArrayList<>();
+        addLeaves(root, leafList);
+        Leaf[] leaves = leafList.toArray(new Leaf[0]);
+
+        // Find the checkpoint to resume from, if any.
+        int startAccount = 0;
+        if (previous != null && previous.blockHeight == blockHeight && Arrays.equals(previous.prefix, prefix)) {
+            int lastUsableAccount = Math.min(firstDifference(previous.leaves, leaves),
+                    previous.accountIndices[previous.accountIndices.length - 1]);
+            for (int i = previous.accountIndices.length - 1; i >= 0 && startAccount == 0; i--) {
+                if (previous.accountIndices[i] <= lastUsableAccount) {
+                    startAccount = previous.accountIndices[i];
+                    digest = (MessageDigest) previous.digests[i].clone();
+                }
+            }
+        }
+
+        // Keep the checkpoints before the starting account, and add new checkpoints while hashing the remaining items.
+        List<Integer> accountIndices = new ArrayList<>();
+        List<MessageDigest> digests = new ArrayList<>();
+        for (int i = 0; startAccount > 0 && i < previous.accountIndices.length &&
+                previous.accountIndices[i] <= startAccount; i++) {
+            accountIndices.add(previous.accountIndices[i]);
+            digests.add(previous.digests[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(checkpointInterval * bytesPerItem);
+        int accountIndex = 0;
+        for (Leaf leaf : leaves) {
+            for (int i = 0; i < leaf.size; i++, accountIndex++) {
+                if (accountIndex >= startAccount) {
+                    buffer.put(leaf.identifiers, i * identifierLength, identifierLength);
+                    buffer.putLong(leaf.balances[i]);
+                    buffer.putShort((short) (leaf.feeHeights[i] - blockHeight));
+                    if ((accountIndex + 1) % checkpointInterval == 0) {
+                        digest.update(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                        accountIndices.add(accountIndex + 1);
+                        digests.add((MessageDigest) digest.clone());
+                    }
+                }
+            }
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+        if (accountIndices.isEmpty() || accountIndices.get(accountIndices.size() - 1) != accountIndex) {
+            accountIndices.add(accountIndex);
+            digests.add((MessageDigest) digest.clone());
+        }
+
+        int[] accountIndexArray = new int[accountIndices.size()];
+        for (int i = 0; i < accountIndexArray.length; i++) {
+            accountIndexArray[i] = accountIndices.get(i);
+        }
+
+        return new HashCheckpoints(blockHeight, prefix, leaves, accountIndexArray,
+                digests.toArray(new MessageDigest[0]));
+    }
+
+    // This returns the index of the first account that differs between two leaf sequences, or the smaller number of
+    // accounts if one sequence is a prefix of the other. Leaves shared by both trees are skipped without comparison.
+    private static int firstDifference(Leaf[] leaves1, Leaf[] leaves2) {
+
+        int accountIndex = 0;
+        int leafIndex1 = 0;
+        int leafIndex2 = 0;
+        int index1 = 0;
+        int index2 = 0;
+        boolean different = false;
+        while (!different && leafIndex1 < leaves1.length && leafIndex2 < leaves2.length) {
+            Leaf leaf1 = leaves1[leafIndex1];
+            Leaf leaf2 = leaves2[leafIndex2];
+            if (leaf1 == leaf2 && index1 == 0 && index2 == 0) {
+                accountIndex += leaf1.size;
+                leafIndex1++;
+                leafIndex2++;
+            } else {
+                different = leaf1.balances[index1] != leaf2.balances[index2] ||
+                        leaf1.feeHeights[index1] != leaf2.feeHeights[index2] ||
+                        compare(leaf1.identifiers, index1 * identifierLength, leaf2.identifiers,
+                                index2 * identifierLength) != 0;
+                if (!different) {
+                    accountIndex++;
+                    if (++index1 == leaf1.size) {
+                        index1 = 0;
+                        leafIndex1++;
+                    }
+                    if (++index2 == leaf2.size) {
+                        index2 = 0;
+                        leafIndex2++;
+                    }
+                }
+            }
+        }
+
+        return accountIndex;
+    }
+
+    private static void addLeaves(Node node, List<Leaf> leaves) {
+
+        if (node instanceof Leaf) {
+            if (node.size > 0) {
+                leaves.add((Leaf) node);
+            }
+        } else if (node instanceof Branch) {
+            for (Node child : ((Branch) node).children) {
+                addLeaves(child, leaves);
+            }
+        }
+    }
+
+    // This returns the identifiers of all accounts with fee heights at or below the provided height, in tree order.
+    // Subtrees with no such accounts are skipped.
+    public List<byte[]> identifiersWithFeeHeightAtOrBelow(long height) {
+
+        List<byte[]> identifiers = new ArrayList<>();
+        addIdentifiersWithFeeHeightAtOrBelow(root, height, identifiers);
+
+        return identifiers;
+    }
+
+    public Editor edit(long blockHeight) {
+
+        return new Editor(this, blockHeight);
+    }
+
+    private Leaf leafForIdentifier(byte[] identifier) {
+
+        Node node = root;
+        int depth = 0;
+        while (node instanceof Branch) {
+            node = ((Branch) node).children[identifier[depth++] & 0xff];
+        }
+
+        return (Leaf) node;
+    }
+
+    private static void addItems(Node node, long blockHeight, List<BalanceListItem> items) {
+
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < leaf.size; i++) {
+                items.add(leaf.item(i, blockHeight));
+            }
+        } else if (node instanceof Branch) {
+            for (Node child : ((Branch) node).children) {
+                addItems(child, blockHeight, items);
+            }
+        }
+    }
+
+    private static void writeItems(Node node, ByteBuffer buffer, long blockHeight) {
+
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < leaf.size; i++) {
+                buffer.put(leaf.identifiers, i * identifierLength, identifierLength);
+                buffer.putLong(leaf.balances[i]);
+                buffer.putShort((short) (leaf.feeHeights[i] - blockHeight));
+            }
+        } else if (node instanceof Branch) {
+            for (Node child : ((Branch) node).children) {
+                writeItems(child, buffer, blockHeight);
+            }
+        }
+    }
+
+    private static void addIdentifiersWithFeeHeightAtOrBelow(Node node, long height, List<byte[]> identifiers) {
+
+        // Only visit subtrees that contain at least one account with a fee height at or below the height.
+        if (node instanceof Leaf && node.minimumFeeHeight <= height) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < leaf.size; i++) {
+                if (leaf.feeHeights[i] <= height) {
+                    identifiers.add(leaf.identifier(i));
+                }
+            }
+        } else if (node instanceof Branch && node.minimumFeeHeight <= height) {
+            for (Node child : ((Branch) node).children) {
+                addIdentifiersWithFeeHeightAtOrBelow(child, height, identifiers);
+            }
+        }
+    }
+
+    private static Node build(byte[] identifiers, long[] balances, long[] feeHeights, int start, int end, int depth) {
+
+        // The accounts in the range are sorted, so the accounts for each child of a branch are contiguous.
+        Node node;
+        int size = end - start;
+        if (size == 0) {
+            node = null;
+        } else if (size <= maximumLeafSize || depth >= identifierLength) {
+            node = new Leaf(Arrays.copyOfRange(identifiers, start * identifierLength, end * identifierLength),
+                    Arrays.copyOfRange(balances, start, end), Arrays.copyOfRange(feeHeights, start, end));
+        } else {
+            Node[] children = new Node[256];
+            int childStart = start;
+            while (childStart < end) {
+                int childByte = identifiers[childStart * identifierLength + depth] & 0xff;
+                int childEnd = childStart + 1;
+                while (childEnd < end && (identifiers[childEnd * identifierLength + depth] & 0xff) == childByte) {
+                    childEnd++;
+                }
+                children[childByte] = build(identifiers, balances, feeHeights, childStart, childEnd, depth + 1);
+                childStart = childEnd;
+            }
+            node = new Branch(children);
+        }
+
+        return node;
+    }
+
+    private static Node update(Node node, Update[] updates, int start, int end, int depth) {
+
+        Node result;
+        if (node instanceof Branch) {
+            // Copy the child array and update the children that have changes.
+            Node[] children = ((Branch) node).children.clone();
+            int childStart = start;
+            while (childStart < end) {
+                int childByte = updates[childStart].identifier[depth] & 0xff;
+                int childEnd = childStart + 1;
+                while (childEnd < end && (updates[childEnd].identifier[depth] & 0xff) == childByte) {
+                    childEnd++;
+                }
+                children[childByte] = update(children[childByte], updates, childStart, childEnd, depth + 1);
+                childStart = childEnd;
+            }
+
+            Branch branch = new Branch(children);
+            result = branch.size == 0 ? null : branch;
+        } else {
+            // Merge the updates into the leaf. Updates with balances of zero or less remove accounts.
+            Leaf leaf = node == null ? Leaf.empty : (Leaf) node;
+            int maximumSize = leaf.size + end - start;
+            byte[] identifiers = new byte[maximumSize * identifierLength];
+            long[] balances = new long[maximumSize];
+            long[] feeHeights = new long[maximumSize];
+            int size = 0;
+            int leafIndex = 0;
+            int updateIndex = start;
+            while (leafIndex < leaf.size || updateIndex < end) {
+                int comparison = leafIndex == leaf.size ? 1 : updateIndex == end ? -1 :
+                        compare(leaf.identifiers, leafIndex * identifierLength, updates[updateIndex].identifier, 0);
+                if (comparison < 0) {
+                    System.arraycopy(leaf.identifiers, leafIndex * identifierLength, identifiers,
+                            size * identifierLength, identifierLength);
+                    balances[size] = leaf.balances[leafIndex];
+                    feeHeights[size] = leaf.feeHeights[leafIndex];
+                    size++;
+                    leafIndex++;
+                } else {
+                    Update update = updates[updateIndex];
+                    if (update.balance > 0L) {
+                        System.arraycopy(update.identifier, 0, identifiers, size * identifierLength,
+                                identifierLength);
+                        balances[size] = update.balance;
+                        feeHeights[size] = update.feeHeight;
+                        size++;
+                    }
+                    if (comparison == 0) {
+                        leafIndex++;
+                    }
+                    updateIndex++;
+                }
+            }
+
+            result = build(identifiers, balances, feeHeights, 0, size, depth);
+        }
+
+        return result;
+    }
+
+    // This estimates the memory, in bytes, retained by the nodes of this tree that are not shared with the other tree.
+    // Only the paths to changed accounts differ between a derived tree and its source, so the walk only descends into
+    // those paths. The node sizes assume compressed references.
+    public long unsharedByteSize(BalanceTree other) {
+
+        return unsharedByteSize(root, other == null ? null : other.root);
+    }
+
+    private static long unsharedByteSize(Node node, Node otherNode) {
+
+        long byteSize = 0L;
+        if (node != null && node != otherNode) {
+            if (node instanceof Branch) {
+                Node[] children = ((Branch) node).children;
+                Node[] otherChildren = otherNode instanceof Branch ? ((Branch) otherNode).children : null;
+                byteSize = 40L + 16L + children.length * 4L;
+                for (int i = 0; i < children.length; i++) {
+                    byteSize += unsharedByteSize(children[i], otherChildren == null ? null : otherChildren[i]);
+                }
+            } else {
+                Leaf leaf = (Leaf) node;
+                byteSize = 48L + 3 * 16L + leaf.identifiers.length + leaf.size * 16L;
+            }
+        }
+
+        return byteSize;
+    }
+
+    private static int compare(byte[] array1, int offset1, byte[] array2, int offset2) {
+
+        int result = 0;
+        for (int i = 0; i < identifierLength && result == 0; i++) {
+            result = Integer.compare(array1[offset1 + i] & 0xff, array2[offset2 + i] & 0xff);
+        }
+
+        return result;
+    }
+
+    private static abstract class Node {
+
+        final int size;
+        final long balanceSum;
+        final long minimumFeeHeight;
+
+        Node(int size, long balanceSum, long minimumFeeHeight) {
+            this.size = size;
+            this.balanceSum = balanceSum;
+            this.minimumFeeHeight = minimumFeeHeight;
+        }
+    }
+
+    private static class Branch extends Node {
+
+        final Node[] children;
+
+        Branch(Node[] children) {
+            super(sizeOf(children), balanceSumOf(children), minimumFeeHeightOf(children));
+            this.children = children;
+        }
+
+        private static int sizeOf(Node[] children) {
+            int size = 0;
+            for (Node child : children) {
+                size += child == null ? 0 : child.size;
+            }
+            return size;
+        }
+
+        private static long balanceSumOf(Node[] children) {
+            long balanceSum = 0L;
+            for (Node child : children) {
+                balanceSum += child == null ? 0L : child.balanceSum;
+            }
+            return balanceSum;
+        }
+
+        private static long minimumFeeHeightOf(Node[] children) {
+            long minimumFeeHeight = Long.MAX_VALUE;
+            for (Node child : children) {
+                if (child != null) {
+                    minimumFeeHeight = Math.min(minimumFeeHeight, child.minimumFeeHeight);
+                }
+            }
+            return minimumFeeHeight;
+        }
+    }
+
+    private static class Leaf extends Node {
+
+        static final Leaf empty = new Leaf(new byte[0], new long[0], new long[0]);
+
+        final byte[] identifiers;
+        final long[] balances;
+        final long[] feeHeights;
+
+        Leaf(byte[] identifiers, long[] balances, long[] feeHeights) {
+            super(balances.length, sum(balances), minimum(feeHeights));
+            this.identifiers = identifiers;
+            this.balances = balances;
+            this.feeHeights = feeHeights;
+        }
+
+        private static long sum(long[] values) {
+            long sum = 0L;
+            for (long value : values) {
+                sum += value;
+            }
+            return sum;
+        }
+
+        private static long minimum(long[] values) {
+            long minimum = Long.MAX_VALUE;
+            for (long value : values) {
+                minimum = Math.min(minimum, value);
+            }
+            return minimum;
+        }
+
+        int indexOf(byte[] identifier) {
+
+            int lowIndex = 0;
+            int highIndex = size - 1;
+            int result = -1;
+            while (lowIndex <= highIndex && result < 0) {
+                int midIndex = (lowIndex + highIndex) >>> 1;
+                int comparison = compare(identifiers, midIndex * identifierLength, identifier, 0);
+                if (comparison < 0) {
+                    lowIndex = midIndex + 1;
+                } else if (comparison > 0) {
+                    highIndex = midIndex - 1;
+                } else {
+                    result = midIndex;
+                }
+            }
+
+            return result;
+        }
+
+        byte[] identifier(int index) {
+            return Arrays.copyOfRange(identifiers, index * identifierLength, (index + 1) * identifierLength);
+        }
+
+        BalanceListItem item(int index, long blockHeight) {
+            return new BalanceListItem(identifier(index), balances[index],
+                    (short) (feeHeights[index] - blockHeight));
+        }
+    }
+
+    private static class ItemList extends AbstractList<BalanceListItem> {
+
+        private final long blockHeight;
+        private final Leaf[] leaves;
+        private final int[] leafStarts;
+        private final int size;
+
+        ItemList(BalanceTree tree, long blockHeight) {
+
+            List<Leaf> leafList = new ArrayList<>();
+            addLeaves(tree.root, leafList);
+
+            this.blockHeight = blockHeight;
+            this.leaves = leafList.toArray(new Leaf[0]);
+            this.leafStarts = new int[leaves.length];
+            int start = 0;
+            for (int i = 0; i < leaves.length; i++) {
+                leafStarts[i] = start;
+                start += leaves[i].size;
+            }
+            this.size = start;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public BalanceListItem get(int index) {
+
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+
+            // Find the last leaf that starts at or before the index.
+            int leafIndex = Arrays.binarySearch(leafStarts, index);
+            if (leafIndex < 0) {
+                leafIndex = -leafIndex - 2;
+            }
+
+            return leaves[leafIndex].item(index - leafStarts[leafIndex], blockHeight);
+        }
+
+        @Override
+        public Iterator<BalanceListItem> iterator() {
+
+            return new Iterator<BalanceListItem>() {
+                private int leafIndex = 0;
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return leafIndex < leaves.length;
+                }
+
+                @Override
+                public BalanceListItem next() {
+
+                    if (leafIndex >= leaves.length) {
+                        throw new NoSuchElementException();
+                    }
+
+                    BalanceListItem item = leaves[leafIndex].item(index, blockHeight);
+                    if (++index == leaves[leafIndex].size) {
+                        index = 0;
+                        leafIndex++;
+                    }
+
+                    return item;
+                }
+            };
+        }
+    }
+
+    // The checkpoints of a hashed tree. Each digest contains the preceding bytes and the items before the account at the
+    // corresponding index. The digests are never updated after they are stored; they are cloned to resume hashing.
+    static class HashCheckpoints {
+
+        private final long blockHeight;
+        private final byte[] prefix;
+        private final Leaf[] leaves;
+        private final int[] accountIndices;
+        private final MessageDigest[] digests;
+
+        private HashCheckpoints(long blockHeight, byte[] prefix, Leaf[] leaves, int[] accountIndices,
+                                MessageDigest[] digests) {
+            this.blockHeight = blockHeight;
+            this.prefix = prefix;
+            this.leaves = leaves;
+            this.accountIndices = accountIndices;
+            this.digests = digests;
+        }
+
+        // This returns a digest containing the preceding bytes and all items.
+        MessageDigest digestOfAllItems() throws CloneNotSupportedException {
+            return (MessageDigest) digests[digests.length - 1].clone();
+        }
+
+        int numberOfCheckpoints() {
+            return digests.length;
+        }
+    }
+
+    private static class Update {
+
+        final byte[] identifier;
+        final long balance;
+        final long feeHeight;
+
+        Update(byte[] identifier, long balance, long feeHeight) {
+            this.identifier = identifier;
+            this.balance = balance;
+            this.feeHeight = feeHeight;
+        }
+    }
+
+    // The editor is a mutable overlay on a tree, used to derive the next balance list. Items are read from the tree at
+    // the editor's height, and changed items are held in a map until they are applied to produce a new tree.
+    public static class Editor {
+
+        private final BalanceTree tree;
+        private final long blockHeight;
+        private final Map<ByteBuffer, BalanceListItem> changedItems = new HashMap<>();
+
+        private Editor(BalanceTree tree, long blockHeight) {
+            this.tree = tree;
+            this.blockHeight = blockHeight;
+        }
+
+        public BalanceListItem item(byte[] identifier) {
+
+            BalanceListItem item = changedItems.get(ByteBuffer.wrap(identifier));
+            if (item == null) {
+                item = tree.item(identifier, blockHeight);
+            }
+
+            return item;
+        }
+
+        public void put(BalanceListItem item) {
+            changedItems.put(ByteBuffer.wrap(item.getIdentifier()), item);
+        }
+
+        public List<BalanceListItem> changedItems() {
+            return new ArrayList<>(changedItems.values());
+        }
+
+        // This produces a new tree with all changed items applied. The blocks-until-fee counters of the changed items
+        // are interpreted relative to the provided height. Items with balances of zero or less are removed.
+        public BalanceTree apply(long newBlockHeight) {
+
+            Update[] updates = new Update[changedItems.size()];
+            int index = 0;
+            for (BalanceListItem item : changedItems.values()) {
+                updates[index++] = new Update(item.getIdentifier(), item.getBalance(),
+                        newBlockHeight + item.getBlocksUntilFee());
+            }
+            Arrays.sort(updates, new Comparator<Update>() {
+                @Override
+                public int compare(Update update1, Update update2) {
+                    return BalanceTree.compare(update1.identifier, 0, update2.identifier, 0);
+                }
+            });
+
+            return updates.length == 0 ? tree : new BalanceTree(update(tree.root, updates, 0, updates.length, 0));
+        }
+    }
+}
@@ -1,35 +1,27 @@
 package co.nyzo.verifier;
 
+import co.nyzo.verifier.util.IpAddressMap;
+
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 
 public class BlacklistManager {
 
     private static final long blacklistDuration = 1000L * 60L * 10L;  // ten minutes
-    private static final Map<ByteBuffer, Long> blacklistedAddresses = new HashMap<>();
+    private static final IpAddressMap<Long> blacklistedAddresses = new IpAddressMap<>();
 
     public static void addToBlacklist(byte[] ipAddress) {
 
         if (BlockManager.completedInitialization() && BlockManager.isCycleComplete() &&
                 !BlockManager.inGenesisCycle()) {
 
-            ByteBuffer addressBuffer = ByteBuffer.wrap(ipAddress);
-            if (!blacklistedAddresses.containsKey(addressBuffer)) {
-                blacklistedAddresses.put(addressBuffer, System.currentTimeMillis());
-            }
+            blacklistedAddresses.putIfAbsent(ipAddress, System.currentTimeMillis());
         }
     }
 
-    public static boolean inBlacklist(ByteBuffer ipAddress) {
-        long timestamp = blacklistedAddresses.getOrDefault(ipAddress, 0L);
-        return System.currentTimeMillis() < timestamp + blacklistDuration;
-    }
-
     public static boolean inBlacklist(byte[] ipAddress) {
-        return inBlacklist(ByteBuffer.wrap(ipAddress));
+        Long timestamp = blacklistedAddresses.get(ipAddress);
+        return timestamp != null && System.currentTimeMillis() < timestamp + blacklistDuration;
     }
 
     public static int getBlacklistSize() {
@@ -41,14 +33,14 @@ public class BlacklistManager {
         // Remove addresses of any nodes in the current cycle.
         for (Node node : NodeManager.getMesh()) {
             if (BlockManager.verifierInOrNearCurrentCycle(ByteBuffer.wrap(node.getIdentifier()))) {
-                ByteBuffer ipAddress = ByteBuffer.wrap(node.getIpAddress());
-                blacklistedAddresses.remove(ipAddress);
+                blacklistedAddresses.remove(node.getIpAddress());
             }
         }
 
         // Remove addresses that have expired.
-        for (ByteBuffer address : new HashSet<>(blacklistedAddresses.keySet())) {
-            if (System.currentTimeMillis() - blacklistedAddresses.getOrDefault(address, 0L) > blacklistDuration) {
+        for (byte[] address : blacklistedAddresses.keys()) {
+            Long timestamp = blacklistedAddresses.get(address);
+            if (timestamp != null && System.currentTimeMillis() - timestamp > blacklistDuration) {
                 blacklistedAddresses.remove(address);
             }
         }
@@ -7,6 +7,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Block implements MessageObject {
 
@@ -58,6 +59,16 @@ public class Block implements MessageObject {
     private SignatureState signatureState = SignatureState.Undetermined;
     private CycleInformation cycleInformation = null;
 
+    // The hash, serialized bytes, and byte size are computed when first requested and then reused. They are cleared if
+    // the block is signed again. The bytes and size are not stored for blocks with cycle transactions, because the
+    // signature maps of cycle transactions are modified when balance lists are derived.
+    private volatile byte[] hash = null;
+    private volatile byte[] bytes = null;
+    private volatile int byteSize = -1;
+
+    private static final LongAdder hashRequests = new LongAdder();
+    private static final LongAdder hashComputations = new LongAdder();
+
     public Block(int blockchainVersion, long height, byte[] previousBlockHash, long startTimestamp,
                  List<Transaction> transactions, byte[] balanceListHash) {
 
@@ -157,7 +168,21 @@ public class Block implements MessageObject {
     }
 
     public byte[] getHash() {
-        return HashUtil.doubleSHA256(verifierSignature);
+
+        hashRequests.increment();
+        byte[] hash = this.hash;
+        if (hash == null) {
+            hashComputations.increment();
+            hash = HashUtil.doubleSHA256(verifierSignature);
+            this.hash = hash;
+        }
+
+        return hash;
+    }
+
+    public static String getHashStatistics() {
+
+        return "requested=" + hashRequests.sum() + ", computed=" + hashComputations.sum();
     }
 
     public byte[] getBalanceListHash() {
@@ -210,7 +235,15 @@ public class Block implements MessageObject {
 
     public int getByteSize() {
 
-        return getByteSize(true);
+        int byteSize = this.byteSize;
+        if (byteSize < 0) {
+            byteSize = getByteSize(true);
+            if (serializationIsStable()) {
+                this.byteSize = byteSize;
+            }
+        }
+
+        return byteSize;
     }
 
     public int getByteSize(boolean includeSignature) {
@@ -406,7 +439,25 @@ public class Block implements MessageObject {
 
     public byte[] getBytes() {
 
-        return getBytes(true);
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            bytes = getBytes(true);
+            if (serializationIsStable()) {
+                this.bytes = bytes;
+            }
+        }
+
+        return bytes;
+    }
+
+    private boolean serializationIsStable() {
+
+        boolean stable = true;
+        for (int i = 0; i < transactions.size() && stable; i++) {
+            stable = transactions.get(i).getType() != Transaction.typeCycle;
+        }
+
+        return stable;
     }
 
     private byte[] getBytes(boolean includeSignature) {
@@ -438,6 +489,9 @@ public class Block implements MessageObject {
         this.verificationTimestamp = verificationTimestamp;
         this.verifierIdentifier = KeyUtil.identifierForSeed(signerSeed);
         this.verifierSignature = SignatureUtil.signBytes(getBytes(false), signerSeed);
+        this.hash = null;
+        this.bytes = null;
+        this.byteSize = -1;
     }
 
     public void sign(byte[] signerSeed) {
@@ -573,6 +627,32 @@ public class Block implements MessageObject {
                                                       List<Transaction> transactions, byte[] verifierIdentifier,
                                                       int blockchainVersion) {
 
+        BalanceList result = null;
+        try {
+            // Remove any invalid transactions. The previous block is only null for the Genesis block. This also only
+            // needs to be performed on blocks past the frozen edge, as blocks that have been frozen are no longer
+            // subject to scrutiny.
+            if (previousBlock != null && previousBalanceList != null &&
+                    previousBlock.getBlockHeight() + 1L > BlockManager.getFrozenEdgeHeight()) {
+                transactions = BalanceManager.approvedTransactionsForBlock(transactions, previousBlock, false);
+            }
+
+            result = balanceListForApprovedTransactions(previousBlock, previousBalanceList, transactions,
+                    verifierIdentifier, blockchainVersion);
+        } catch (Exception e) {
+            System.out.println(PrintUtil.printException(e));
+        }
+
+        return result;
+    }
+
+    // This derives the balance list for the next block from a list of transactions that have already been approved. The
+    // previous list is not modified. Only the accounts affected by the block are read and written: the new list shares
+    // all other accounts with the previous list through its balance tree.
+    public static BalanceList balanceListForApprovedTransactions(Block previousBlock, BalanceList previousBalanceList,
+                                                                 List<Transaction> transactions,
+                                                                 byte[] verifierIdentifier, int blockchainVersion) {
+
         BalanceList result = null;
         try {
             // Only continue if the necessary data is available. For all blocks other than the Genesis block, the
@@ -581,7 +661,8 @@ public class Block implements MessageObject {
 
                 // For the Genesis block, start with an empty/zero values. For all others, start with the information
                 // from the previous block's balance list.
-                List<BalanceListItem> previousBalanceItems;
+                BalanceTree previousTree;
+                long previousTreeHeight;
                 List<byte[]> previousVerifiers;
                 long blockHeight;
                 long previousRolloverFees;
@@ -590,7 +671,8 @@ public class Block implements MessageObject {
                 Map<ByteBuffer, Transaction> pendingCycleTransactions;
                 List<ApprovedCycleTransaction> recentlyApprovedCycleTransactions;
                 if (previousBlock == null) {
-                    previousBalanceItems = new ArrayList<>();
+                    previousTree = BalanceTree.empty;
+                    previousTreeHeight = -1L;
                     previousVerifiers = new ArrayList<>();
                     blockHeight = 0L;
                     previousRolloverFees = 0;
@@ -600,7 +682,8 @@ public class Block implements MessageObject {
                     recentlyApprovedCycleTransactions = new ArrayList<>();
                 } else {
                     blockHeight = previousBlock.getBlockHeight() + 1L;
-                    previousBalanceItems = previousBalanceList.getItems();
+                    previousTree = previousBalanceList.getTree();
+                    previousTreeHeight = previousBalanceList.getBlockHeight();
                     previousRolloverFees = previousBalanceList.getRolloverFees();
 
                     // Get the previous verifiers from the previous block. Add the newest and remove the oldest.
@@ -627,18 +710,9 @@ public class Block implements MessageObject {
                             new ArrayList<>(previousBalanceList.getRecentlyApprovedCycleTransactions());
                 }
 
-                // Make a map of the identifiers to balance list items.
-                Map<ByteBuffer, BalanceListItem> identifierToItemMap = new HashMap<>();
-                for (BalanceListItem item : previousBalanceItems) {
-                    identifierToItemMap.put(ByteBuffer.wrap(item.getIdentifier()), item);
-                }
-
-                // Remove any invalid transactions. The previous block is only null for the Genesis block. This also
-                // only needs to be performed on blocks past the frozen edge, as blocks that have been frozen are no
-                // longer subject to scrutiny.
-                if (previousBlock != null && blockHeight > BlockManager.getFrozenEdgeHeight()) {
-                    transactions = BalanceManager.approvedTransactionsForBlock(transactions, previousBlock, false);
-                }
+                // Open an editor on the previous tree. Items read through the editor have the blocks-until-fee counters
+                // of the previous list, and changed items are held in the editor until the new tree is produced.
+                BalanceTree.Editor editor = previousTree.edit(previousTreeHeight);
 
                 // Add/subtract all transactions. While doing this, sum the fees, organic transaction fees, and
                 // transaction amounts from locked accounts.
@@ -655,12 +729,12 @@ public class Block implements MessageObject {
                         byte[] senderIdentifier = transaction.getType() == Transaction.typeCycle ?
                                 BalanceListItem.cycleAccountIdentifier : transaction.getSenderIdentifier();
                         if (transaction.getType() != Transaction.typeCoinGeneration) {
-                            adjustBalance(senderIdentifier, -transaction.getAmount(), identifierToItemMap);
+                            adjustBalance(senderIdentifier, -transaction.getAmount(), editor);
                         }
 
                         long amountAfterFee = transaction.getAmount() - transaction.getFee();
                         if (amountAfterFee > 0) {
-                            adjustBalance(transaction.getReceiverIdentifier(), amountAfterFee, identifierToItemMap);
+                            adjustBalance(transaction.getReceiverIdentifier(), amountAfterFee, editor);
                         }
 
                         if (transaction.getType() == Transaction.typeStandard) {
@@ -676,7 +750,7 @@ public class Block implements MessageObject {
                 // Process cycle and cycle-signature transactions in version 2 or later.
                 if (blockchainVersion >= 2) {
                     processV2CycleTransactions(pendingCycleTransactions, recentlyApprovedCycleTransactions,
-                            transactions, blockHeight, identifierToItemMap);
+                            transactions, blockHeight, editor);
                 }
 
                 // For a blockchain versions greater than 0, move 1% of the organic transaction fees to the cycle
@@ -687,13 +761,25 @@ public class Block implements MessageObject {
 
                     // Subtract the amount from the fees this block and move the funds to the cycle account.
                     feesThisBlock -= cycleTransferAmount;
-                    adjustBalance(BalanceListItem.cycleAccountIdentifier, cycleTransferAmount, identifierToItemMap);
+                    adjustBalance(BalanceListItem.cycleAccountIdentifier, cycleTransferAmount, editor);
                 }
 
-                // Subtract fees for all balance list items that owe fees.
+                // Subtract fees for all balance list items that owe fees. Only items with blocks-until-fee counters of
+                // zero or less can owe fees. Unchanged items get these counters from their fee heights in the tree, and
+                // new items always start with full counters, except the transfer account, which is never charged. All
+                // of these items are stored as changed, because their counters do not decrement implicitly.
                 long periodicAccountFees = 0L;
-                for (ByteBuffer identifier : identifierToItemMap.keySet()) {
-                    BalanceListItem item = identifierToItemMap.get(identifier);
+                Set<ByteBuffer> feeIdentifiers = new HashSet<>();
+                for (byte[] identifier : previousTree.identifiersWithFeeHeightAtOrBelow(previousTreeHeight)) {
+                    feeIdentifiers.add(ByteBuffer.wrap(identifier));
+                }
+                for (BalanceListItem item : editor.changedItems()) {
+                    if (item.getBlocksUntilFee() <= 0) {
+                        feeIdentifiers.add(ByteBuffer.wrap(item.getIdentifier()));
+                    }
+                }
+                for (ByteBuffer identifier : feeIdentifiers) {
+                    BalanceListItem item = editor.item(identifier.array());
                     if (item.getBlocksUntilFee() <= 0 &&
                             !ByteUtil.arraysAreEqual(identifier.array(), BalanceListItem.transferIdentifier)) {
 
@@ -709,8 +795,8 @@ public class Block implements MessageObject {
                             item = item.adjustByAmount(-1L * fee);
                             periodicAccountFees += fee;
                         }
-                        identifierToItemMap.put(identifier, item);
                     }
+                    editor.put(item);
                 }
 
                 // Split the transaction fees among the current and previous verifiers.
@@ -720,24 +806,20 @@ public class Block implements MessageObject {
                 long feesPerVerifier = totalFees / verifiers.size();
                 if (feesPerVerifier > 0L) {
                     for (byte[] verifier : verifiers) {
-                        adjustBalance(verifier, feesPerVerifier, identifierToItemMap);
+                        adjustBalance(verifier, feesPerVerifier, editor);
                     }
                 }
 
-                // Make the new balance items from the balance map, decrementing the blocks-until-fee counter for each.
-                long micronyzosInSystem = 0L;
-                List<BalanceListItem> balanceItems = new ArrayList<>();
-                for (ByteBuffer identifier : identifierToItemMap.keySet()) {
-                    BalanceListItem item = identifierToItemMap.get(identifier);
-                    if (item.getBalance() > 0L) {
-                        balanceItems.add(item.decrementBlocksUntilFee());
-                        micronyzosInSystem += item.getBalance();
-                    }
+                // Make the new tree from the changed items, decrementing the blocks-until-fee counter for each. Items
+                // with balances of zero or less are removed. The counters of unchanged items decrement implicitly.
+                for (BalanceListItem item : editor.changedItems()) {
+                    editor.put(item.decrementBlocksUntilFee());
                 }
+                BalanceTree tree = editor.apply(blockHeight);
 
-                // Make the balance list. The pairs are sorted in the constructor.
+                // Make the balance list.
                 byte rolloverFees = (byte) (totalFees % verifiers.size());
-                micronyzosInSystem += rolloverFees;
+                long micronyzosInSystem = tree.balanceSum() + rolloverFees;
                 if (micronyzosInSystem == Transaction.micronyzosInSystem) {
                     // Version 0 of the blockchain does not track the unlock threshold and transfer sum.
                     long unlockThreshold = blockchainVersion == 0 ? 0 : previousUnlockThreshold +
@@ -745,8 +827,8 @@ public class Block implements MessageObject {
                     long unlockTransferSum = blockchainVersion == 0 ? 0 : previousUnlockTransferSum +
                             transactionSumFromLockedAccounts;
 
-                    result = new BalanceList(blockchainVersion, blockHeight, rolloverFees, previousVerifiers,
-                            balanceItems, unlockThreshold, unlockTransferSum, pendingCycleTransactions,
+                    result = new BalanceList(blockchainVersion, blockHeight, rolloverFees, previousVerifiers, tree,
+                            unlockThreshold, unlockTransferSum, pendingCycleTransactions,
                             recentlyApprovedCycleTransactions);
                 }
             }
@@ -757,22 +839,20 @@ public class Block implements MessageObject {
         return result;
     }
 
-    private static void adjustBalance(byte[] identifier, long amount,
-                                      Map<ByteBuffer, BalanceListItem> identifierToItemMap) {
+    private static void adjustBalance(byte[] identifier, long amount, BalanceTree.Editor editor) {
 
-        ByteBuffer identifierBuffer = ByteBuffer.wrap(identifier);
-        BalanceListItem item = identifierToItemMap.get(identifierBuffer);
+        BalanceListItem item = editor.item(identifier);
         if (item == null) {
             item = new BalanceListItem(identifier, 0L);
         }
         item = item.adjustByAmount(amount);
-        identifierToItemMap.put(identifierBuffer, item);
+        editor.put(item);
     }
 
     private static void processV2CycleTransactions(Map<ByteBuffer, Transaction> pendingCycleTransactions,
                                                    List<ApprovedCycleTransaction> recentlyApprovedCycleTransactions,
                                                    List<Transaction> transactions, long blockHeight,
-                                                   Map<ByteBuffer, BalanceListItem> identifierToItemMap) {
+                                                   BalanceTree.Editor editor) {
 
         // Add all cycle transactions to the pending map.
         for (Transaction transaction : transactions) {
@@ -822,8 +902,7 @@ public class Block implements MessageObject {
         for (ApprovedCycleTransaction transaction : recentlyApprovedCycleTransactions) {
             recentCycleTransactionSum += transaction.getAmount();
         }
-        ByteBuffer cycleAccountIdentifier = ByteBuffer.wrap(BalanceListItem.cycleAccountIdentifier);
-        BalanceListItem cycleBalanceItem = identifierToItemMap.get(cycleAccountIdentifier);
+        BalanceListItem cycleBalanceItem = editor.item(BalanceListItem.cycleAccountIdentifier);
         long cycleAccountBalance = cycleBalanceItem.getBalance();
         long maximumCycleTransactionAmount = Math.min(maximumCycleTransactionSumPerInterval -
                 recentCycleTransactionSum, cycleAccountBalance);
@@ -872,10 +951,9 @@ public class Block implements MessageObject {
             recentlyApprovedCycleTransactions.add(approvedListEntry);
 
             // Adjust the balance of the cycle account and the receiver account.
-            adjustBalance(BalanceListItem.cycleAccountIdentifier, -approvedCycleTransaction.getAmount(),
-                    identifierToItemMap);
+            adjustBalance(BalanceListItem.cycleAccountIdentifier, -approvedCycleTransaction.getAmount(), editor);
             adjustBalance(approvedCycleTransaction.getReceiverIdentifier(), approvedCycleTransaction.getAmount(),
-                    identifierToItemMap);
+                    editor);
         }
     }
 
@@ -1025,8 +1103,7 @@ public class Block implements MessageObject {
         if (previousBlock != null) {
             BalanceList balanceList = BalanceListManager.balanceListForBlock(previousBlock);
             if (balanceList != null) {
-                Map<ByteBuffer, Long> balanceMap = BalanceManager.makeBalanceMap(balanceList);
-                count = BalanceManager.numberOfTransactionsSpammingBalanceList(balanceMap, getTransactions());
+                count = BalanceManager.numberOfTransactionsSpammingBalanceList(balanceList, getTransactions());
             }
         }
 
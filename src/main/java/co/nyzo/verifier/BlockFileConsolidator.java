@@ -155,13 +155,13 @@ public class BlockFileConsolidator {
             }
         }
 
-        // Delete the offset file. If needed, this file will be rebuilt by HistoricalBlockManager to reflect the
-        // contents of the new consolidated file.
+        // Delete the offset file. The new consolidated file contains its own height index, so HistoricalBlockManager
+        // does not need to rebuild this file.
         HistoricalBlockManager.offsetFileForHeight(fileIndex * BlockManager.blocksPerFile).delete();
 
-        // Write the combined file.
+        // Write the combined file with a height index.
         consolidatedFile.getParentFile().mkdirs();  // ensure the parent directory exists
-        BlockManager.writeBlocksToFile(blocks, balanceLists, consolidatedFile);
+        BlockManager.writeBlocksToFile(blocks, balanceLists, consolidatedFile, true);
 
         LogUtil.println("consolidated " + individualFiles.size() + " files to a single file for start height " +
                 startBlockHeight + " on " + Verifier.getNickname() + "; used " + balanceLists.size() +
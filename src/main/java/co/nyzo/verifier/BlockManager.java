@@ -132,31 +132,36 @@ public class BlockManager {
         return block;
     }
 
-    public static synchronized List<Block> loadBlocksInFile(File file, long minimumHeight, long maximumHeight) {
+    public static List<Block> loadBlocksInFile(File file, long minimumHeight, long maximumHeight) {
+
+        // Files with height indices are read directly at the offsets of the requested blocks. Other files are read
+        // from the beginning. Files are only replaced with atomic moves, so no lock is needed to read them.
+        List<Block> blocks = ConsolidatedBlockFile.blocksInRange(file, minimumHeight, maximumHeight);
+        if (blocks == null) {
+            blocks = new ArrayList<>();
+            if (file.exists()) {
+                Path path = Paths.get(file.getAbsolutePath());
+                try {
+                    byte[] fileBytes = Files.readAllBytes(path);
+                    ByteBuffer buffer = ByteBuffer.wrap(fileBytes);
+                    int numberOfBlocks = buffer.getShort();
+                    Block previousBlock = null;
+                    for (int i = 0; i < numberOfBlocks && (previousBlock == null ||
+                            previousBlock.getBlockHeight() < maximumHeight); i++) {
+                        Block block = Block.fromByteBuffer(buffer, false);
+                        if (previousBlock == null || (previousBlock.getBlockHeight() != block.getBlockHeight() - 1)) {
+                            // Read and discard the balance list.
+                            BalanceList.fromByteBuffer(buffer);
+                        }
 
-        List<Block> blocks = new ArrayList<>();
-        if (file.exists()) {
-            Path path = Paths.get(file.getAbsolutePath());
-            try {
-                byte[] fileBytes = Files.readAllBytes(path);
-                ByteBuffer buffer = ByteBuffer.wrap(fileBytes);
-                int numberOfBlocks = buffer.getShort();
-                Block previousBlock = null;
-                for (int i = 0; i < numberOfBlocks && (previousBlock == null ||
-                        previousBlock.getBlockHeight() < maximumHeight); i++) {
-                    Block block = Block.fromByteBuffer(buffer, false);
-                    if (previousBlock == null || (previousBlock.getBlockHeight() != block.getBlockHeight() - 1)) {
-                        // Read and discard the balance list.
-                        BalanceList.fromByteBuffer(buffer);
-                    }
+                        if (block.getBlockHeight() >= minimumHeight && block.getBlockHeight() <= maximumHeight) {
+                            blocks.add(block);
+                        }
 
-                    if (block.getBlockHeight() >= minimumHeight && block.getBlockHeight() <= maximumHeight) {
-                        blocks.add(block);
+                        previousBlock = block;
                     }
-
-                    previousBlock = block;
-                }
-            } catch (Exception ignored) { }
+                } catch (Exception ignored) { }
+            }
         }
 
         return blocks;
@@ -164,6 +169,12 @@ public class BlockManager {
 
     public static boolean writeBlocksToFile(List<Block> blocks, List<BalanceList> balanceLists, File file) {
 
+        return writeBlocksToFile(blocks, balanceLists, file, false);
+    }
+
+    public static boolean writeBlocksToFile(List<Block> blocks, List<BalanceList> balanceLists, File file,
+                                            boolean includeHeightIndex) {
+
         // Determine the temporary file and ensure the location is available.
         File temporaryFile = new File(file.getAbsolutePath() + "_temp");
         temporaryFile.delete();
@@ -189,9 +200,13 @@ public class BlockManager {
             }
 
             randomAccessFile.writeShort((short) blocks.size());  // number of blocks
+            int[] offsets = ConsolidatedBlockFile.emptyOffsets();
             for (int i = 0; i < blocks.size(); i++) {
                 Block block = blocks.get(i);
+                long blockStartOffset = randomAccessFile.getFilePointer();
                 randomAccessFile.write(block.getBytes());
+                ConsolidatedBlockFile.setOffsets(offsets, block.getBlockHeight(), blockStartOffset,
+                        randomAccessFile.getFilePointer());
                 if (i == 0 || (blocks.get(i - 1).getBlockHeight() != (block.getBlockHeight() - 1))) {
 
                     BalanceList balanceList = balanceListMap.get(block.getBlockHeight());
@@ -203,6 +218,12 @@ public class BlockManager {
                 }
             }
 
+            // If requested, write the height index after the blocks and balance lists.
+            if (includeHeightIndex) {
+                randomAccessFile.write(ConsolidatedBlockFile.heightIndexBytes(offsets,
+                        randomAccessFile.getFilePointer()));
+            }
+
             // Close the temporary file.
             randomAccessFile.close();
         } catch (Exception ignored) {
@@ -242,10 +263,11 @@ public class BlockManager {
 
             try {
                 setFrozenEdge(block, cycleVerifiers);
-                BalanceListManager.updateFrozenEdge(balanceList);
+                BalanceListManager.updateFrozenEdge(block, balanceList);
 
                 writeBlocksToFile(Collections.singletonList(block), Collections.singletonList(balanceList),
                         individualFileForBlockHeight(block.getBlockHeight()));
+                BalanceListSnapshot.blockFrozen(block, balanceList);
 
                 if (block.getBlockHeight() == 0L) {
 
@@ -279,8 +301,13 @@ public class BlockManager {
 
         // Try to first load the block from the individual file. If the block is not there, extract the consolidated
         // file and try to load the block from there. In time, no consolidated files should need to be read, but this
-        // provides a smooth transition from the old, more aggressive behavior of the file consolidator.
+        // provides a smooth transition from the old, more aggressive behavior of the file consolidator. Consolidated
+        // files with height indices are read directly, without extraction.
         Block block = loadBlockFromIndividualFile(blockHeight);
+        if (block == null) {
+            block = ConsolidatedBlockFile.blockForHeight(consolidatedFileForBlockHeight(blockHeight), blockHeight,
+                    false);
+        }
         if (block == null) {
             extractConsolidatedFile(consolidatedFileForBlockHeight(blockHeight));
             block = loadBlockFromIndividualFile(blockHeight);
@@ -335,9 +362,25 @@ public class BlockManager {
                     }
                 }
 
-                // Load the balance lists of the frozen edge into the balance list manager.
-                BalanceList frozenEdgeBalanceList = loadBalanceListFromFileForHeight(getFrozenEdgeHeight());
-                BalanceListManager.updateFrozenEdge(frozenEdgeBalanceList);
+                // Load the balance lists of the frozen edge into the balance list manager. A snapshot at the frozen
+                // edge is the fastest source, followed by the individual file of the frozen edge, which holds the
+                // serialized list. Deriving forward from an earlier snapshot is slower, but it is still much faster
+                // than extracting consolidated files, which is the last resort.
+                BalanceList frozenEdgeBalanceList = null;
+                if (BalanceListSnapshot.blockHeight(BalanceListSnapshot.file) == getFrozenEdgeHeight()) {
+                    frozenEdgeBalanceList = BalanceListSnapshot.loadForFrozenEdge();
+                }
+                if (frozenEdgeBalanceList == null) {
+                    frozenEdgeBalanceList = loadBalanceListFromFile(individualFileForBlockHeight(
+                            getFrozenEdgeHeight()), getFrozenEdgeHeight());
+                }
+                if (frozenEdgeBalanceList == null) {
+                    frozenEdgeBalanceList = BalanceListSnapshot.loadForFrozenEdge();
+                }
+                if (frozenEdgeBalanceList == null) {
+                    frozenEdgeBalanceList = loadBalanceListFromFileForHeight(getFrozenEdgeHeight());
+                }
+                BalanceListManager.updateFrozenEdge(getFrozenEdge(), frozenEdgeBalanceList);
 
                 // Mark that initialization has completed.
                 completedInitialization.set(true);
@@ -486,6 +529,7 @@ public class BlockManager {
             // invalid.
             frozenEdge = block;
             frozenEdgeHeight = block.getBlockHeight();
+            VerifierMainTrigger.signal(VerifierMainTrigger.Event.FrozenEdge);
             boolean isNewVerifier = false;
             if (block.getCycleInformation() == null) {
                 trailingEdgeHeight = -1L;
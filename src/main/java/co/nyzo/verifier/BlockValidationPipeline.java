@@ -0,0 +1,167 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.LogUtil;
+import co.nyzo.verifier.util.PreferencesUtil;
+import co.nyzo.verifier.util.PrintUtil;
+import co.nyzo.verifier.util.UpdateUtil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The validation pipeline prepares candidate blocks received from the mesh on a pool of workers, so that a burst of
+// blocks does not hold the message threads. Each worker verifies the signature of a block and derives its balance list.
+// The signature result is memoized by the block, and the balance list is cached by the balance-list manager. A single
+// registration thread then passes the blocks to UnfrozenBlockManager.registerBlock() in the order they were submitted,
+// waiting for each block to be prepared. Registration repeats every check, so the acceptance rules are exactly those of
+// registerBlock(); the preparation only ensures that the expensive work has already been done.
+//
+// The chain score is not computed here. It depends on the state of the cycle and of the verifier votes at the time it
+// is calculated, so it is not memoized, and computing it in advance would only duplicate the work of registration.
+public class BlockValidationPipeline {
+
+    private static final int numberOfWorkers = Math.max(1, PreferencesUtil.getInt("block_validation_workers",
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1)));
+    private static final int queueCapacity = Math.max(1, PreferencesUtil.getInt("block_validation_queue_capacity",
+            200));
+
+    // Each block is placed in both queues by submit(), which is synchronized, so the registration order is the
+    // submission order.
+    private static final BlockingQueue<BlockValidationPipeline> preparationQueue =
+            new ArrayBlockingQueue<>(queueCapacity);
+    private static final BlockingQueue<BlockValidationPipeline> registrationQueue =
+            new ArrayBlockingQueue<>(queueCapacity);
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static final AtomicLong submittedCount = new AtomicLong(0L);
+    private static final AtomicLong registeredCount = new AtomicLong(0L);
+    private static final AtomicLong rejectedCount = new AtomicLong(0L);
+    private static final AtomicLong totalPreparationTime = new AtomicLong(0L);
+    private static final AtomicLong totalLatency = new AtomicLong(0L);
+    private static final AtomicLong maximumLatency = new AtomicLong(0L);
+
+    private final Block block;
+    private final long submittedTimestamp;
+    private final CountDownLatch prepared = new CountDownLatch(1);
+
+    private BlockValidationPipeline(Block block) {
+        this.block = block;
+        this.submittedTimestamp = System.nanoTime();
+    }
+
+    public static synchronized void submit(Block block) {
+
+        if (block != null) {
+            start();
+            submittedCount.incrementAndGet();
+
+            // When either queue is full, the submitting thread waits for space, as it would have waited for
+            // registration to complete before the pipeline existed.
+            BlockValidationPipeline entry = new BlockValidationPipeline(block);
+            try {
+                registrationQueue.put(entry);
+                preparationQueue.put(entry);
+            } catch (InterruptedException e) {
+                entry.prepared.countDown();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void prepare() {
+
+        // The frozen edge may advance while a block is waiting. Blocks that registration will skip are not prepared.
+        long startTimestamp = System.nanoTime();
+        try {
+            long frozenEdgeHeight = BlockManager.getFrozenEdgeHeight();
+            if (block.getBlockHeight() > frozenEdgeHeight &&
+                    UnfrozenBlockManager.unfrozenBlockAtHeight(block.getBlockHeight(), block.getHash()) == null &&
+                    block.signatureIsValid()) {
+                BalanceListManager.balanceListForBlock(block);
+            }
+        } catch (Exception reportOnly) {
+            LogUtil.println("exception preparing block in validation pipeline: " +
+                    PrintUtil.printException(reportOnly));
+        } finally {
+            totalPreparationTime.addAndGet(System.nanoTime() - startTimestamp);
+            prepared.countDown();
+        }
+    }
+
+    private void register() {
+
+        try {
+            if (UnfrozenBlockManager.registerBlock(block)) {
+                registeredCount.incrementAndGet();
+            } else {
+                rejectedCount.incrementAndGet();
+            }
+        } catch (Exception reportOnly) {
+            LogUtil.println("exception registering block in validation pipeline: " +
+                    PrintUtil.printException(reportOnly));
+        }
+
+        long latency = System.nanoTime() - submittedTimestamp;
+        totalLatency.addAndGet(latency);
+        long previousMaximum;
+        while (latency > (previousMaximum = maximumLatency.get()) &&
+                !maximumLatency.compareAndSet(previousMaximum, latency)) { }
+    }
+
+    public static long getProcessedCount() {
+
+        return registeredCount.get() + rejectedCount.get();
+    }
+
+    public static String getStatusDescription() {
+
+        long processed = registeredCount.get() + rejectedCount.get();
+        return "workers=" + numberOfWorkers + ", queued=" + registrationQueue.size() + ", submitted=" +
+                submittedCount.get() + ", registered=" + registeredCount.get() + ", rejected=" + rejectedCount.get() +
+                ", average preparation=" + (processed == 0 ? 0 : totalPreparationTime.get() / processed / 1000000L) +
+                "ms, average latency=" + (processed == 0 ? 0 : totalLatency.get() / processed / 1000000L) +
+                "ms, maximum latency=" + maximumLatency.get() / 1000000L + "ms";
+    }
+
+    private static void start() {
+
+        if (!started.getAndSet(true)) {
+
+            LogUtil.println("starting block validation pipeline with " + numberOfWorkers + " workers");
+
+            for (int i = 0; i < numberOfWorkers; i++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (!UpdateUtil.shouldTerminate()) {
+                            try {
+                                BlockValidationPipeline entry = preparationQueue.poll(1L, TimeUnit.SECONDS);
+                                if (entry != null) {
+                                    entry.prepare();
+                                }
+                            } catch (InterruptedException ignored) { }
+                        }
+                    }
+                }, "BlockValidationPipeline-prepare-" + i).start();
+            }
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!UpdateUtil.shouldTerminate()) {
+                        try {
+                            BlockValidationPipeline entry = registrationQueue.poll(1L, TimeUnit.SECONDS);
+                            if (entry != null) {
+                                entry.prepared.await();
+                                entry.register();
+                            }
+                        } catch (InterruptedException ignored) { }
+                    }
+                }
+            }, "BlockValidationPipeline-register").start();
+        }
+    }
+}
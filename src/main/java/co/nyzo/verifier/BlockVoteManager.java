@@ -58,6 +58,7 @@ public class BlockVoteManager {
 
                     // If the existing vote is null, we always accept the new vote.
                     votesForHeight.put(identifierBuffer, vote);
+                    VerifierMainTrigger.signal(VerifierMainTrigger.Event.Vote);
 
                 } else if (!ByteUtil.arraysAreEqual(existingVote.getHash(), vote.getHash())) {
 
@@ -86,6 +87,7 @@ public class BlockVoteManager {
                         // in the primary map. There is no need to clear the flip vote entry; leaving the entry there
                         // does not affect subsequent operations.
                         votesForHeight.put(identifierBuffer, vote);
+                        VerifierMainTrigger.signal(VerifierMainTrigger.Event.Vote);
                     }
                 }
             }
@@ -0,0 +1,187 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.ConcurrentLruCache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Version 2 of the consolidated block file is version 1 followed by a fixed-size height index. The index contains a
+// start offset and an end offset for each of the 1000 blocks that might be in the file, followed by the length of the
+// version-1 portion of the file and a marker. The version-1 portion is unchanged, so readers of version-1 files read the
+// blocks and balance lists of version-2 files without modification, ignoring the index.
+//
+// Files with indices are memory-mapped, and reading a block only touches the pages of the index entry and the block.
+// Mappings are cached for a small number of files, and a mapping is replaced if its file changes.
+public class ConsolidatedBlockFile {
+
+    private static final int heightIndexMarker = 0x4e5a4932;  // "NZI2"
+    private static final int blocksPerFile = (int) BlockManager.blocksPerFile;
+    private static final int entriesSize = blocksPerFile * 8;
+    public static final int heightIndexSize = entriesSize + 8;
+
+    private static final int maximumMappedFiles = 64;
+    private static final ConcurrentLruCache<String, MappedFile> mappedFiles =
+            new ConcurrentLruCache<>(maximumMappedFiles);
+
+    public static int[] emptyOffsets() {
+
+        // Offsets of -1 indicate that a block is not in the file.
+        int[] offsets = new int[blocksPerFile * 2];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = -1;
+        }
+
+        return offsets;
+    }
+
+    public static void setOffsets(int[] offsets, long blockHeight, long startOffset, long endOffset) {
+
+        int index = (int) (blockHeight % blocksPerFile);
+        offsets[index * 2] = (int) startOffset;
+        offsets[index * 2 + 1] = (int) endOffset;
+    }
+
+    public static byte[] heightIndexBytes(int[] offsets, long bodyLength) {
+
+        byte[] bytes = new byte[heightIndexSize];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int offset : offsets) {
+            buffer.putInt(offset);
+        }
+        buffer.putInt((int) bodyLength);
+        buffer.putInt(heightIndexMarker);
+
+        return bytes;
+    }
+
+    public static boolean hasHeightIndex(File file) {
+
+        return mappedFile(file) != null;
+    }
+
+    // This returns null if the file does not have a height index or does not contain the block.
+    public static Block blockForHeight(File file, long blockHeight, boolean validateTransactions) {
+
+        Block block = null;
+        MappedFile mappedFile = mappedFile(file);
+        if (mappedFile != null) {
+            block = mappedFile.blockForHeight(blockHeight, validateTransactions);
+        }
+
+        return block;
+    }
+
+    // This returns null if the file does not have a height index. Otherwise, it returns the blocks of the file in the
+    // specified range, in ascending order of height.
+    public static List<Block> blocksInRange(File file, long minimumHeight, long maximumHeight) {
+
+        List<Block> blocks = null;
+        MappedFile mappedFile = mappedFile(file);
+        if (mappedFile != null) {
+            blocks = new ArrayList<>();
+            long fileStartHeight = mappedFile.startHeight;
+            long startHeight = Math.max(minimumHeight, fileStartHeight);
+            long endHeight = Math.min(maximumHeight, fileStartHeight + blocksPerFile - 1);
+            for (long height = startHeight; height <= endHeight; height++) {
+                Block block = mappedFile.blockForHeight(height, false);
+                if (block != null) {
+                    blocks.add(block);
+                }
+            }
+        }
+
+        return blocks;
+    }
+
+    private static MappedFile mappedFile(File file) {
+
+        // The length and modification time are checked on each access so that a file replaced by the consolidator is
+        // mapped again.
+        MappedFile mappedFile = null;
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        if (length > heightIndexSize) {
+            mappedFile = mappedFiles.get(path);
+            if (mappedFile == null || mappedFile.length != length || mappedFile.lastModified != lastModified) {
+                mappedFile = MappedFile.forFile(file, length, lastModified);
+                if (mappedFile == null) {
+                    mappedFiles.remove(path);
+                } else {
+                    mappedFiles.put(path, mappedFile);
+                }
+            }
+        }
+
+        return mappedFile;
+    }
+
+    private static class MappedFile {
+
+        private final MappedByteBuffer buffer;
+        private final long length;
+        private final long lastModified;
+        private final long startHeight;
+
+        private MappedFile(MappedByteBuffer buffer, long length, long lastModified, long startHeight) {
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.startHeight = startHeight;
+        }
+
+        static MappedFile forFile(File file, long length, long lastModified) {
+
+            // The file is only used if the marker is present and the recorded body length is consistent with the
+            // length of the file. The start height of the file is taken from the first block.
+            MappedFile mappedFile = null;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() == length && length <= Integer.MAX_VALUE) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                    int bodyLength = buffer.getInt((int) length - 8);
+                    int marker = buffer.getInt((int) length - 4);
+                    if (marker == heightIndexMarker && bodyLength == length - heightIndexSize) {
+                        ByteBuffer blockBuffer = buffer.duplicate();
+                        blockBuffer.getShort();  // number of blocks
+                        long firstHeight = Block.fromByteBuffer(blockBuffer, false).getBlockHeight();
+                        mappedFile = new MappedFile(buffer, length, lastModified,
+                                firstHeight / blocksPerFile * blocksPerFile);
+                    }
+                }
+            } catch (Exception ignored) { }
+
+            return mappedFile;
+        }
+
+        Block blockForHeight(long blockHeight, boolean validateTransactions) {
+
+            Block block = null;
+            if (blockHeight >= startHeight && blockHeight < startHeight + blocksPerFile) {
+                int entryOffset = (int) (length - heightIndexSize + (blockHeight - startHeight) * 8);
+                int startOffset = buffer.getInt(entryOffset);
+                int endOffset = buffer.getInt(entryOffset + 4);
+                if (startOffset > 0 && endOffset > startOffset && endOffset <= length - heightIndexSize) {
+                    try {
+                        // The duplicate has its own position and limit, so concurrent readers do not interfere.
+                        ByteBuffer blockBuffer = buffer.duplicate();
+                        blockBuffer.position(startOffset);
+                        blockBuffer.limit(endOffset);
+                        block = Block.fromByteBuffer(blockBuffer, validateTransactions);
+                        if (block.getBlockHeight() != blockHeight) {
+                            block = null;
+                        }
+                    } catch (Exception ignored) {
+                        block = null;
+                    }
+                }
+            }
+
+            return block;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.messages.StatusResponse;
+import co.nyzo.verifier.util.PreferencesUtil;
+import co.nyzo.verifier.util.PrintUtil;
+import co.nyzo.verifier.util.UpdateUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// This is an alternative to the packet ring in MeshListener for UDP messages. One thread receives datagrams from a
+// channel into a fixed set of direct buffers, and a small pool of worker threads copies, decodes, and verifies the
+// messages and passes them to MeshListener.response(). The buffers are handed to the workers through a non-blocking
+// queue, and a semaphore wakes a waiting worker as soon as a datagram arrives, so no thread sleeps while messages are
+// waiting. When all buffers are in use, datagrams are discarded, as they are when the packet ring is full.
+public class DatagramMeshListener {
+
+    private static final int numberOfWorkerThreads = Math.max(1,
+            PreferencesUtil.getInt("mesh_listener_udp_worker_threads", 2));
+    private static final int numberOfBuffers = Math.max(1, PreferencesUtil.getInt("mesh_listener_udp_buffers", 50000));
+    private static final int receiveBufferBytes = Math.max(0,
+            PreferencesUtil.getInt("mesh_listener_udp_receive_buffer_bytes", 4 * 1024 * 1024));
+
+    private static final ConcurrentLinkedQueue<Packet> freePackets = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Packet> receivedPackets = new ConcurrentLinkedQueue<>();
+    private static final Semaphore receivedPacketPermits = new Semaphore(0);
+
+    private static DatagramChannel channel = null;
+
+    private static final AtomicLong processedCount = new AtomicLong(0L);
+    private static final AtomicLong totalLatency = new AtomicLong(0L);
+    private static final AtomicLong maximumLatency = new AtomicLong(0L);
+
+    // These are written only by the receiving thread.
+    private static volatile long receivedCount = 0L;
+    private static volatile long discardedCount = 0L;
+    private static volatile long peakPacketsPerSecond = 0L;
+    private static long currentSecond = 0L;
+    private static long currentSecondCount = 0L;
+
+    // This method blocks until the verifier terminates or the channel is closed. The datagrams are received on the
+    // calling thread.
+    public static void run(int port) throws IOException {
+
+        DatagramChannel channel = DatagramChannel.open();
+        if (receiveBufferBytes > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+        }
+        channel.bind(new InetSocketAddress(port));
+        DatagramMeshListener.channel = channel;
+        MeshListener.setPortUdp(((InetSocketAddress) channel.getLocalAddress()).getPort());
+
+        // The buffers are slices of one direct allocation. Datagrams are received into direct memory without an
+        // intermediate copy, and each datagram is copied once, into the array that the message is read from.
+        ByteBuffer allocation = ByteBuffer.allocateDirect(numberOfBuffers * MeshListener.udpBufferSize);
+        for (int i = 0; i < numberOfBuffers; i++) {
+            allocation.limit((i + 1) * MeshListener.udpBufferSize).position(i * MeshListener.udpBufferSize);
+            freePackets.offer(new Packet(allocation.slice()));
+        }
+        ByteBuffer discardBuffer = ByteBuffer.allocateDirect(MeshListener.udpBufferSize);
+
+        for (int i = 0; i < numberOfWorkerThreads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!UpdateUtil.shouldTerminate()) {
+                        try {
+                            if (receivedPacketPermits.tryAcquire(1L, TimeUnit.SECONDS)) {
+                                process(receivedPackets.poll());
+                            }
+                        } catch (InterruptedException ignored) { }
+                    }
+                }
+            }, "MeshListener-udpWorker-" + i).start();
+        }
+
+        while (!UpdateUtil.shouldTerminate() && channel.isOpen()) {
+            try {
+                Packet packet = freePackets.poll();
+                ByteBuffer buffer = packet == null ? discardBuffer : packet.buffer;
+                buffer.clear();
+                InetSocketAddress address = (InetSocketAddress) channel.receive(buffer);
+                long receivedTimestamp = System.nanoTime();
+                countReceivedPacket(receivedTimestamp);
+
+                if (packet == null) {
+                    discardedCount++;
+                    StatusResponse.incrementUdpDiscardCount();
+                } else {
+                    buffer.flip();
+                    packet.ipAddress = address.getAddress().getAddress();
+                    packet.receivedTimestamp = receivedTimestamp;
+                    receivedPackets.offer(packet);
+                    receivedPacketPermits.release();
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (Exception reportOnly) {
+                System.err.println("exception in datagram mesh listener: " + PrintUtil.printException(reportOnly));
+            }
+        }
+
+        close();
+    }
+
+    private static void countReceivedPacket(long receivedTimestamp) {
+
+        MeshListener.markReceivingUdp();
+        receivedCount++;
+
+        long second = receivedTimestamp / 1000000000L;
+        if (second == currentSecond) {
+            currentSecondCount++;
+        } else {
+            currentSecond = second;
+            currentSecondCount = 1L;
+        }
+        if (currentSecondCount > peakPacketsPerSecond) {
+            peakPacketsPerSecond = currentSecondCount;
+        }
+    }
+
+    private static void process(Packet packet) {
+
+        // The array is the size of the largest UDP message, as the arrays of the packet ring are, and the buffer is
+        // returned to the pool before the message is processed.
+        byte[] packetData = new byte[MeshListener.udpBufferSize];
+        packet.buffer.get(packetData, 0, packet.buffer.remaining());
+        byte[] ipAddress = packet.ipAddress;
+        long receivedTimestamp = packet.receivedTimestamp;
+        freePackets.offer(packet);
+
+        try {
+            MeshListener.processUdpPacket(packetData, ipAddress);
+        } catch (Exception reportOnly) {
+            System.err.println("exception processing datagram: " + PrintUtil.printException(reportOnly));
+        }
+
+        long latency = System.nanoTime() - receivedTimestamp;
+        processedCount.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long previousMaximum;
+        while (latency > (previousMaximum = maximumLatency.get()) &&
+                !maximumLatency.compareAndSet(previousMaximum, latency)) { }
+    }
+
+    public static void close() {
+
+        DatagramChannel channel = DatagramMeshListener.channel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (Exception ignored) { }
+        }
+    }
+
+    public static long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public static String getDescription() {
+
+        long processed = processedCount.get();
+        return "worker threads: " + numberOfWorkerThreads + ", buffers: " + numberOfBuffers + ", received: " +
+                receivedCount + ", processed: " + processed + ", discarded: " + discardedCount + ", peak: " +
+                peakPacketsPerSecond + "/s, average latency: " + String.format("%.2f", processed == 0 ? 0.0 :
+                totalLatency.get() / (double) processed / 1000000.0) + "ms, maximum latency: " +
+                String.format("%.2f", maximumLatency.get() / 1000000.0) + "ms";
+    }
+
+    private static class Packet {
+
+        private final ByteBuffer buffer;
+        private byte[] ipAddress;
+        private long receivedTimestamp;
+
+        Packet(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package co.nyzo.verifier;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.util.Arrays;
 
@@ -20,28 +21,114 @@ public class HashUtil {
                 "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855)");
         System.out.println(ByteUtil.arrayAsStringNoDashes(doubleSHA256(emptyBytes)) + " (should be " +
                 "5df6e0e2761359d30a8275058e299fcc0381534545f55cf43e41983f5d4c9456)");
+
+        // The offset and buffer variants must produce the same results as the array variants.
+        byte[] paddedHelloBytes = "__hello__".getBytes(StandardCharsets.US_ASCII);
+        byte[] output = new byte[hashLength + 1];
+        doubleSHA256(paddedHelloBytes, 2, 5, output, 1);
+        System.out.println(ByteUtil.arrayAsStringNoDashes(Arrays.copyOfRange(output, 1, hashLength + 1)) +
+                " (should be 9595c9df90075148eb06860365df33584b75bff782a510c6cd4883a419833d50)");
+        ByteBuffer helloBuffer = ByteBuffer.wrap(paddedHelloBytes, 2, 5).slice();
+        System.out.println(ByteUtil.arrayAsStringNoDashes(doubleSHA256(helloBuffer)) + " (should be " +
+                "9595c9df90075148eb06860365df33584b75bff782a510c6cd4883a419833d50)");
     }
 
-    private static MessageDigest messageDigest;
-    static {
-        try {
-            messageDigest = MessageDigest.getInstance("SHA-256");
-        } catch (Exception ignored) {
-            ignored.printStackTrace();
+    public static final int hashLength = 32;
+
+    // MessageDigest instances are not thread-safe. Previously, a single instance was shared, and all hashing was
+    // serialized through this class's lock. Now, each thread has its own instance, and hashing proceeds concurrently on
+    // all threads. The methods that write into caller-supplied arrays do not allocate.
+    private static final ThreadLocal<MessageDigest> messageDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            MessageDigest digest = null;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (Exception ignored) {
+                ignored.printStackTrace();
+            }
+
+            return digest;
+        }
+    };
+
+    public static byte[] singleSHA256(byte[] data) {
+
+        if (data == null) {
+            data = new byte[0];
         }
+        return messageDigest.get().digest(data);
     }
 
-    public static synchronized byte[] singleSHA256(byte[] data) {
+    public static byte[] doubleSHA256(byte[] data) {
 
         if (data == null) {
             data = new byte[0];
         }
-        return messageDigest.digest(data);
+        MessageDigest digest = messageDigest.get();
+        return digest.digest(digest.digest(data));
+    }
+
+    public static void singleSHA256(byte[] data, int offset, int length, byte[] output, int outputOffset) {
+
+        MessageDigest digest = messageDigest.get();
+        digest.update(data, offset, length);
+        finish(digest, output, outputOffset);
+    }
+
+    public static void doubleSHA256(byte[] data, int offset, int length, byte[] output, int outputOffset) {
+
+        // The first hash is written to the output and then hashed in place.
+        MessageDigest digest = messageDigest.get();
+        digest.update(data, offset, length);
+        finish(digest, output, outputOffset);
+        digest.update(output, outputOffset, hashLength);
+        finish(digest, output, outputOffset);
+    }
+
+    // These hash the remaining bytes of the buffer without changing its position.
+    public static void singleSHA256(ByteBuffer data, byte[] output, int outputOffset) {
+
+        MessageDigest digest = messageDigest.get();
+        update(digest, data);
+        finish(digest, output, outputOffset);
+    }
+
+    public static void doubleSHA256(ByteBuffer data, byte[] output, int outputOffset) {
+
+        MessageDigest digest = messageDigest.get();
+        update(digest, data);
+        finish(digest, output, outputOffset);
+        digest.update(output, outputOffset, hashLength);
+        finish(digest, output, outputOffset);
+    }
+
+    public static byte[] doubleSHA256(ByteBuffer data) {
+
+        byte[] output = new byte[hashLength];
+        doubleSHA256(data, output, 0);
+
+        return output;
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer data) {
+
+        if (data.hasArray()) {
+            digest.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            digest.update(data.duplicate());
+        }
     }
 
-    public static synchronized byte[] doubleSHA256(byte[] data) {
+    private static void finish(MessageDigest digest, byte[] output, int outputOffset) {
 
-        return messageDigest.digest(messageDigest.digest(data));
+        try {
+            digest.digest(output, outputOffset, hashLength);
+        } catch (DigestException e) {
+            // This only happens if the output array is too small, which is a programming error.
+            digest.reset();
+            throw new IllegalArgumentException(e);
+        }
     }
 
     public static long longSHA256(byte[] data) {
@@ -69,11 +69,14 @@ public class HistoricalBlockManager {
         // This is a brute-force process for finding which offset file to build. Just before a consolidated file is
         // written by the block-file consolidator, its corresponding offset file is deleted to ensure that stale offset
         // files do not exist. This process checks all consolidated files backward from the frozen edge. When a
-        // consolidated file without an offset file is found, the offset file is built.
+        // consolidated file without an offset file is found, the offset file is built. Consolidated files with their
+        // own height indices do not need offset files.
         long offsetFileHeight = -1L;
         for (long height = BlockManager.getFrozenEdgeHeight(); height >= 0 && offsetFileHeight < 0;
              height -= BlockManager.blocksPerFile) {
-            if (BlockManager.consolidatedFileForBlockHeight(height).exists() && !offsetFileForHeight(height).exists()) {
+            File consolidatedFile = BlockManager.consolidatedFileForBlockHeight(height);
+            if (consolidatedFile.exists() && !offsetFileForHeight(height).exists() &&
+                    !ConsolidatedBlockFile.hasHeightIndex(consolidatedFile)) {
                 offsetFileHeight = height;
             }
         }
@@ -152,7 +155,13 @@ public class HistoricalBlockManager {
             }
         }
 
-        // Next, look to indexed consolidated files.
+        // Next, look to consolidated files with height indices.
+        if (block == null) {
+            block = ConsolidatedBlockFile.blockForHeight(BlockManager.consolidatedFileForBlockHeight(height), height,
+                    true);
+        }
+
+        // Next, look to consolidated files indexed by offset files.
         File offsetFile = offsetFileForHeight(height);
         if (block == null && offsetFile.exists()) {
             try {
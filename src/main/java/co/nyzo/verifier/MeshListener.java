@@ -10,7 +10,6 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -37,6 +36,18 @@ public class MeshListener {
     private static final int maximumConcurrentConnections =
             PreferencesUtil.getInt("maximum_concurrent_connections", 2000);
 
+    // The selector listener serves TCP connections with a small, fixed set of I/O threads and a separate pool of worker
+    // threads, instead of starting a new thread for each connection. It is disabled by default.
+    private static final boolean useSelectorTcp = PreferencesUtil.getBoolean("mesh_listener_selector_tcp", false);
+
+    // The datagram listener receives UDP messages on a channel and processes them on a small pool of worker threads as
+    // soon as they arrive. Disabling it restores the packet ring, which is read by a single thread that sleeps for 30ms
+    // whenever the ring is empty.
+    private static final boolean useChannelUdp = PreferencesUtil.getBoolean("mesh_listener_channel_udp", true);
+
+    private static final IpAddressMap<Integer> connectionsPerIp = new IpAddressMap<>();
+    private static final AtomicInteger activeReadThreads = new AtomicInteger(0);
+
     private static final AtomicBoolean aliveTcp = new AtomicBoolean(false);
     private static final AtomicBoolean aliveUdp = new AtomicBoolean(false);
 
@@ -57,7 +68,7 @@ public class MeshListener {
 
     // The only messages sent via UDP right now are BlockVote19, NewVerifierVote21, and MinimalBlock_51. Of these,
     // MinimalBlock_51 is the largest.
-    private static final int udpBufferSize = FieldByteSize.messageLength + FieldByteSize.timestamp +  // message fields
+    static final int udpBufferSize = FieldByteSize.messageLength + FieldByteSize.timestamp +  // message fields
             FieldByteSize.messageType + FieldByteSize.identifier + FieldByteSize.signature +  // message fields
             FieldByteSize.timestamp + FieldByteSize.signature;  // MinimalBlock fields
 
@@ -74,9 +85,10 @@ public class MeshListener {
     private static int blockVoteTcpCount = 0;
     private static int blockVoteUdpCount = 0;
 
-    private static final DatagramPacket[] datagramPackets = new DatagramPacket[numberOfDatagramPackets];
+    private static final DatagramPacket[] datagramPackets = useChannelUdp ? null :
+            new DatagramPacket[numberOfDatagramPackets];
     static {
-        for (int i = 0; i < numberOfDatagramPackets; i++) {
+        for (int i = 0; datagramPackets != null && i < numberOfDatagramPackets; i++) {
             byte[] packetBuffer = new byte[udpBufferSize];
             datagramPackets[i] = new DatagramPacket(packetBuffer, udpBufferSize);
         }
@@ -130,8 +142,14 @@ public class MeshListener {
 
     public static void startSocketThreadTcp() {
 
-        Map<ByteBuffer, Integer> connectionsPerIp = new ConcurrentHashMap<>();
-        AtomicInteger activeReadThreads = new AtomicInteger(0);
+        if (useSelectorTcp) {
+            startSelectorThreadTcp();
+        } else {
+            startThreadPerConnectionTcp();
+        }
+    }
+
+    private static void startThreadPerConnectionTcp() {
 
         new Thread(new Runnable() {
             @Override
@@ -143,7 +161,7 @@ public class MeshListener {
                     while (!UpdateUtil.shouldTerminate()) {
                         try {
                             Socket clientSocket = serverSocketTcp.accept();
-                            processSocket(clientSocket, activeReadThreads, connectionsPerIp);
+                            processSocket(clientSocket);
                         } catch (Exception ignored) { }
                     }
 
@@ -160,8 +178,66 @@ public class MeshListener {
         }, "MeshListener-serverSocketTcp").start();
     }
 
+    private static void startSelectorThreadTcp() {
+
+        // The selector listener runs its first I/O loop on this thread and returns when the verifier terminates.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SelectorMeshListener.run(standardPortTcp);
+                } catch (Exception e) {
+
+                    System.err.println("Exception trying to open selector mesh listener. Exiting.");
+                    UpdateUtil.terminate();
+                }
+
+                aliveTcp.set(false);
+            }
+        }, "MeshListener-selectorTcp-0").start();
+    }
+
+    static void setPortTcp(int portTcp) {
+        MeshListener.portTcp = portTcp;
+    }
+
+    static void setPortUdp(int portUdp) {
+        MeshListener.portUdp = portUdp;
+    }
+
+    static void markReceivingUdp() {
+        receivingUdp = true;
+    }
+
     private static void startSocketThreadUdp() {
 
+        if (useChannelUdp) {
+            startChannelThreadUdp();
+        } else {
+            startPacketRingThreadsUdp();
+        }
+    }
+
+    private static void startChannelThreadUdp() {
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DatagramMeshListener.run(standardPortUdp);
+                } catch (Exception e) {
+
+                    System.err.println("Exception trying to open UDP channel. Exiting.");
+                    UpdateUtil.terminate();
+                }
+
+                aliveUdp.set(false);
+            }
+        }, "MeshListener-datagramChannelUdp").start();
+    }
+
+    private static void startPacketRingThreadsUdp() {
+
         new Thread(new Runnable() {
             @Override
             public void run() {
@@ -209,29 +285,7 @@ public class MeshListener {
                         try {
                             // Get the packet from the queue.
                             DatagramPacket packet = datagramPackets[datagramPacketReadIndex];
-
-                            // Economically get the message type from the packet. Doing this now can avoid full
-                            // processing of the message in many cases.
-                            byte[] packetData = packet.getData();
-                            int messageTypeValue = ((packetData[12] & 0xff) << 8) | (packetData[13] & 0xff);
-                            MessageType messageType = MessageType.forValue(messageTypeValue);
-
-                            // Process MinimalBlock messages first. These are accepted from out-of-cycle verifiers,
-                            // while other UDP messages are only accepted from in-cycle verifiers.
-                            if (messageType == MessageType.MinimalBlock51) {
-                                processMinimalBlockMessage(packetData);
-                            } else {
-                                // Do some simple checks to avoid reading the message if it will not be used.
-                                ByteBuffer sourceIpAddress = ByteBuffer.wrap(packet.getAddress().getAddress());
-                                if (BlacklistManager.inBlacklist(sourceIpAddress) ||
-                                        !NodeManager.ipAddressInCycle(sourceIpAddress)) {
-                                    numberOfMessagesRejected.incrementAndGet();
-                                    StatusResponse.incrementUdpRejectionCount();
-                                } else {
-                                    numberOfMessagesAccepted.incrementAndGet();
-                                    readMessage(packet);
-                                }
-                            }
+                            processUdpPacket(packet.getData(), packet.getAddress().getAddress());
 
                             datagramPacketReadIndex = (datagramPacketReadIndex + 1) % numberOfDatagramPackets;
                         } catch (Exception ignored) { }
@@ -241,6 +295,29 @@ public class MeshListener {
         }, "MeshListener-udpProcessingQueue").start();
     }
 
+    static void processUdpPacket(byte[] packetData, byte[] ipAddress) {
+
+        // Economically get the message type from the packet. Doing this now can avoid full processing of the message in
+        // many cases.
+        int messageTypeValue = ((packetData[12] & 0xff) << 8) | (packetData[13] & 0xff);
+        MessageType messageType = MessageType.forValue(messageTypeValue);
+
+        // Process MinimalBlock messages first. These are accepted from out-of-cycle verifiers, while other UDP messages
+        // are only accepted from in-cycle verifiers.
+        if (messageType == MessageType.MinimalBlock51) {
+            processMinimalBlockMessage(packetData);
+        } else {
+            // Do some simple checks to avoid reading the message if it will not be used.
+            if (BlacklistManager.inBlacklist(ipAddress) || !NodeManager.ipAddressInCycle(ipAddress)) {
+                numberOfMessagesRejected.incrementAndGet();
+                StatusResponse.incrementUdpRejectionCount();
+            } else {
+                numberOfMessagesAccepted.incrementAndGet();
+                readMessage(packetData);
+            }
+        }
+    }
+
     private static void processMinimalBlockMessage(byte[] packetData) {
 
         // Only accept this type of message at block 49 of the voting window (frozen edge is at block 48 of window) and
@@ -295,16 +372,40 @@ public class MeshListener {
         }
     }
 
-    private static void processSocket(Socket clientSocket, AtomicInteger activeReadThreads,
-                                      Map<ByteBuffer, Integer> connectionsPerIp) {
+    private static void processSocket(Socket clientSocket) {
 
         byte[] ipAddress = clientSocket.getInetAddress().getAddress();
+        if (!acceptConnection(ipAddress)) {
+            ConnectionManager.fastCloseSocket(clientSocket);
+        } else {
+            // Read the message and respond.
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+
+                    try {
+                        clientSocket.setSoTimeout(300);
+                        readMessageAndRespond(clientSocket);  // socket is closed in this method
+                    } catch (Exception ignored) { }
+
+                    // Decrement the counter for this IP and the counter of active read threads.
+                    releaseConnection(ipAddress);
+                }
+            }, "MeshListener-clientSocketTcp").start();
+        }
+    }
+
+    // This applies the blacklist and the per-IP and total connection limits to a new TCP connection. It is used by
+    // both the thread-per-connection listener and the selector listener. If this method returns true, the caller must
+    // call releaseConnection() when the connection is closed.
+    static boolean acceptConnection(byte[] ipAddress) {
+
+        boolean accepted;
         if (BlacklistManager.inBlacklist(ipAddress)) {
             numberOfMessagesRejected.incrementAndGet();
-            ConnectionManager.fastCloseSocket(clientSocket);
+            accepted = false;
         } else {
-            ByteBuffer ipBuffer = ByteBuffer.wrap(ipAddress);
-            int connectionsForIp = connectionsPerIp.merge(ipBuffer, 1, mergeFunction);
+            int connectionsForIp = connectionsPerIp.merge(ipAddress, 1, mergeFunction);
             int connections = activeReadThreads.get();
             int maximumConcurrentConnectionsPerIp = (int) Math.max(1.0, maximumConcurrentConnectionsPerIpAbsolute -
                     Math.max(0, (connections - concurrentConnectionThrottleThreshold) *
@@ -321,33 +422,27 @@ public class MeshListener {
                     BlacklistManager.addToBlacklist(ipAddress);
                 }
 
-                // Decrement the counter and close the socket without responding.
-                connectionsPerIp.merge(ipBuffer, -1, mergeFunction);
-                ConnectionManager.fastCloseSocket(clientSocket);
+                // Decrement the counter. The caller closes the socket without responding.
+                connectionsPerIp.merge(ipAddress, -1, mergeFunction);
+                accepted = false;
 
             } else {
 
-                // Read the message and respond.
                 numberOfMessagesAccepted.incrementAndGet();
                 maximumActiveReadThreads = Math.max(maximumActiveReadThreads, activeReadThreads.incrementAndGet());
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-
-                        try {
-                            clientSocket.setSoTimeout(300);
-                            readMessageAndRespond(clientSocket);  // socket is closed in this method
-                        } catch (Exception ignored) { }
-
-                        // Decrement the counter for this IP and the counter of active read threads.
-                        connectionsPerIp.merge(ipBuffer, -1, mergeFunction);
-                        activeReadThreads.decrementAndGet();
-                    }
-                }, "MeshListener-clientSocketTcp").start();
+                accepted = true;
             }
         }
 
         ipMapSize = connectionsPerIp.size();
+
+        return accepted;
+    }
+
+    static void releaseConnection(byte[] ipAddress) {
+
+        connectionsPerIp.merge(ipAddress, -1, mergeFunction);
+        activeReadThreads.decrementAndGet();
     }
 
     private static void readMessageAndRespond(Socket clientSocket) {
@@ -357,16 +452,17 @@ public class MeshListener {
                     IpUtil.addressFromString(clientSocket.getRemoteSocketAddress() + ""),
                     MessageType.IncomingRequest65533);
 
-            if (message != null) {
-
-                // To aid in debugging receipt of UDP block votes, the verifier produces counts of both TCP and UDP
-                // block votes. This is a temporary feature; it will be removed in a future version.
-                if (message.getType() == MessageType.BlockVote19) {
-                    blockVoteTcpCount++;
+            // Produce and send the response. The message waits for capacity in the lane for its type, and it is
+            // dropped without a response if the lane is full.
+            ResponseLane lane = message == null ? null : ResponseLane.forType(message.getType());
+            if (lane != null && lane.enter()) {
+                Message response;
+                try {
+                    response = tcpResponse(message);
+                } finally {
+                    lane.exit();
                 }
 
-                // Produce and send the response.
-                Message response = response(message);
                 if (response != null) {
                     clientSocket.getOutputStream().write(response.getBytesForTransmission());
                     clientSocket.getOutputStream().flush();
@@ -378,13 +474,30 @@ public class MeshListener {
         ConnectionManager.slowCloseSocket(clientSocket);
     }
 
-    private static void readMessage(DatagramPacket packet) {
+    static Message tcpResponse(Message message) {
+
+        Message response = null;
+        if (message != null) {
+
+            // To aid in debugging receipt of UDP block votes, the verifier produces counts of both TCP and UDP block
+            // votes. This is a temporary feature; it will be removed in a future version.
+            if (message.getType() == MessageType.BlockVote19) {
+                blockVoteTcpCount++;
+            }
+
+            response = response(message);
+        }
+
+        return response;
+    }
+
+    private static void readMessage(byte[] packetData) {
 
         try {
 
             // Do not use the IP address from the packet. This can be spoofed for UDP. Using an empty address is a
             // broad protection against a number of attacks that might arise from spoofing addresses.
-            Message message = Message.fromBytes(packet.getData(), new byte[FieldByteSize.ipAddress], true);
+            Message message = Message.fromBytes(packetData, new byte[FieldByteSize.ipAddress], true);
             if (message != null && !disallowedUdpTypes.contains(message.getType())) {
 
                 // To aid in debugging receipt of UDP block votes, the verifier produces counts of both TCP and UDP
@@ -414,6 +527,8 @@ public class MeshListener {
             datagramSocketUdp.close();
             datagramSocketUdp = null;
         }
+
+        DatagramMeshListener.close();
     }
 
     public static Message response(Message message) {
@@ -452,7 +567,7 @@ public class MeshListener {
 
                     if (message.getContent() instanceof NewBlockMessage) {
                         NewBlockMessage blockMessage = (NewBlockMessage) message.getContent();
-                        UnfrozenBlockManager.registerBlock(blockMessage.getBlock());
+                        BlockValidationPipeline.submit(blockMessage.getBlock());
                     }
                     response = new Message(MessageType.NewBlockResponse10, null);
 
@@ -468,7 +583,8 @@ public class MeshListener {
 
                 } else if (messageType == MessageType.MeshRequest15) {
 
-                    response = new Message(MessageType.MeshResponse16, new MeshResponse(NodeManager.getCycle()));
+                    response = new Message(MessageType.MeshResponse16, ResponseCache.content(MessageType.MeshResponse16,
+                            "", () -> new MeshResponse(NodeManager.getCycle())));
 
                 } else if (messageType == MessageType.StatusRequest17) {
 
@@ -519,12 +635,18 @@ public class MeshListener {
 
                 } else if (messageType == MessageType.BootstrapRequestV2_35) {
 
-                    response = new Message(MessageType.BootstrapResponseV2_36, new BootstrapResponseV2());
+                    response = new Message(MessageType.BootstrapResponseV2_36,
+                            ResponseCache.content(MessageType.BootstrapResponseV2_36, "", BootstrapResponseV2::new));
 
                 } else if (messageType == MessageType.BlockWithVotesRequest37) {
 
+                    // Only responses for frozen blocks are cached. The votes for unfrozen heights change too quickly.
                     long height = ((BlockWithVotesRequest) message.getContent()).getHeight();
-                    response = new Message(MessageType.BlockWithVotesResponse38, new BlockWithVotesResponse(height));
+                    MessageObject content = height > BlockManager.getFrozenEdgeHeight() ?
+                            new BlockWithVotesResponse(height) :
+                            ResponseCache.content(MessageType.BlockWithVotesResponse38, height + "",
+                                    () -> new BlockWithVotesResponse(height));
+                    response = new Message(MessageType.BlockWithVotesResponse38, content);
 
                 } else if (messageType == MessageType.VerifierRemovalVote39) {
 
@@ -534,7 +656,9 @@ public class MeshListener {
 
                 } else if (messageType == MessageType.FullMeshRequest41) {
 
-                    response = new Message(MessageType.FullMeshResponse42, new MeshResponse(NodeManager.getMesh()));
+                    response = new Message(MessageType.FullMeshResponse42,
+                            ResponseCache.content(MessageType.FullMeshResponse42, "",
+                                    () -> new MeshResponse(NodeManager.getMesh())));
 
                 } else if (messageType == MessageType.NodeJoinV2_43) {
 
@@ -552,8 +676,13 @@ public class MeshListener {
 
                 } else if (messageType == MessageType.FrozenEdgeBalanceListRequest45) {
 
-                    response = new Message(MessageType.FrozenEdgeBalanceListResponse46,
-                            new BalanceListResponse(message.getSourceIpAddress()));
+                    // The rate limit is applied for each request. Only the serialized balance list is shared.
+                    BalanceListResponse balanceListResponse = new BalanceListResponse(message.getSourceIpAddress());
+                    BalanceList balanceList = balanceListResponse.getBalanceList();
+                    MessageObject content = balanceList == null ? balanceListResponse :
+                            ResponseCache.content(MessageType.FrozenEdgeBalanceListResponse46,
+                                    balanceList.getBlockHeight() + "", () -> balanceListResponse);
+                    response = new Message(MessageType.FrozenEdgeBalanceListResponse46, content);
                 } else if (messageType == MessageType.IpAddressRequest53) {
                     response = new Message(MessageType.IpAddressResponse54,
                             new IpAddressMessageObject(message.getSourceIpAddress()));
@@ -653,6 +782,16 @@ public class MeshListener {
         return numberOfMessagesAccepted.get();
     }
 
+    public static String getTcpListenerDescription() {
+
+        return useSelectorTcp ? "selector (" + SelectorMeshListener.getDescription() + ")" : "thread per connection";
+    }
+
+    public static String getUdpListenerDescription() {
+
+        return useChannelUdp ? "channel (" + DatagramMeshListener.getDescription() + ")" : "packet ring";
+    }
+
     public static boolean isReceivingUdp() {
 
         return receivingUdp;
@@ -4,14 +4,14 @@ import co.nyzo.verifier.client.ClientNodeManager;
 import co.nyzo.verifier.messages.*;
 import co.nyzo.verifier.messages.debug.*;
 import co.nyzo.verifier.sentinel.Sentinel;
+import co.nyzo.verifier.util.IpAddressMap;
 import co.nyzo.verifier.util.IpUtil;
 import co.nyzo.verifier.util.LogUtil;
 import co.nyzo.verifier.util.PrintUtil;
 import co.nyzo.verifier.util.SignatureUtil;
 
-import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.*;
 import java.nio.ByteBuffer;
@@ -20,23 +20,27 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class Message {
 
-    private static final long maximumMessageLength = 4194304;  // 4 MB
-    private static final Set<ByteBuffer> whitelist = ConcurrentHashMap.newKeySet();
+    static final long maximumMessageLength = 4194304;  // 4 MB
+    private static final IpAddressMap<Boolean> whitelist = new IpAddressMap<>();
     private static final Set<MessageType> disallowedNonCycleTypes = new HashSet<>(Arrays.asList(MessageType.BlockVote19,
             MessageType.NewVerifierVote21, MessageType.MissingBlockVoteRequest23, MessageType.MissingBlockRequest25));
     private static final Set<MessageType> udpTypes = new HashSet<>(Arrays.asList(MessageType.BlockVote19,
             MessageType.NewVerifierVote21));
     public static final long replayProtectionInterval = 5000L;
 
-    private static final Map<ByteBuffer, Long> dynamicWhitelist = new ConcurrentHashMap<>();
+    private static final IpAddressMap<Long> dynamicWhitelist = new IpAddressMap<>();
     public static final long dynamicWhitelistInterval = 1000L * 60L * 10L;  // 10 minutes
 
     private static boolean allowUnsafeMessages = false;
 
+    // Each thread keeps the buffer it reads messages into. Buffers grown beyond the retained size for large messages
+    // are used once and then released.
+    private static final int retainedReadBufferSize = 32768;
+    private static final ThreadLocal<byte[]> readBuffers = ThreadLocal.withInitial(() -> new byte[4096]);
+
     private static DatagramSocket datagramSocket;
     static {
         try {
@@ -55,6 +59,7 @@ public class Message {
     private byte[] sourceNodeSignature;   // the signature of all preceding parts
     private boolean valid;       // not serialized
     private byte[] sourceIpAddress;   // not serialized
+    private byte[] bytesForTransmission;   // not serialized; the complete message, stored once it is produced
 
     // This is the constructor for a new message originating from this system.
     public Message(MessageType type, MessageObject content) {
@@ -62,7 +67,7 @@ public class Message {
         this.type = type;
         this.content = content;
         this.sourceNodeIdentifier = Verifier.getIdentifier();
-        this.sourceNodeSignature = Verifier.sign(getBytesForSigning());
+        serializeAndSign(null);
         this.valid = true;
     }
 
@@ -72,7 +77,7 @@ public class Message {
         this.type = type;
         this.content = content;
         this.sourceNodeIdentifier = KeyUtil.identifierForSeed(privateSeed);
-        this.sourceNodeSignature = SignatureUtil.signBytes(getBytesForSigning(), privateSeed);
+        serializeAndSign(privateSeed);
         this.valid = true;
     }
 
@@ -135,7 +140,51 @@ public class Message {
 
     public void sign(byte[] privateSeed) {
         this.sourceNodeIdentifier = KeyUtil.identifierForSeed(privateSeed);
-        this.sourceNodeSignature = SignatureUtil.signBytes(getBytesForSigning(), privateSeed);
+        serializeAndSign(privateSeed);
+    }
+
+    // The message is serialized once, with the content written directly into the array that is transmitted, and the
+    // signature is computed over the signed range of that array. A null seed signs with the verifier's key.
+    private void serializeAndSign(byte[] privateSeed) {
+
+        byte[] bytes = new byte[transmissionByteSize()];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(bytes.length);
+        writeSignedFields(buffer);
+
+        int signedLength = buffer.position() - FieldByteSize.messageLength;
+        byte[] signature = privateSeed == null ? Verifier.sign(bytes, FieldByteSize.messageLength, signedLength) :
+                SignatureUtil.signBytes(bytes, FieldByteSize.messageLength, signedLength, privateSeed);
+
+        this.sourceNodeSignature = signature;
+        if (signature == null) {
+            this.bytesForTransmission = null;
+        } else {
+            buffer.put(signature);
+            this.bytesForTransmission = bytes;
+        }
+    }
+
+    private int transmissionByteSize() {
+
+        // Determine the size (timestamp, type, source-node identifier, source-node signature, content if present).
+        int sizeBytes = FieldByteSize.messageLength + FieldByteSize.timestamp + FieldByteSize.messageType +
+                FieldByteSize.identifier + FieldByteSize.signature;
+        if (content != null) {
+            sizeBytes += content.getByteSize();
+        }
+
+        return sizeBytes;
+    }
+
+    private void writeSignedFields(ByteBuffer buffer) {
+
+        buffer.putLong(timestamp);
+        buffer.putShort((short) type.getValue());
+        if (content != null) {
+            content.writeTo(buffer);
+        }
+        buffer.put(sourceNodeIdentifier);
     }
 
     public static void broadcast(Message message) {
@@ -143,11 +192,7 @@ public class Message {
         // Send the message to all nodes in the current cycle and the top in the new-verifier queue.
         Set<Node> nodes = BlockManager.getCurrentAndNearCycleNodes();
         System.out.println("broadcasting message: " + message.getType() + " to " + nodes.size());
-        for (Node node : nodes) {
-            if (node.isActive() && !ByteUtil.arraysAreEqual(node.getIdentifier(), Verifier.getIdentifier())) {
-                fetch(node, message, null);
-            }
-        }
+        MessageBroadcast.send(message, nodes);
     }
 
     public static void fetchFromRandomNode(Message message, MessageCallback messageCallback) {
@@ -202,136 +247,115 @@ public class Message {
 
     public static void fetchTcp(String hostNameOrIp, int port, Message message, MessageCallback messageCallback) {
 
+        if (tcpSendIsAllowed(message)) {
+            OutboundConnectionPool.fetch(hostNameOrIp, port, message, messageCallback);
+        }
+    }
+
+    static boolean tcpSendIsAllowed(Message message) {
+
         // Unless the option to allow unsafe messages is activated, do not send a message that might get this IP
         // blacklisted.
-        if (allowUnsafeMessages ||
+        return allowUnsafeMessages ||
                 BlockManager.verifierInOrNearCurrentCycle(ByteBuffer.wrap(message.getSourceNodeIdentifier())) ||
-                        BlockManager.inGenesisCycle() || !disallowedNonCycleTypes.contains(message.getType())) {
-
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    Socket socket = new Socket();
-                    try {
-                        socket.connect(new InetSocketAddress(hostNameOrIp, port), 2000);
-                    } catch (Exception e) {
-                        if (socket.isConnected()) {
-                            ConnectionManager.fastCloseSocket(socket);
-                        }
-                        socket = null;
-                    }
+                BlockManager.inGenesisCycle() || !disallowedNonCycleTypes.contains(message.getType());
+    }
 
-                    Message response = null;
-                    if (socket == null) {
-                        NodeManager.markFailedConnection(hostNameOrIp);
-                    } else {
-                        NodeManager.markSuccessfulConnection(hostNameOrIp);
-
-                        try {
-                            OutputStream outputStream = socket.getOutputStream();
-                            outputStream.write(message.getBytesForTransmission());
-
-                            socket.setSoTimeout(1000);
-                            response = readFromStream(socket.getInputStream(), socket.getInetAddress().getAddress(),
-                                    message.getType());
-                        } catch (Exception reportOnly) {
-                            System.err.println("Exception sending message " + message.getType() + " to " +
-                                    hostNameOrIp + ":" + port + ": " + PrintUtil.printException(reportOnly));
-                        }
+    static boolean udpSendIsAllowed(Message message) {
 
-                        ConnectionManager.fastCloseSocket(socket);
-                    }
+        // Do not send a message that will get this verifier blacklisted if it is not in the cycle.
+        return BlockManager.verifierInOrNearCurrentCycle(ByteBuffer.wrap(Verifier.getIdentifier())) ||
+                BlockManager.inGenesisCycle() || !disallowedNonCycleTypes.contains(message.getType());
+    }
 
-                    if (messageCallback != null) {
-                        if (response != null && response.isValid() &&
-                                ((response.getTimestamp() >= System.currentTimeMillis() - replayProtectionInterval &&
-                                        response.getTimestamp() <= System.currentTimeMillis() +
-                                                replayProtectionInterval) ||
-                                        response.getType() == MessageType.TimestampResponse28 ||
-                                        response.getType() == MessageType.Error65534)) {
-                            MessageQueue.add(messageCallback, response);
-                        } else {
-                            MessageQueue.add(messageCallback, null);
-                        }
-                    }
-                }
-            }, "Message-fetch-" + message).start();
-        }
+    static boolean isUdpType(MessageType type) {
+        return udpTypes.contains(type);
     }
 
     public static void sendUdp(byte[] ipAddress, int port, Message message) {
 
         byte[] identifier = NodeManager.identifierForIpAddress(ipAddress);
 
-        // Do not send the message to this verifier, and do not send a message that will get this verifier blacklisted
-        // if it is not in the cycle.
-        if (!ByteUtil.arraysAreEqual(identifier, Verifier.getIdentifier()) &&
-                (BlockManager.verifierInOrNearCurrentCycle(ByteBuffer.wrap(Verifier.getIdentifier())) ||
-                        BlockManager.inGenesisCycle() ||
-                        !disallowedNonCycleTypes.contains(message.getType()))) {
-
-            try {
-                byte[] messageBytes = message.getBytesForTransmission();
-                InetAddress address = Inet4Address.getByAddress(ipAddress);
-                DatagramPacket packet = new DatagramPacket(messageBytes, messageBytes.length, address, port);
-                datagramSocket.send(packet);
-            } catch (Exception ignored) { }
+        // Do not send the message to this verifier.
+        if (!ByteUtil.arraysAreEqual(identifier, Verifier.getIdentifier()) && udpSendIsAllowed(message)) {
+            sendUdpBytes(ipAddress, port, message.getBytesForTransmission());
         }
     }
 
-    public static Message readFromStream(InputStream inputStream, byte[] sourceIpAddress, MessageType sourceType) {
+    static boolean sendUdpBytes(byte[] ipAddress, int port, byte[] messageBytes) {
 
-        byte[] response = getResponse(inputStream);
-        Message message;
-        if (response.length == 0) {
-            message = null;
-        } else {
-            message = fromBytes(response, sourceIpAddress, false);
-        }
+        boolean sent = false;
+        try {
+            InetAddress address = Inet4Address.getByAddress(ipAddress);
+            DatagramPacket packet = new DatagramPacket(messageBytes, messageBytes.length, address, port);
+            datagramSocket.send(packet);
+            sent = true;
+        } catch (Exception ignored) { }
 
-        return message;
+        return sent;
     }
 
-    private static byte[] getResponse(InputStream inputStream) {
+    public static Message readFromStream(InputStream inputStream, byte[] sourceIpAddress, MessageType sourceType) {
 
-        byte[] result = new byte[0];
+        // The message is read as a frame: the four-byte length, then exactly the number of bytes the length specifies.
+        // Reads block on the stream, so the socket timeout limits the wait. Nothing past the end of the message is
+        // read, so a kept connection remains aligned to message boundaries. The message is decoded directly from the
+        // thread's read buffer; decoding copies every field, so the message does not refer to the buffer.
+        Message message = null;
+        byte[] buffer = readBuffers.get();
         try {
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-            byte[] lengthBytes = new byte[4];
-            bufferedInputStream.read(lengthBytes);
-            int messageLength = ByteBuffer.wrap(lengthBytes).getInt();
-
-            if (messageLength <= maximumMessageLength) {
-                result = new byte[messageLength - 4];
-                int totalBytesRead = 0;
-                boolean readFailure = false;
-                int waitCycles = 0;
-                while (totalBytesRead < result.length && !readFailure && waitCycles < 10) {
-                    int numberOfBytesRead = bufferedInputStream.read(result, totalBytesRead,
-                            result.length - totalBytesRead);
-                    if (numberOfBytesRead < 0) {
-                        readFailure = true;
-                    } else {
-                        if (numberOfBytesRead == 0) {
-                            waitCycles++;
+            if (readFully(inputStream, buffer, FieldByteSize.messageLength) == FieldByteSize.messageLength) {
+                int messageLength = ((buffer[0] & 0xff) << 24) | ((buffer[1] & 0xff) << 16) |
+                        ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+
+                if (messageLength > FieldByteSize.messageLength && messageLength <= maximumMessageLength) {
+
+                    // The buffer grows as bytes arrive, at most doubling each time, so a length that claims more bytes
+                    // than the sender provides does not cause an allocation of that size.
+                    int contentLength = messageLength - FieldByteSize.messageLength;
+                    int totalBytesRead = 0;
+                    boolean endOfStream = false;
+                    while (totalBytesRead < contentLength && !endOfStream) {
+                        if (totalBytesRead == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, (int) Math.min(contentLength, buffer.length * 2L));
+                        }
+                        int numberOfBytesRead = inputStream.read(buffer, totalBytesRead,
+                                Math.min(buffer.length, contentLength) - totalBytesRead);
+                        if (numberOfBytesRead < 0) {
+                            endOfStream = true;
+                        } else {
+                            totalBytesRead += numberOfBytesRead;
                         }
-                        totalBytesRead += numberOfBytesRead;
                     }
 
-                    try {
-                        Thread.sleep(10);
-                    } catch (Exception ignore) {
+                    if (totalBytesRead == contentLength) {
+                        message = fromBytes(buffer, contentLength, sourceIpAddress, false);
+                    } else {
+                        System.err.println("only read " + totalBytesRead + " of " + contentLength + " for message");
                     }
                 }
-
-                if (totalBytesRead < result.length) {
-                    System.err.println("only read " + totalBytesRead + " of " + result.length + " for message");
-                }
             }
+        } catch (Exception ignored) { }
 
-        } catch (Exception ignore) { }
+        if (buffer.length <= retainedReadBufferSize) {
+            readBuffers.set(buffer);
+        }
 
-        return result;
+        return message;
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+
+        int totalBytesRead = 0;
+        int numberOfBytesRead = 0;
+        while (totalBytesRead < length && numberOfBytesRead >= 0) {
+            numberOfBytesRead = inputStream.read(buffer, totalBytesRead, length - totalBytesRead);
+            if (numberOfBytesRead > 0) {
+                totalBytesRead += numberOfBytesRead;
+            }
+        }
+
+        return totalBytesRead;
     }
 
     public byte[] getBytesForSigning() {
@@ -342,59 +366,45 @@ public class Message {
             sizeBytes += content.getByteSize();
         }
 
-        // Make the buffer.
+        // Make the buffer and add the data.
         byte[] result = new byte[sizeBytes];
-        ByteBuffer buffer = ByteBuffer.wrap(result);
-
-        // Add the data.
-        buffer.putLong(timestamp);
-        buffer.putShort((short) type.getValue());
-        if (content != null) {
-            buffer.put(content.getBytes());
-        }
-        buffer.put(sourceNodeIdentifier);
+        writeSignedFields(ByteBuffer.wrap(result));
 
         return result;
     }
 
+    // The array is shared by all callers, and it must not be modified.
     public byte[] getBytesForTransmission() {
 
-        // Determine the size (timestamp, type, source-node identifier, source-node signature, content if present).
-        int sizeBytes = FieldByteSize.messageLength + FieldByteSize.timestamp + FieldByteSize.messageType +
-                FieldByteSize.identifier + FieldByteSize.signature;
-        if (content != null) {
-            sizeBytes += content.getByteSize();
+        byte[] result = bytesForTransmission;
+        if (result == null) {
+            result = new byte[transmissionByteSize()];
+            ByteBuffer buffer = ByteBuffer.wrap(result);
+            buffer.putInt(result.length);
+            writeSignedFields(buffer);
+            buffer.put(sourceNodeSignature);
+            bytesForTransmission = result;
         }
 
-        // Make the buffer.
-        byte[] result = new byte[sizeBytes];
-        ByteBuffer buffer = ByteBuffer.wrap(result);
-
-        // Add the size.
-        buffer.putInt(sizeBytes);
-
-        // Add the data.
-        buffer.putLong(timestamp);
-        buffer.putShort((short) type.getValue());
-        if (content != null) {
-            buffer.put(content.getBytes());
-        }
-        buffer.put(sourceNodeIdentifier);
-        buffer.put(sourceNodeSignature);
-
         return result;
     }
 
     public static Message fromBytes(byte[] bytes, byte[] sourceIpAddress, boolean isUdp) {
 
+        return fromBytes(bytes, bytes.length, sourceIpAddress, isUdp);
+    }
+
+    // For TCP, the message occupies the first length bytes of the array. For UDP, the length is read from the message.
+    public static Message fromBytes(byte[] bytes, int length, byte[] sourceIpAddress, boolean isUdp) {
+
         Message message = null;
         int typeValue = 0;
         MessageType type = null;
         try {
-            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
 
             // For UDP, the length is still in the buffer. For TCP, the array is sized to the message.
-            int bufferLength = isUdp ? buffer.getInt() : bytes.length;
+            int bufferLength = isUdp ? buffer.getInt() : length;
 
             long timestamp = buffer.getLong();
             typeValue = buffer.getShort() & 0xffff;
@@ -634,7 +644,7 @@ public class Message {
                     }
                     byte[] address = IpUtil.addressFromString(line);
                     if (address != null) {
-                        whitelist.add(ByteBuffer.wrap(address));
+                        whitelist.put(address, true);
                         System.out.println("added IP " + IpUtil.addressAsString(address) + " to whitelist");
                     }
                 }
@@ -647,23 +657,22 @@ public class Message {
     }
 
     public static boolean ipIsWhitelisted(byte[] ipAddress) {
-        ByteBuffer ipAddressBuffer = ByteBuffer.wrap(ipAddress);
-        return whitelist.contains(ipAddressBuffer) || dynamicWhitelist.keySet().contains(ipAddressBuffer);
+        return whitelist.containsKey(ipAddress) || dynamicWhitelist.containsKey(ipAddress);
     }
 
     public static void whitelistIpAddress(byte[] ipAddress) {
-        dynamicWhitelist.put(ByteBuffer.wrap(ipAddress), System.currentTimeMillis());
+        dynamicWhitelist.put(ipAddress, System.currentTimeMillis());
         LogUtil.println("added " + IpUtil.addressAsString(ipAddress) + " to dynamic whitelist");
     }
 
     public static void performMaintenance() {
         // Remove stale entries from the dynamic whitelist.
-        Set<ByteBuffer> ipAddresses = new HashSet<>(dynamicWhitelist.keySet());
         long threshold = System.currentTimeMillis() - dynamicWhitelistInterval;
-        for (ByteBuffer ipAddress : ipAddresses) {
-            if (dynamicWhitelist.getOrDefault(ipAddress, 0L) < threshold) {
+        for (byte[] ipAddress : dynamicWhitelist.keys()) {
+            Long timestamp = dynamicWhitelist.get(ipAddress);
+            if (timestamp != null && timestamp < threshold) {
                 dynamicWhitelist.remove(ipAddress);
-                LogUtil.println("removed " + IpUtil.addressAsString(ipAddress.array()) + " from dynamic whitelist");
+                LogUtil.println("removed " + IpUtil.addressAsString(ipAddress) + " from dynamic whitelist");
             }
         }
     }
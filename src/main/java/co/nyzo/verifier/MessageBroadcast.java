@@ -0,0 +1,195 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.IpUtil;
+import co.nyzo.verifier.util.PreferencesUtil;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// This sends a message to a set of nodes for Message.broadcast(). The message is serialized and signed once, when it is
+// created, and the same array is sent to every node. UDP datagrams are sent immediately on the broadcasting thread. TCP
+// requests are sent by a bounded pool of sender threads that is separate from the outbound connection pool, so a
+// broadcast to a large cycle neither adds threads beyond this limit nor fills the queue of the outbound pool ahead of
+// other requests. The senders use the idle sockets of the outbound pool and are subject to its per-peer limit.
+//
+// Each broadcast keeps its own queue of nodes, and the senders serve the broadcasts with pending requests in turn, one
+// request at a time. A single broadcast can use all of the senders, but a broadcast that starts while another is in
+// progress has its first request sent as soon as a sender is free, rather than after all the requests of the earlier
+// broadcast. A broadcast is complete when all of its TCP requests have completed, and its completion time and number
+// of failures are included in the totals of the status response.
+public class MessageBroadcast {
+
+    private static final int numberOfSenderThreads = Math.max(1,
+            PreferencesUtil.getInt("broadcast_sender_threads", 256));
+
+    private static final ThreadPoolExecutor senders = createSenders();
+
+    // A broadcast is in this queue while it has nodes that have not been assigned to a sender. A sender takes the
+    // broadcast at the head of the queue, takes one of its nodes, and returns the broadcast to the end of the queue if
+    // it has more. All of this is done while holding the lock of the queue, so a sender never finds the queue empty
+    // while another sender is between taking a broadcast and returning it.
+    private static final Queue<MessageBroadcast> broadcastsWithPendingRequests = new ArrayDeque<>();
+
+    private static final AtomicLong numberOfBroadcasts = new AtomicLong(0L);
+    private static final AtomicLong numberOfCompletedBroadcasts = new AtomicLong(0L);
+    private static final AtomicLong numberOfUdpSends = new AtomicLong(0L);
+    private static final AtomicLong numberOfTcpRequests = new AtomicLong(0L);
+    private static final AtomicLong numberOfFailures = new AtomicLong(0L);
+    private static final AtomicLong totalCompletionTime = new AtomicLong(0L);
+    private static final AtomicLong maximumCompletionTime = new AtomicLong(0L);
+    private static volatile String lastBroadcastDescription = "none";
+
+    private final Message message;
+    private final int numberOfNodes;
+    private final long startTimestamp;
+    private final AtomicInteger remainingTcpRequests = new AtomicInteger(1);
+    private final AtomicInteger failures = new AtomicInteger(0);
+    private final Queue<Node> pendingNodes = new ArrayDeque<>();
+    private int udpSends = 0;
+    private int tcpRequests = 0;
+
+    private MessageBroadcast(Message message, int numberOfNodes) {
+        this.message = message;
+        this.numberOfNodes = numberOfNodes;
+        this.startTimestamp = System.currentTimeMillis();
+    }
+
+    private static ThreadPoolExecutor createSenders() {
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfSenderThreads, numberOfSenderThreads, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MessageBroadcast-sender-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    public static void send(Message message, Collection<Node> nodes) {
+
+        // The checks that do not depend on the node are made once for the broadcast. The count of remaining TCP
+        // requests starts at one, which is released after all requests are queued, so the broadcast cannot complete
+        // while requests are still being added.
+        MessageBroadcast broadcast = new MessageBroadcast(message, nodes.size());
+        numberOfBroadcasts.incrementAndGet();
+        boolean udpType = Message.isUdpType(message.getType());
+        boolean udpAllowed = udpType && Message.udpSendIsAllowed(message);
+        boolean tcpAllowed = Message.tcpSendIsAllowed(message);
+        byte[] bytes = message.getBytesForTransmission();
+
+        for (Node node : nodes) {
+            if (node.isActive() && !ByteUtil.arraysAreEqual(node.getIdentifier(), Verifier.getIdentifier())) {
+                if (udpType && node.getPortUdp() > 0) {
+                    if (udpAllowed) {
+                        broadcast.udpSends++;
+                        if (!Message.sendUdpBytes(node.getIpAddress(), node.getPortUdp(), bytes)) {
+                            broadcast.failures.incrementAndGet();
+                        }
+                    }
+                } else if (tcpAllowed) {
+                    broadcast.pendingNodes.add(node);
+                }
+            }
+        }
+
+        // One sender task is queued for each node. Each task sends the next request of whichever broadcast is next in
+        // turn, which is not necessarily this broadcast.
+        broadcast.tcpRequests = broadcast.pendingNodes.size();
+        broadcast.remainingTcpRequests.addAndGet(broadcast.tcpRequests);
+        numberOfUdpSends.addAndGet(broadcast.udpSends);
+        numberOfTcpRequests.addAndGet(broadcast.tcpRequests);
+        if (broadcast.tcpRequests > 0) {
+            synchronized (broadcastsWithPendingRequests) {
+                broadcastsWithPendingRequests.add(broadcast);
+            }
+            for (int i = 0; i < broadcast.tcpRequests; i++) {
+                senders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendNextRequest();
+                    }
+                });
+            }
+        }
+        broadcast.release();
+    }
+
+    private static void sendNextRequest() {
+
+        // There is one task for each pending node, so a broadcast is always available here.
+        MessageBroadcast broadcast;
+        Node node = null;
+        synchronized (broadcastsWithPendingRequests) {
+            broadcast = broadcastsWithPendingRequests.poll();
+            if (broadcast != null) {
+                node = broadcast.pendingNodes.poll();
+                if (!broadcast.pendingNodes.isEmpty()) {
+                    broadcastsWithPendingRequests.add(broadcast);
+                }
+            }
+        }
+
+        if (broadcast != null) {
+            broadcast.requestCompleted(OutboundConnectionPool.send(IpUtil.addressAsString(node.getIpAddress()),
+                    node.getPortTcp(), broadcast.message));
+        }
+    }
+
+    private void requestCompleted(boolean responseReceived) {
+
+        if (!responseReceived) {
+            failures.incrementAndGet();
+        }
+        release();
+    }
+
+    private void release() {
+
+        if (remainingTcpRequests.decrementAndGet() == 0) {
+            long completionTime = System.currentTimeMillis() - startTimestamp;
+            numberOfCompletedBroadcasts.incrementAndGet();
+            numberOfFailures.addAndGet(failures.get());
+            totalCompletionTime.addAndGet(completionTime);
+            long previousMaximum;
+            while (completionTime > (previousMaximum = maximumCompletionTime.get()) &&
+                    !maximumCompletionTime.compareAndSet(previousMaximum, completionTime)) { }
+
+            lastBroadcastDescription = message.getType() + " to " + numberOfNodes + " nodes (UDP=" + udpSends +
+                    ", TCP=" + tcpRequests + ") in " + completionTime + "ms with " + failures.get() + " failures";
+        }
+    }
+
+    public static long getNumberOfCompletedBroadcasts() {
+        return numberOfCompletedBroadcasts.get();
+    }
+
+    public static String getStatusDescription() {
+
+        int waitingBroadcasts;
+        synchronized (broadcastsWithPendingRequests) {
+            waitingBroadcasts = broadcastsWithPendingRequests.size();
+        }
+
+        long completed = numberOfCompletedBroadcasts.get();
+        return "broadcasts=" + numberOfBroadcasts.get() + ", completed=" + completed + ", UDP=" +
+                numberOfUdpSends.get() + ", TCP=" + numberOfTcpRequests.get() + ", failures=" +
+                numberOfFailures.get() + ", senders=" + senders.getPoolSize() + ", queued=" +
+                senders.getQueue().size() + ", broadcasts waiting=" + waitingBroadcasts +
+                ", average completion=" + (completed == 0 ? 0 : totalCompletionTime.get() / completed) +
+                "ms, maximum completion=" + maximumCompletionTime.get() + "ms, last: " + lastBroadcastDescription;
+    }
+}
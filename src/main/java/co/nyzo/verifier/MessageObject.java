@@ -1,7 +1,15 @@
 package co.nyzo.verifier;
 
+import java.nio.ByteBuffer;
+
 public interface MessageObject {
 
     int getByteSize();
     byte[] getBytes();
+
+    // This writes exactly getByteSize() bytes to the buffer. Objects with large serialized forms override it to write
+    // their fields directly, so that messages can be serialized without an intermediate array for the content.
+    default void writeTo(ByteBuffer buffer) {
+        buffer.put(getBytes());
+    }
 }
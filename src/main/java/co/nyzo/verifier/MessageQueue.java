@@ -1,110 +1,171 @@
 package co.nyzo.verifier;
 
 import co.nyzo.verifier.util.LogUtil;
+import co.nyzo.verifier.util.PreferencesUtil;
 import co.nyzo.verifier.util.UpdateUtil;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The message queue dispatches responses to their callbacks. It is divided into lanes, each with a bounded queue and a
+// single worker thread. The lane is selected by the type of the request, so all callbacks for a type of request are
+// invoked in the order their responses arrived, one at a time, while callbacks for different types of requests may run
+// concurrently. When a lane is full, the thread adding to it waits for space. With a single worker, all callbacks are
+// invoked in the order their responses arrived, as with the original queue.
 public class MessageQueue {
 
+    private static final int numberOfWorkers = Math.max(1, PreferencesUtil.getInt("message_queue_workers", 4));
+    private static final int laneCapacity = Math.max(1, PreferencesUtil.getInt("message_queue_lane_capacity", 1000));
+
+    private static final BlockingQueue<MessageQueue>[] lanes = createLanes();
+
+    // The pending count includes messages in the lanes and messages whose callbacks are being invoked.
+    private static final AtomicInteger pendingCount = new AtomicInteger(0);
+    private static final Object clearMonitor = new Object();
+
+    private static final AtomicInteger maximumPendingCount = new AtomicInteger(0);
+    private static final AtomicLong dispatchedCount = new AtomicLong(0L);
+    private static final AtomicLong totalWaitTime = new AtomicLong(0L);
+    private static final AtomicLong maximumWaitTime = new AtomicLong(0L);
+
     static {
         start();
     }
 
-    private MessageCallback callback;
-    private Message message;
+    private final MessageCallback callback;
+    private final Message message;
+    private final long addedTimestamp;
 
     private MessageQueue(MessageCallback callback, Message message) {
         this.callback = callback;
         this.message = message;
+        this.addedTimestamp = System.currentTimeMillis();
     }
 
-    private static final List<MessageQueue> queue = new ArrayList<>();
-    private static boolean shouldPrintZeroOnRemoval = false;
-    private static String lastMessageStatus = "";
+    @SuppressWarnings("unchecked")
+    private static BlockingQueue<MessageQueue>[] createLanes() {
+
+        BlockingQueue<MessageQueue>[] lanes = (BlockingQueue<MessageQueue>[]) new BlockingQueue<?>[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            lanes[i] = new ArrayBlockingQueue<>(laneCapacity);
+        }
+
+        return lanes;
+    }
 
     public static void blockThisThreadUntilClear() {
 
-        boolean shouldPrint = true;
-        int iteration = 0;
-        while (queue.size() > 0) {
-            if (shouldPrint) {
-                shouldPrint = false;
-                System.out.println("waiting for message queue to clear from thread [" +
-                        Thread.currentThread().getName() + "], size is " + queue.size());
-            }
-            if (iteration++ % 20 == 18) {
-                shouldPrint = true;
+        synchronized (clearMonitor) {
+            boolean shouldPrint = true;
+            while (pendingCount.get() > 0) {
+                if (shouldPrint) {
+                    System.out.println("waiting for message queue to clear from thread [" +
+                            Thread.currentThread().getName() + "], size is " + pendingCount.get());
+                }
+
+                // Print again if the queue has not cleared after two seconds.
+                long waitStartTimestamp = System.currentTimeMillis();
+                try {
+                    clearMonitor.wait(2000L);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                shouldPrint = System.currentTimeMillis() - waitStartTimestamp >= 2000L;
             }
-            try {
-                Thread.sleep(100L);
-            } catch (Exception ignored) { }
         }
+    }
 
-        // Sleep an additional 50ms to give the last message time to be processed.
-        try {
-            Thread.sleep(50L);
-        } catch (Exception ignored) { }
+    public static void add(MessageCallback callback, Message message) {
+
+        add(message == null ? null : message.getType(), callback, message);
     }
 
-    public static synchronized void add(MessageCallback callback, Message message) {
+    public static void add(MessageType requestType, MessageCallback callback, Message message) {
 
-        queue.add(new MessageQueue(callback, message));
-        if (queue.size() % 100 == 0 && queue.size() > 0) {
-            shouldPrintZeroOnRemoval = true;
-            System.out.println("+ message queue is now " + queue.size() + ", " + (message == null ? "null" :
+        int size = pendingCount.incrementAndGet();
+        updateMaximum(maximumPendingCount, size);
+        if (size % 100 == 0) {
+            System.out.println("+ message queue is now " + size + ", " + (message == null ? "null" :
                     message.getType()));
         }
+
+        BlockingQueue<MessageQueue> lane = lanes[requestType == null ? 0 : requestType.getValue() % lanes.length];
+        try {
+            lane.put(new MessageQueue(callback, message));
+        } catch (InterruptedException e) {
+            messageCompleted();
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public static synchronized MessageQueue next() {
+    public static String getStatusDescription() {
 
-        MessageQueue queueObject = null;
-        if (queue.size() > 0) {
-            queueObject = queue.remove(0);
-            if (queue.size() % 100 == 0 && (queue.size() > 0 || shouldPrintZeroOnRemoval)) {
-                if (queue.size() == 0) {
-                    shouldPrintZeroOnRemoval = false;
-                }
-                System.out.println("- message queue is now " + queue.size());
+        long dispatched = dispatchedCount.get();
+        return "size=" + pendingCount.get() + ", maximum size=" + maximumPendingCount.get() + ", workers=" +
+                numberOfWorkers + ", dispatched=" + dispatched + ", average wait=" +
+                (dispatched == 0 ? 0 : totalWaitTime.get() / dispatched) + "ms, maximum wait=" +
+                maximumWaitTime.get() + "ms";
+    }
+
+    private static void messageCompleted() {
+
+        int size = pendingCount.decrementAndGet();
+        if (size == 0) {
+            synchronized (clearMonitor) {
+                clearMonitor.notifyAll();
             }
         }
+    }
 
-        return queueObject;
+    private static void updateMaximum(AtomicInteger maximum, int value) {
+
+        int previousMaximum;
+        while (value > (previousMaximum = maximum.get()) && !maximum.compareAndSet(previousMaximum, value)) { }
     }
 
-    private static synchronized void start() {
+    private static void updateMaximum(AtomicLong maximum, long value) {
 
-        LogUtil.println("starting message queue");
+        long previousMaximum;
+        while (value > (previousMaximum = maximum.get()) && !maximum.compareAndSet(previousMaximum, value)) { }
+    }
 
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (!UpdateUtil.shouldTerminate()) {
+    private static void start() {
 
-                    MessageQueue next = next();
-                    String lastMessageStatus;
-                    if (next == null) {
-                        lastMessageStatus = "last message was null";
-                        try {
-                            Thread.sleep(100L);
-                        } catch (Exception ignored) { }
-                    } else {
+        LogUtil.println("starting message queue with " + numberOfWorkers + " workers");
 
-                        lastMessageStatus = "last message was " + next.message;
+        for (int i = 0; i < numberOfWorkers; i++) {
+            BlockingQueue<MessageQueue> lane = lanes[i];
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!UpdateUtil.shouldTerminate()) {
+                        MessageQueue next = null;
                         try {
-                            lastMessageStatus += " invoking responseReceived";
-                            if (next.callback != null) {
-                                lastMessageStatus += " [not null]";
-                                next.callback.responseReceived(next.message);
+                            next = lane.poll(1L, TimeUnit.SECONDS);
+                        } catch (InterruptedException ignored) { }
+
+                        if (next != null) {
+                            long waitTime = System.currentTimeMillis() - next.addedTimestamp;
+                            totalWaitTime.addAndGet(waitTime);
+                            updateMaximum(maximumWaitTime, waitTime);
+                            dispatchedCount.incrementAndGet();
+
+                            try {
+                                if (next.callback != null) {
+                                    next.callback.responseReceived(next.message);
+                                }
+                            } catch (Exception ignored) {
+                            } finally {
+                                messageCompleted();
                             }
-                            lastMessageStatus += " [complete]";
-                        } catch (Exception ignored) { }
+                        }
                     }
-                    MessageQueue.lastMessageStatus = lastMessageStatus;
                 }
-            }
-        }, "MessageQueue-dispatchLoop").start();
+            }, "MessageQueue-dispatchLoop-" + i).start();
+        }
     }
 }
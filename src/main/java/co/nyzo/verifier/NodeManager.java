@@ -1,6 +1,7 @@
 package co.nyzo.verifier;
 
 import co.nyzo.verifier.messages.*;
+import co.nyzo.verifier.util.IpAddressMap;
 import co.nyzo.verifier.util.IpUtil;
 import co.nyzo.verifier.util.LogUtil;
 
@@ -17,14 +18,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class NodeManager {
 
     private static Set<ByteBuffer> activeCycleIdentifiers = ConcurrentHashMap.newKeySet();
-    private static Set<ByteBuffer> activeCycleIpAddresses = ConcurrentHashMap.newKeySet();
+    private static IpAddressMap<Boolean> activeCycleIpAddresses = new IpAddressMap<>();
     private static String missingInCycleVerifiers = "";
 
     private static final int maximumNodesPerInCycleVerifier = 6;
     private static final int maximumNewNodeMapSize = 1000;
     private static final Map<ByteBuffer, Integer> newNodeIpToPortMap = new ConcurrentHashMap<>();
 
-    private static final Map<ByteBuffer, Node> ipAddressToNodeMap = new ConcurrentHashMap<>();
+    private static final IpAddressMap<Node> ipAddressToNodeMap = new IpAddressMap<>();
 
     private static final int minimumMeshRequestInterval = 30;
     private static AtomicInteger meshRequestWait = new AtomicInteger(minimumMeshRequestInterval);
@@ -66,7 +67,7 @@ public class NodeManager {
             // This is not a full update. Instead, to offset our marking of in-cycle nodes as inactive, we allow a
             // missing block vote request or a missing block request to reactivate the node. These requests are
             // typically made when a node comes back online after a temporary network issue.
-            Node node = ipAddressToNodeMap.get(ByteBuffer.wrap(message.getSourceIpAddress()));
+            Node node = ipAddressToNodeMap.get(message.getSourceIpAddress());
             if (node != null) {
                 node.markSuccessfulConnection();
             }
@@ -86,8 +87,7 @@ public class NodeManager {
                 ipAddress.length == FieldByteSize.ipAddress && !IpUtil.isPrivate(ipAddress)) {
 
             // Try to get the node from the map.
-            ByteBuffer ipAddressBuffer = ByteBuffer.wrap(ipAddress);
-            Node existingNode = ipAddressToNodeMap.get(ipAddressBuffer);
+            Node existingNode = ipAddressToNodeMap.get(ipAddress);
 
             if (existingNode != null && ByteUtil.arraysAreEqual(existingNode.getIdentifier(), identifier)) {
                 // This is the case when there is already a node at the IP with the same identifier. Update the ports
@@ -100,7 +100,7 @@ public class NodeManager {
             } else {
                 // If the existing node is not null, remove it.
                 if (existingNode != null) {
-                    ipAddressToNodeMap.remove(ipAddressBuffer);
+                    ipAddressToNodeMap.remove(ipAddress);
                 }
 
                 // Now, determine what to do with the new node.
@@ -121,7 +121,7 @@ public class NodeManager {
                             node.setQueueTimestamp(System.currentTimeMillis() -
                                     NewVerifierQueueManager.lotteryWaitTime);
                         }
-                        ipAddressToNodeMap.put(ipAddressBuffer, node);
+                        ipAddressToNodeMap.put(ipAddress, node);
                         if (!BlockManager.verifierInCurrentCycle(identifierBuffer)) {
                             LogUtil.println("added new out-of-cycle node to NodeManager: " +
                                     NicknameManager.get(identifier));
@@ -129,7 +129,7 @@ public class NodeManager {
                     }
                 } else {
                     // Out-of-cycle nodes due to node joins are added to a map for later querying.
-                    newNodeIpToPortMap.put(ipAddressBuffer, portTcp);
+                    newNodeIpToPortMap.put(ByteBuffer.wrap(ipAddress), portTcp);
                     LogUtil.println("added new out-of-cycle node to queue: " + NicknameManager.get(identifier));
                     if (newNodeIpToPortMap.size() > maximumNewNodeMapSize) {
                         newNodeIpToPortMap.remove(newNodeIpToPortMap.keySet().iterator().next());
@@ -141,7 +141,7 @@ public class NodeManager {
                 // temporary entry.
                 if (!ByteUtil.isAllZeros(ipAddress) &&
                         ByteUtil.arraysAreEqual(identifier, Verifier.getIdentifier())) {
-                    ipAddressToNodeMap.remove(ByteBuffer.wrap(new byte[4]));
+                    ipAddressToNodeMap.remove(new byte[4]);
                 }
             }
         }
@@ -195,8 +195,8 @@ public class NodeManager {
         return missingInCycleVerifiers;
     }
 
-    public static boolean ipAddressInCycle(ByteBuffer ipAddress) {
-        return activeCycleIpAddresses.isEmpty() || activeCycleIpAddresses.contains(ipAddress);
+    public static boolean ipAddressInCycle(byte[] ipAddress) {
+        return activeCycleIpAddresses.isEmpty() || activeCycleIpAddresses.containsKey(ipAddress);
     }
 
     public static int getNodeJoinRequestsSent() {
@@ -218,8 +218,7 @@ public class NodeManager {
 
         byte[] identifier = null;
         if (address != null) {
-            ByteBuffer addressBuffer = ByteBuffer.wrap(address);
-            Node node = ipAddressToNodeMap.get(addressBuffer);
+            Node node = ipAddressToNodeMap.get(address);
             if (node != null) {
                 identifier = node.getIdentifier();
             }
@@ -237,8 +236,7 @@ public class NodeManager {
 
         byte[] address = IpUtil.addressFromString(addressString);
         if (address != null && !ByteUtil.isAllZeros(address)) {
-            ByteBuffer addressBuffer = ByteBuffer.wrap(address);
-            Node node = ipAddressToNodeMap.get(addressBuffer);
+            Node node = ipAddressToNodeMap.get(address);
             if (node != null) {
                 node.markFailedConnection();
             }
@@ -249,8 +247,7 @@ public class NodeManager {
 
         byte[] address = IpUtil.addressFromString(addressString);
         if (address != null) {
-            ByteBuffer addressBuffer = ByteBuffer.wrap(address);
-            Node node = ipAddressToNodeMap.get(addressBuffer);
+            Node node = ipAddressToNodeMap.get(address);
             if (node != null) {
                 node.markSuccessfulConnection();
             }
@@ -262,16 +259,18 @@ public class NodeManager {
         Set<ByteBuffer> currentCycle = BlockManager.verifiersInCurrentCycleSet();
 
         Set<ByteBuffer> activeCycleIdentifiers = ConcurrentHashMap.newKeySet();
-        Set<ByteBuffer> activeCycleIpAddresses = ConcurrentHashMap.newKeySet();
+        IpAddressMap<Boolean> activeCycleIpAddresses = new IpAddressMap<>();
         long thresholdTimestamp = System.currentTimeMillis() - Block.blockDuration *
                 BlockManager.currentCycleLength() * 2;
-        for (ByteBuffer ipAddress : new HashSet<>(ipAddressToNodeMap.keySet())) {
+        for (byte[] ipAddress : ipAddressToNodeMap.keys()) {
             Node node = ipAddressToNodeMap.get(ipAddress);
-            if (node.isActive()) {
+            if (node == null) {
+                // The node was removed after the keys were copied.
+            } else if (node.isActive()) {
                 ByteBuffer identifierBuffer = ByteBuffer.wrap(node.getIdentifier());
                 if (currentCycle.contains(identifierBuffer)) {
                     activeCycleIdentifiers.add(identifierBuffer);
-                    activeCycleIpAddresses.add(ByteBuffer.wrap(node.getIpAddress()));
+                    activeCycleIpAddresses.put(node.getIpAddress(), true);
                 }
             } else if (node.getInactiveTimestamp() < thresholdTimestamp) {
                 ipAddressToNodeMap.remove(ipAddress);
@@ -473,7 +472,7 @@ public class NodeManager {
                     node.setQueueTimestamp(queueTimestamp);
                     node.setInactiveTimestamp(inactiveTimestamp);
 
-                    ipAddressToNodeMap.put(ByteBuffer.wrap(ipAddress), node);
+                    ipAddressToNodeMap.put(ipAddress, node);
                 } catch (Exception ignored) { }
             }
             reader.close();
@@ -0,0 +1,418 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.PreferencesUtil;
+import co.nyzo.verifier.util.PrintUtil;
+import co.nyzo.verifier.util.ThreadUtil;
+import co.nyzo.verifier.util.UpdateUtil;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// This class sends TCP requests for Message.fetchTcp(). Previously, each request started a new thread and opened a new
+// socket, which was closed after the response was read. Now, requests run on a bounded pool of threads, and sockets are
+// kept after successful responses and reused for later requests to the same peer. The number of requests in progress is
+// limited globally by the size of the thread pool and for each peer by a per-peer limit; additional requests for a peer
+// wait in that peer's queue. Requests sent on the caller's thread are also subject to the per-peer limit, and the
+// caller waits for a request to the peer to finish if the peer is at its limit.
+//
+// Listeners that do not keep connections open close the socket after responding. A request on a reused socket that
+// receives no response is retried once on a new socket, and sockets are not kept for that peer for a while afterward.
+public class OutboundConnectionPool {
+
+    private static final int maximumRequests = Math.max(1, PreferencesUtil.getInt("maximum_outbound_requests", 1000));
+    private static final int maximumRequestsPerPeer = Math.max(1,
+            PreferencesUtil.getInt("maximum_outbound_requests_per_peer", 4));
+    private static final int maximumIdleConnectionsPerPeer = Math.max(0,
+            PreferencesUtil.getInt("maximum_idle_outbound_connections_per_peer", 2));
+
+    // The idle timeout is less than the keep-alive timeout of the selector listener, so the client normally closes an
+    // idle socket before the listener does.
+    private static final long idleTimeout = 5000L;
+    private static final long nonPersistentInterval = 1000L * 60L * 10L;  // 10 minutes
+    private static final int connectTimeout = 2000;
+    private static final int readTimeout = 1000;
+    private static final long maximumSendWait = connectTimeout + readTimeout;
+
+    private static final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private static final AtomicLong numberOfRequests = new AtomicLong(0L);
+    private static final AtomicLong numberOfNewConnections = new AtomicLong(0L);
+    private static final AtomicLong numberOfReusedConnections = new AtomicLong(0L);
+    private static final AtomicLong numberOfRetries = new AtomicLong(0L);
+    private static final AtomicLong numberOfSendTimeouts = new AtomicLong(0L);
+    private static final AtomicLong totalRoundTripTime = new AtomicLong(0L);
+    private static final AtomicInteger requestsInProgress = new AtomicInteger(0);
+
+    static {
+        startIdleConnectionCleanup();
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maximumRequests, maximumRequests, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Message-fetch-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    public static void fetch(String hostNameOrIp, int port, Message message, MessageCallback messageCallback) {
+
+        String key = hostNameOrIp + ":" + port;
+        Peer peer = peers.computeIfAbsent(key, k -> new Peer(hostNameOrIp, port));
+        Request request = new Request(peer, message, messageCallback);
+
+        // The request is started now if the peer is below its limit. Otherwise, it is started when a request for the
+        // peer completes.
+        boolean start;
+        synchronized (peer) {
+            start = peer.requestsInProgress < maximumRequestsPerPeer;
+            if (start) {
+                peer.requestsInProgress++;
+            } else {
+                peer.waitingRequests.add(request);
+            }
+        }
+
+        if (start) {
+            submit(request);
+        }
+    }
+
+    private static void submit(Request request) {
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    perform(request);
+                } catch (Exception reportOnly) {
+                    System.err.println("exception in outbound request: " + PrintUtil.printException(reportOnly));
+                }
+
+                requestFinished(request.peer);
+            }
+        });
+    }
+
+    // This sends a request on the calling thread, for callers that manage their own threads, and returns true if a
+    // response was received. The request uses and returns the peer's idle sockets, as pooled requests do. If the peer
+    // is at the per-peer limit, this waits for a request to the peer to finish. If none finishes within the time that
+    // a single request may take, the request is not sent, and this returns false.
+    static boolean send(String hostNameOrIp, int port, Message message) {
+
+        String key = hostNameOrIp + ":" + port;
+        Peer peer = peers.computeIfAbsent(key, k -> new Peer(hostNameOrIp, port));
+
+        boolean responseReceived = false;
+        if (peer.waitForCapacity(maximumSendWait)) {
+            try {
+                responseReceived = perform(new Request(peer, message, null));
+            } catch (Exception reportOnly) {
+                System.err.println("exception in outbound request: " + PrintUtil.printException(reportOnly));
+            }
+
+            requestFinished(peer);
+        } else {
+            numberOfSendTimeouts.incrementAndGet();
+        }
+
+        return responseReceived;
+    }
+
+    private static void requestFinished(Peer peer) {
+
+        // Start the next waiting request for the peer, if any. Otherwise, the request slot is released, and a caller
+        // waiting in send() is woken to take it.
+        Request next;
+        synchronized (peer) {
+            next = peer.waitingRequests.poll();
+            if (next == null) {
+                peer.requestsInProgress--;
+                peer.notify();
+            }
+        }
+
+        if (next != null) {
+            submit(next);
+        }
+    }
+
+    private static boolean perform(Request request) {
+
+        Peer peer = request.peer;
+        Message message = request.message;
+        numberOfRequests.incrementAndGet();
+        requestsInProgress.incrementAndGet();
+        long startTimestamp = System.currentTimeMillis();
+
+        Message response = null;
+        Socket socket = peer.takeIdleSocket();
+        boolean reused = socket != null;
+        if (reused) {
+            numberOfReusedConnections.incrementAndGet();
+            response = exchange(socket, request);
+
+            // A reused socket that does not produce a response was probably closed by the listener. The request is
+            // retried on a new socket, and sockets are not kept for this peer for a while.
+            if (response == null) {
+                ConnectionManager.fastCloseSocket(socket);
+                peer.nonPersistentUntil = System.currentTimeMillis() + nonPersistentInterval;
+                numberOfRetries.incrementAndGet();
+                socket = null;
+            }
+        }
+
+        if (socket == null) {
+            socket = connect(peer);
+            if (socket == null) {
+                NodeManager.markFailedConnection(peer.hostNameOrIp);
+            } else {
+                NodeManager.markSuccessfulConnection(peer.hostNameOrIp);
+                numberOfNewConnections.incrementAndGet();
+                response = exchange(socket, request);
+            }
+        }
+
+        // Only keep a socket that produced a complete response. A partial read would leave the stream out of step
+        // with message boundaries.
+        if (socket != null) {
+            if (response == null || !peer.returnIdleSocket(socket)) {
+                ConnectionManager.fastCloseSocket(socket);
+            }
+        }
+
+        totalRoundTripTime.addAndGet(System.currentTimeMillis() - startTimestamp);
+        requestsInProgress.decrementAndGet();
+
+        MessageCallback messageCallback = request.messageCallback;
+        if (messageCallback != null) {
+            if (response != null && response.isValid() &&
+                    ((response.getTimestamp() >= System.currentTimeMillis() - Message.replayProtectionInterval &&
+                            response.getTimestamp() <= System.currentTimeMillis() +
+                                    Message.replayProtectionInterval) ||
+                            response.getType() == MessageType.TimestampResponse28 ||
+                            response.getType() == MessageType.Error65534)) {
+                MessageQueue.add(message.getType(), messageCallback, response);
+            } else {
+                MessageQueue.add(message.getType(), messageCallback, null);
+            }
+        }
+
+        return response != null;
+    }
+
+    private static Socket connect(Peer peer) {
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(peer.hostNameOrIp, peer.port), connectTimeout);
+            socket.setTcpNoDelay(true);
+        } catch (Exception e) {
+            if (socket.isConnected()) {
+                ConnectionManager.fastCloseSocket(socket);
+            }
+            socket = null;
+        }
+
+        return socket;
+    }
+
+    private static Message exchange(Socket socket, Request request) {
+
+        Message response = null;
+        try {
+            socket.getOutputStream().write(request.message.getBytesForTransmission());
+            socket.setSoTimeout(readTimeout);
+            response = Message.readFromStream(socket.getInputStream(), socket.getInetAddress().getAddress(),
+                    request.message.getType());
+        } catch (Exception ignored) { }
+
+        return response;
+    }
+
+    private static void startIdleConnectionCleanup() {
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!UpdateUtil.shouldTerminate()) {
+                    ThreadUtil.sleep(1000L);
+                    try {
+                        long currentTimestamp = System.currentTimeMillis();
+                        for (Peer peer : peers.values()) {
+                            if (peer.closeExpiredSockets(currentTimestamp)) {
+                                peers.remove(peer.key(), peer);
+                            }
+                        }
+                    } catch (Exception reportOnly) {
+                        System.err.println("exception in outbound connection cleanup: " +
+                                PrintUtil.printException(reportOnly));
+                    }
+                }
+
+                for (Peer peer : peers.values()) {
+                    peer.closeExpiredSockets(Long.MAX_VALUE);
+                }
+            }
+        }, "OutboundConnectionPool-cleanup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static String getStatusDescription() {
+
+        long requests = numberOfRequests.get();
+        int idleConnections = 0;
+        for (Peer peer : peers.values()) {
+            idleConnections += peer.numberOfIdleSockets();
+        }
+
+        return "requests=" + requests + ", in progress=" + requestsInProgress.get() + ", queued=" +
+                executor.getQueue().size() + ", new connections=" + numberOfNewConnections.get() + ", reused=" +
+                numberOfReusedConnections.get() + ", retries=" + numberOfRetries.get() + ", send timeouts=" +
+                numberOfSendTimeouts.get() + ", idle=" + idleConnections + ", average round trip=" +
+                (requests == 0 ? 0 : totalRoundTripTime.get() / requests) + "ms";
+    }
+
+    public static long getNumberOfNewConnections() {
+        return numberOfNewConnections.get();
+    }
+
+    public static long getNumberOfReusedConnections() {
+        return numberOfReusedConnections.get();
+    }
+
+    public static long getNumberOfRetries() {
+        return numberOfRetries.get();
+    }
+
+    private static class Request {
+
+        private final Peer peer;
+        private final Message message;
+        private final MessageCallback messageCallback;
+
+        Request(Peer peer, Message message, MessageCallback messageCallback) {
+            this.peer = peer;
+            this.message = message;
+            this.messageCallback = messageCallback;
+        }
+    }
+
+    private static class Peer {
+
+        private final String hostNameOrIp;
+        private final int port;
+        private final ArrayDeque<IdleSocket> idleSockets = new ArrayDeque<>();
+        private final ArrayDeque<Request> waitingRequests = new ArrayDeque<>();
+        private int requestsInProgress = 0;
+        private volatile long nonPersistentUntil = 0L;
+
+        Peer(String hostNameOrIp, int port) {
+            this.hostNameOrIp = hostNameOrIp;
+            this.port = port;
+        }
+
+        String key() {
+            return hostNameOrIp + ":" + port;
+        }
+
+        // This takes a request slot for a request sent on the caller's thread, waiting up to the specified time for
+        // one to be released. It returns false if no slot was taken.
+        synchronized boolean waitForCapacity(long maximumWait) {
+
+            long deadline = System.currentTimeMillis() + maximumWait;
+            long remainingWait = maximumWait;
+            boolean interrupted = false;
+            while (requestsInProgress >= maximumRequestsPerPeer && remainingWait > 0L && !interrupted) {
+                try {
+                    wait(remainingWait);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    Thread.currentThread().interrupt();
+                }
+                remainingWait = deadline - System.currentTimeMillis();
+            }
+
+            boolean acquired = requestsInProgress < maximumRequestsPerPeer;
+            if (acquired) {
+                requestsInProgress++;
+            }
+
+            return acquired;
+        }
+
+        synchronized Socket takeIdleSocket() {
+
+            // The most recently used socket is taken first, as it is the least likely to have been closed.
+            Socket socket = null;
+            long currentTimestamp = System.currentTimeMillis();
+            IdleSocket idleSocket;
+            while (socket == null && (idleSocket = idleSockets.pollLast()) != null) {
+                if (idleSocket.timestamp < currentTimestamp - idleTimeout || idleSocket.socket.isClosed()) {
+                    ConnectionManager.fastCloseSocket(idleSocket.socket);
+                } else {
+                    socket = idleSocket.socket;
+                }
+            }
+
+            return socket;
+        }
+
+        synchronized boolean returnIdleSocket(Socket socket) {
+
+            boolean returned = false;
+            if (nonPersistentUntil < System.currentTimeMillis() && idleSockets.size() < maximumIdleConnectionsPerPeer) {
+                idleSockets.addLast(new IdleSocket(socket));
+                returned = true;
+            }
+
+            return returned;
+        }
+
+        // This returns true if the peer has no sockets and no requests, so it can be removed from the map.
+        synchronized boolean closeExpiredSockets(long currentTimestamp) {
+
+            while (!idleSockets.isEmpty() && idleSockets.peekFirst().timestamp < currentTimestamp - idleTimeout) {
+                ConnectionManager.fastCloseSocket(idleSockets.pollFirst().socket);
+            }
+
+            return idleSockets.isEmpty() && requestsInProgress == 0 && nonPersistentUntil < currentTimestamp;
+        }
+
+        synchronized int numberOfIdleSockets() {
+            return idleSockets.size();
+        }
+    }
+
+    private static class IdleSocket {
+
+        private final Socket socket;
+        private final long timestamp;
+
+        IdleSocket(Socket socket) {
+            this.socket = socket;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.messages.SerializedMessageObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// This is a cache of serialized response content for mesh responses that are expensive to build and are requested by
+// many nodes at the same frozen edge, such as the mesh, bootstrap, block-with-votes, and frozen-edge balance-list
+// responses. Entries are keyed by message type and request parameters, and the entire cache is cleared when the frozen
+// edge changes. Entries also expire one block duration after they are stored, so content that depends on anything
+// other than the frozen edge, such as the mesh, is at most one block duration stale, even when the frozen edge is not
+// advancing.
+public class ResponseCache {
+
+    private static final int maximumEntries = 200;
+
+    private static final Map<String, CachedContent> cache = new ConcurrentHashMap<>();
+    private static long frozenEdgeHeight = -1L;
+
+    private static final AtomicLong numberOfHits = new AtomicLong(0L);
+    private static final AtomicLong numberOfMisses = new AtomicLong(0L);
+
+    public static MessageObject content(MessageType responseType, String parameters,
+                                        Supplier<MessageObject> contentSupplier) {
+
+        // Clear the cache if the frozen edge has changed since the entries were stored.
+        long currentFrozenEdgeHeight = BlockManager.getFrozenEdgeHeight();
+        synchronized (ResponseCache.class) {
+            if (frozenEdgeHeight != currentFrozenEdgeHeight) {
+                cache.clear();
+                frozenEdgeHeight = currentFrozenEdgeHeight;
+            }
+        }
+
+        // If two requests miss at the same time, both build the content. This is no worse than without the cache, and
+        // it avoids holding a lock while the content is built.
+        String key = responseType.getValue() + ":" + parameters;
+        CachedContent content = cache.get(key);
+        long currentTimestamp = System.currentTimeMillis();
+        byte[] bytes;
+        if (content == null || content.timestamp < currentTimestamp - Block.blockDuration) {
+            numberOfMisses.incrementAndGet();
+            bytes = contentSupplier.get().getBytes();
+            synchronized (ResponseCache.class) {
+                if (frozenEdgeHeight == currentFrozenEdgeHeight) {
+                    if (cache.size() >= maximumEntries) {
+                        removeExpiredEntries(currentTimestamp);
+                    }
+                    if (cache.size() < maximumEntries || cache.containsKey(key)) {
+                        cache.put(key, new CachedContent(bytes, currentTimestamp));
+                    }
+                }
+            }
+        } else {
+            numberOfHits.incrementAndGet();
+            bytes = content.bytes;
+        }
+
+        return new SerializedMessageObject(bytes);
+    }
+
+    private static void removeExpiredEntries(long currentTimestamp) {
+
+        cache.values().removeIf(content -> content.timestamp < currentTimestamp - Block.blockDuration);
+    }
+
+    public static long getNumberOfHits() {
+        return numberOfHits.get();
+    }
+
+    public static long getNumberOfMisses() {
+        return numberOfMisses.get();
+    }
+
+    public static String getStatusDescription() {
+
+        return "hits=" + numberOfHits.get() + ", misses=" + numberOfMisses.get() + ", entries=" + cache.size() +
+                ", frozen edge=" + frozenEdgeHeight;
+    }
+
+    private static class CachedContent {
+
+        private final byte[] bytes;
+        private final long timestamp;
+
+        CachedContent(byte[] bytes, long timestamp) {
+            this.bytes = bytes;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.PreferencesUtil;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Response lanes are admission control for incoming messages. Each message is assigned a lane by its type, and each lane
+// has its own limit on the number of messages processed at once and its own queue of messages waiting to be processed.
+// Consensus messages are cheap and time-critical, and bulk requests are expensive and can wait, so a node requesting
+// many blocks or balance lists uses only the capacity of the bulk lane and does not delay votes or new blocks. When a
+// lane's queue is full, or a message waits longer than the requester would wait for a response, the message is dropped
+// without a response.
+//
+// The limit and queue capacity of each lane are set with response_lane_<name>_threads and response_lane_<name>_queue.
+// The defaults are 64 and 1000 for the consensus lane, 16 and 200 for the standard lane, and 4 and 32 for the bulk
+// lane.
+//
+// Listeners with a thread for each connection wait on the lane in that thread with enter() and exit(). The selector
+// listener passes each message to the lane's own worker threads with execute().
+public class ResponseLane {
+
+    private static final long maximumWaitTime = 1000L;
+
+    private static final Set<MessageType> consensusTypes = new HashSet<>(Arrays.asList(MessageType.NewBlock9,
+            MessageType.BlockVote19, MessageType.NewVerifierVote21, MessageType.MissingBlockVoteRequest23,
+            MessageType.MissingBlockRequest25, MessageType.VerifierRemovalVote39, MessageType.MinimalBlock51));
+    private static final Set<MessageType> bulkTypes = new HashSet<>(Arrays.asList(MessageType.BlockRequest11,
+            MessageType.TransactionPoolRequest13, MessageType.MeshRequest15, MessageType.BootstrapRequestV2_35,
+            MessageType.BlockWithVotesRequest37, MessageType.FullMeshRequest41,
+            MessageType.FrozenEdgeBalanceListRequest45));
+
+    public static final ResponseLane consensus = new ResponseLane("consensus", 64, 1000);
+    public static final ResponseLane standard = new ResponseLane("standard", 16, 200);
+    public static final ResponseLane bulk = new ResponseLane("bulk", 4, 32);
+
+    private final String name;
+    private final int concurrencyLimit;
+    private final int queueCapacity;
+    private final Semaphore permits;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger waitingCount = new AtomicInteger(0);
+    private final AtomicLong admittedCount = new AtomicLong(0L);
+    private final AtomicLong droppedCount = new AtomicLong(0L);
+    private final AtomicLong totalWaitTime = new AtomicLong(0L);
+    private final AtomicLong maximumWaitTimeObserved = new AtomicLong(0L);
+
+    private ResponseLane(String name, int defaultConcurrencyLimit, int defaultQueueCapacity) {
+
+        this.name = name;
+        this.concurrencyLimit = Math.max(1, PreferencesUtil.getInt("response_lane_" + name + "_threads",
+                defaultConcurrencyLimit));
+        this.queueCapacity = Math.max(1, PreferencesUtil.getInt("response_lane_" + name + "_queue",
+                defaultQueueCapacity));
+        this.permits = new Semaphore(concurrencyLimit, true);
+
+        // The executor threads are created as they are needed, so a lane that is only used through enter() and
+        // exit() has no threads.
+        this.executor = new ThreadPoolExecutor(concurrencyLimit, concurrencyLimit, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ResponseLane-" + name + "-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static ResponseLane forType(MessageType type) {
+
+        ResponseLane lane;
+        if (consensusTypes.contains(type)) {
+            lane = consensus;
+        } else if (bulkTypes.contains(type)) {
+            lane = bulk;
+        } else {
+            lane = standard;
+        }
+
+        return lane;
+    }
+
+    // This waits for the lane to have capacity. If it returns true, the caller must call exit() after processing the
+    // message.
+    public boolean enter() {
+
+        boolean admitted = false;
+        if (waitingCount.incrementAndGet() <= queueCapacity) {
+            long startTimestamp = System.currentTimeMillis();
+            try {
+                admitted = permits.tryAcquire(maximumWaitTime, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (admitted) {
+                recordWait(System.currentTimeMillis() - startTimestamp);
+            }
+        }
+        waitingCount.decrementAndGet();
+
+        if (!admitted) {
+            droppedCount.incrementAndGet();
+        }
+
+        return admitted;
+    }
+
+    public void exit() {
+        permits.release();
+    }
+
+    // This runs the task on the lane's worker threads. It returns false if the lane's queue is full. A task that has
+    // waited longer than the maximum wait time when it starts is not run, and its fallback is run instead, on the same
+    // thread.
+    public boolean execute(Runnable task, Runnable fallback) {
+
+        long submittedTimestamp = System.currentTimeMillis();
+        boolean accepted = true;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long waitTime = System.currentTimeMillis() - submittedTimestamp;
+                    if (waitTime > maximumWaitTime) {
+                        droppedCount.incrementAndGet();
+                        fallback.run();
+                    } else {
+                        recordWait(waitTime);
+                        task.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedCount.incrementAndGet();
+            accepted = false;
+        }
+
+        return accepted;
+    }
+
+    private void recordWait(long waitTime) {
+
+        admittedCount.incrementAndGet();
+        totalWaitTime.addAndGet(waitTime);
+        long previousMaximum;
+        while (waitTime > (previousMaximum = maximumWaitTimeObserved.get()) &&
+                !maximumWaitTimeObserved.compareAndSet(previousMaximum, waitTime)) { }
+    }
+
+    private String getDescription() {
+
+        long admitted = admittedCount.get();
+        return name + " (limit=" + concurrencyLimit + ", queue=" + queueCapacity + ", active=" +
+                (concurrencyLimit - permits.availablePermits() + executor.getActiveCount()) + ", waiting=" +
+                (waitingCount.get() + executor.getQueue().size()) + ", admitted=" + admitted + ", dropped=" +
+                droppedCount.get() + ", average wait=" + (admitted == 0 ? 0 : totalWaitTime.get() / admitted) +
+                "ms, maximum wait=" + maximumWaitTimeObserved.get() + "ms)";
+    }
+
+    public static String getStatusDescription() {
+
+        return consensus.getDescription() + ", " + standard.getDescription() + ", " + bulk.getDescription();
+    }
+}
@@ -0,0 +1,386 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.PreferencesUtil;
+import co.nyzo.verifier.util.PrintUtil;
+import co.nyzo.verifier.util.UpdateUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// This is a non-blocking alternative to the thread-per-connection TCP listener in MeshListener. A small, fixed set of
+// I/O loops accepts connections and reads and writes bytes, and the worker threads of the response lanes produce
+// responses with MeshListener.response(). The number of threads does not change with the number of concurrent
+// connections. The connection limits are the same as for the thread-per-connection listener; they are applied in
+// MeshListener.acceptConnection().
+//
+// After a response is written, the connection is kept open for another request until the keep-alive timeout elapses.
+// An idle connection still counts toward the connection limits until it is closed, so a client cannot hold more open
+// connections by leaving them idle than by keeping them busy. Clients that send one request per connection close the
+// connection after reading the response, as before.
+public class SelectorMeshListener {
+
+    private static final int numberOfIoThreads = Math.max(1, PreferencesUtil.getInt("mesh_listener_io_threads", 2));
+
+    // The read timeout matches the socket timeout of the thread-per-connection listener. The write timeout only
+    // applies to responses that the remote end is not reading.
+    private static final long readTimeout = 300L;
+    private static final long writeTimeout = 3000L;
+    private static final long selectInterval = 50L;
+    private static final long keepAliveTimeout = Math.max(0L,
+            PreferencesUtil.getLong("mesh_listener_keep_alive_timeout", 10000L));
+
+    private static IoLoop[] ioLoops = null;
+    private static final AtomicInteger ioLoopIndex = new AtomicInteger(0);
+
+    // This method blocks until the verifier terminates. The first I/O loop, which also accepts connections, runs on the
+    // calling thread.
+    public static void run(int port) throws IOException {
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        MeshListener.setPortTcp(serverChannel.socket().getLocalPort());
+
+        IoLoop[] ioLoops = new IoLoop[numberOfIoThreads];
+        for (int i = 0; i < numberOfIoThreads; i++) {
+            ioLoops[i] = new IoLoop(Selector.open());
+        }
+        SelectorMeshListener.ioLoops = ioLoops;
+        serverChannel.register(ioLoops[0].selector, SelectionKey.OP_ACCEPT);
+
+        for (int i = 1; i < numberOfIoThreads; i++) {
+            IoLoop ioLoop = ioLoops[i];
+            // The additional loops are daemon threads, so the listener's lifetime is that of the calling thread.
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ioLoop.run();
+                }
+            }, "MeshListener-selectorTcp-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        ioLoops[0].run();
+
+        try {
+            serverChannel.close();
+        } catch (Exception ignored) { }
+    }
+
+    public static String getDescription() {
+
+        return "I/O threads: " + numberOfIoThreads + ", keep-alive: " + keepAliveTimeout + "ms";
+    }
+
+    private static void accept(ServerSocketChannel serverChannel) {
+
+        SocketChannel channel;
+        while ((channel = acceptChannel(serverChannel)) != null) {
+
+            byte[] ipAddress = channel.socket().getInetAddress().getAddress();
+            if (MeshListener.acceptConnection(ipAddress)) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                    // Distribute the connections among the I/O loops.
+                    IoLoop ioLoop = ioLoops[Math.abs(ioLoopIndex.getAndIncrement() % ioLoops.length)];
+                    Connection connection = new Connection(channel, ipAddress, ioLoop);
+                    ioLoop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            ioLoop.register(connection);
+                        }
+                    });
+                } catch (Exception e) {
+                    MeshListener.releaseConnection(ipAddress);
+                    fastClose(channel);
+                }
+            } else {
+                fastClose(channel);
+            }
+        }
+    }
+
+    private static SocketChannel acceptChannel(ServerSocketChannel serverChannel) {
+
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+        } catch (Exception ignored) { }
+
+        return channel;
+    }
+
+    private static void respond(Connection connection) {
+
+        // This runs on a worker thread. The message is processed exactly as it is for the thread-per-connection
+        // listener, and the response bytes are passed back to the connection's I/O loop for writing.
+        ByteBuffer response = null;
+        try {
+            Message message = Message.fromBytes(connection.input.array(), connection.ipAddress, false);
+            Message responseMessage = MeshListener.tcpResponse(message);
+            if (responseMessage != null) {
+                response = ByteBuffer.wrap(responseMessage.getBytesForTransmission());
+            }
+        } catch (Exception reportOnly) {
+            System.err.println("exception producing selector mesh listener response: " +
+                    PrintUtil.printException(reportOnly));
+        }
+
+        ByteBuffer output = response;
+        connection.ioLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (output == null) {
+                    connection.close();
+                } else {
+                    connection.startWriting(output);
+                }
+            }
+        });
+    }
+
+    private static void fastClose(SocketChannel channel) {
+
+        try {
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            channel.close();
+        } catch (Exception ignored) { }
+    }
+
+    private static class IoLoop {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        // Tasks are run on the loop thread, so all registration and interest changes happen there.
+        void execute(Runnable task) {
+            tasks.offer(task);
+            selector.wakeup();
+        }
+
+        void register(Connection connection) {
+
+            try {
+                connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.deadline = System.currentTimeMillis() + readTimeout;
+            } catch (Exception e) {
+                connection.close();
+            }
+        }
+
+        void run() {
+
+            while (!UpdateUtil.shouldTerminate()) {
+                try {
+                    selector.select(selectInterval);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                        } else if (key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        } else if (key.isWritable()) {
+                            ((Connection) key.attachment()).write();
+                        }
+                    }
+
+                    closeExpiredConnections();
+
+                } catch (Exception e) {
+                    System.err.println("exception in selector mesh listener loop: " + PrintUtil.printException(e));
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+
+            try {
+                selector.close();
+            } catch (Exception ignored) { }
+        }
+
+        private void closeExpiredConnections() {
+
+            long currentTime = System.currentTimeMillis();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    Connection connection = (Connection) key.attachment();
+                    if (connection.deadline < currentTime) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Connection {
+
+        private final SocketChannel channel;
+        private final byte[] ipAddress;
+        private final IoLoop ioLoop;
+        private final ByteBuffer lengthBuffer = ByteBuffer.allocate(FieldByteSize.messageLength);
+        private ByteBuffer input = null;
+        private ByteBuffer output = null;
+        private SelectionKey key = null;
+        private long deadline = Long.MAX_VALUE;
+        private boolean idle = false;
+        private boolean closed = false;
+
+        Connection(SocketChannel channel, byte[] ipAddress, IoLoop ioLoop) {
+            this.channel = channel;
+            this.ipAddress = ipAddress;
+            this.ioLoop = ioLoop;
+        }
+
+        void read() {
+
+            try {
+                // The first four bytes are the length of the message, including the length field. The message is
+                // read into an array sized to the remainder of the message.
+                if (input == null) {
+                    if (channel.read(lengthBuffer) < 0) {
+                        close();
+                    } else if (idle && lengthBuffer.position() > 0) {
+                        // This is the start of another request on a kept connection. The read timeout starts now.
+                        idle = false;
+                        deadline = System.currentTimeMillis() + readTimeout;
+                    }
+
+                    if (!closed && !lengthBuffer.hasRemaining()) {
+                        int messageLength = lengthBuffer.getInt(0);
+                        if (messageLength <= FieldByteSize.messageLength ||
+                                messageLength > Message.maximumMessageLength) {
+                            close();
+                        } else {
+                            input = ByteBuffer.allocate(messageLength - FieldByteSize.messageLength);
+                        }
+                    }
+                }
+
+                if (input != null && !closed) {
+                    if (channel.read(input) < 0) {
+                        close();
+                    } else if (!input.hasRemaining()) {
+                        // Stop watching the channel while the response is produced. The response is not subject to
+                        // a timeout, as with the thread-per-connection listener. The message is passed to the lane
+                        // for its type, which is read from the type field that follows the timestamp, and the
+                        // connection is closed without a response if the lane is full or the message waits too long.
+                        key.interestOps(0);
+                        deadline = Long.MAX_VALUE;
+                        ResponseLane lane = ResponseLane.forType(input.capacity() < FieldByteSize.timestamp +
+                                FieldByteSize.messageType ? MessageType.Invalid0 :
+                                MessageType.forValue(input.getShort(FieldByteSize.timestamp) & 0xffff));
+                        if (!lane.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                respond(Connection.this);
+                            }
+                        }, new Runnable() {
+                            @Override
+                            public void run() {
+                                ioLoop.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        close();
+                                    }
+                                });
+                            }
+                        })) {
+                            close();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                close();
+            }
+        }
+
+        void startWriting(ByteBuffer output) {
+
+            if (!closed) {
+                this.output = output;
+                deadline = System.currentTimeMillis() + writeTimeout;
+                write();
+
+                // If the response was not written completely, wait for the channel to accept the rest. If it was,
+                // write() has already closed the connection or prepared it for the next request.
+                if (!closed && this.output != null && this.output.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        void write() {
+
+            try {
+                channel.write(output);
+                if (!output.hasRemaining()) {
+                    if (keepAliveTimeout > 0L) {
+                        keepAlive();
+                    } else {
+                        close();
+                    }
+                }
+            } catch (Exception e) {
+                close();
+            }
+        }
+
+        private void keepAlive() {
+
+            // Prepare to read the next request. The connection remains counted toward the limits while it is idle.
+            lengthBuffer.clear();
+            input = null;
+            output = null;
+            idle = true;
+            deadline = System.currentTimeMillis() + keepAliveTimeout;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() {
+
+            if (!closed) {
+                closed = true;
+                if (key != null) {
+                    key.cancel();
+                }
+                try {
+                    channel.close();
+                } catch (Exception ignored) { }
+
+                MeshListener.releaseConnection(ipAddress);
+            }
+        }
+    }
+}
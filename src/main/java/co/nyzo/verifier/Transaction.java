@@ -58,6 +58,13 @@ public class Transaction implements MessageObject {
 
     private SignatureState signatureState = SignatureState.Undetermined;
 
+    // The serialized forms and byte size are computed when first requested and then reused. The bytes for signing do
+    // not include cycle signatures, so they are stored for all types. The bytes for transmission and the byte size
+    // are not stored for cycle transactions, because their signatures are added and removed after creation.
+    private volatile byte[] bytesForSigning = null;
+    private volatile byte[] bytes = null;
+    private volatile int byteSize = -1;
+
     public static final Comparator<ByteBuffer> identifierComparator = new Comparator<ByteBuffer>() {
         @Override
         public int compare(ByteBuffer buffer1, ByteBuffer buffer2) {
@@ -336,7 +343,16 @@ public class Transaction implements MessageObject {
 
     @Override
     public int getByteSize() {
-        return getByteSize(false);
+
+        int byteSize = this.byteSize;
+        if (byteSize < 0) {
+            byteSize = getByteSize(false);
+            if (type != typeCycle) {
+                this.byteSize = byteSize;
+            }
+        }
+
+        return byteSize;
     }
 
     public int getByteSize(boolean forSigning) {
@@ -401,6 +417,21 @@ public class Transaction implements MessageObject {
 
     public byte[] getBytes(boolean forSigning) {
 
+        byte[] bytes = forSigning ? this.bytesForSigning : this.bytes;
+        if (bytes == null) {
+            bytes = serialize(forSigning);
+            if (forSigning) {
+                this.bytesForSigning = bytes;
+            } else if (type != typeCycle) {
+                this.bytes = bytes;
+            }
+        }
+
+        return bytes;
+    }
+
+    private byte[] serialize(boolean forSigning) {
+
         byte[] array = new byte[getByteSize(forSigning)];
 
         ByteBuffer buffer = ByteBuffer.wrap(array);
@@ -433,7 +464,8 @@ public class Transaction implements MessageObject {
             // blockchain at a later date by replacing it with its double-SHA-256 without compromising the signature
             // integrity.
             if (forSigning) {
-                buffer.put(HashUtil.doubleSHA256(senderData));
+                HashUtil.doubleSHA256(senderData, 0, senderData.length, array, buffer.position());
+                buffer.position(buffer.position() + HashUtil.hashLength);
             } else {
                 buffer.put((byte) senderData.length);
                 buffer.put(senderData);
@@ -740,9 +772,9 @@ public class Transaction implements MessageObject {
 
             // Produce a warning for transactions that appear to be balance-list spam.
             if (valid) {
-                Map<ByteBuffer, Long> balanceMap = BalanceListManager.getFrozenEdgeBalanceMap();
-                if (balanceMap != null) {
-                    if (BalanceManager.transactionSpamsBalanceList(balanceMap, this,
+                BalanceList frozenEdgeList = BalanceListManager.getFrozenEdgeList();
+                if (frozenEdgeList != null) {
+                    if (BalanceManager.transactionSpamsBalanceList(frozenEdgeList, this,
                             Collections.singletonList(this))) {
 
                         if (getAmount() < BalanceManager.minimumPreferredBalance) {
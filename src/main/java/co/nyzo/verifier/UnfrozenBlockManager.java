@@ -129,6 +129,7 @@ public class UnfrozenBlockManager {
 
                     blocksAtHeight.put(ByteBuffer.wrap(block.getHash()), block);
                     registeredBlock = true;
+                    VerifierMainTrigger.signal(VerifierMainTrigger.Event.Block);
 
                     // Only keep the best 10 blocks at any level. For stability in the list, consider the just-added
                     // block to be the highest-scored, and only remove another block if it has a higher score than the
@@ -47,6 +47,8 @@ public class Verifier {
     private static final long reinitializationIntervalIdle = 1000L * 60L * 20L;  // 20 minutes
     private static long lastReinitializationTimestamp = 0L;
 
+    private static final long voteCleanupInterval = 1000L;  // 1 second
+
     private static final long backfillInterval = 1000L * 60L * 2L;  // 2 minutes
     private static long lastBackfillTimestamp = 0L;
 
@@ -385,19 +387,33 @@ public class Verifier {
 
     private static void verifierMain() {
 
+        // The loop runs a pass whenever a vote or block is registered or the frozen edge advances, as signaled through
+        // the trigger, and at least once per timer interval. The work that advances consensus runs on every pass. The
+        // maintenance work runs only on timer passes, and some of it has a longer interval of its own.
         long lastMeshMaintenanceTimestamp = 0L;
         long lastVoteRequestTimestamp = 0L;
+        long lastTimerPassTimestamp = 0L;
+        long lastVoteCleanupTimestamp = 0L;
+        int events = 0;
         while (!UpdateUtil.shouldTerminate()) {
 
             MessageQueue.blockThisThreadUntilClear();
 
-            long sleepTime = 300L;
+            boolean timerPass = lastTimerPassTimestamp <= System.currentTimeMillis() -
+                    VerifierMainTrigger.timerInterval;
+            if (timerPass) {
+                lastTimerPassTimestamp = System.currentTimeMillis();
+            }
+
+            boolean frozenEdgeChanged = false;
             try {
                 // Only run the active verifier if connected to the mesh.
                 if (NodeManager.connectedToMesh()) {
 
                     // Perform setup tasks for the NodeManager.
-                    NodeManager.updateActiveVerifiersAndRemoveOldNodes();
+                    if (timerPass) {
+                        NodeManager.updateActiveVerifiersAndRemoveOldNodes();
+                    }
 
                     // Try to extend the frozen edge. We extend the frozen edge if the minimum verification interval
                     // has passed and if the edge is open.
@@ -446,18 +462,25 @@ public class Verifier {
 
                     // Try to freeze blocks.
                     boolean frozeBlock = UnfrozenBlockManager.attemptToFreezeBlock();
-                    if (!frozeBlock) {
+                    if (frozeBlock && VerifierMainTrigger.includes(events, VerifierMainTrigger.Event.Vote)) {
+                        VerifierMainTrigger.registerFreeze();
+                    } else if (!frozeBlock && timerPass) {
                         UnfrozenBlockManager.attemptToFreezeChain();
                     }
 
-                    // Remove old votes from the vote managers.
-                    BlockVoteManager.removeOldVotes();
-                    NewVerifierVoteManager.removeOldVotes();
-                    VerifierRemovalManager.removeOldVotes();
+                    // Remove old votes from the vote managers. The retention windows of these managers are measured
+                    // in blocks, so this does not need to happen more than once per second.
+                    if (lastVoteCleanupTimestamp < System.currentTimeMillis() - voteCleanupInterval) {
+                        lastVoteCleanupTimestamp = System.currentTimeMillis();
+                        BlockVoteManager.removeOldVotes();
+                        NewVerifierVoteManager.removeOldVotes();
+                        VerifierRemovalManager.removeOldVotes();
+                    }
 
                     // Vote requests and block requests should only happen if this verifier is in or near the cycle.
-                    // Otherwise, other verifiers might blacklist this verifier.
-                    if (inCycle() || isTopNewVerifier()) {
+                    // Otherwise, other verifiers might blacklist this verifier. These are performed only on timer
+                    // passes so that they are not sent more often than they were when the loop ran on a fixed sleep.
+                    if (timerPass && (inCycle() || isTopNewVerifier())) {
 
                         // Request any frozen blocks that appear to be missing.
                         BlockVoteManager.requestMissingFrozenBlocks();
@@ -479,7 +502,7 @@ public class Verifier {
                                 reinitializeFrozenEdge();
                             }
                         }
-                    } else if (alwaysTrackBlockchain) {
+                    } else if (timerPass && alwaysTrackBlockchain) {
 
                         // In-cycle verifiers do not allow other verifiers to request missing blocks or votes, as they
                         // would use considerable bandwidth to service such requests. Instead, they provide frozen
@@ -487,7 +510,7 @@ public class Verifier {
                         // by all queue verifiers. It is now used only when specified.
                         requestBlockWithVotes();
 
-                    } else if (lastReinitializationTimestamp < System.currentTimeMillis() -
+                    } else if (timerPass && lastReinitializationTimestamp < System.currentTimeMillis() -
                             reinitializationIntervalIdle) {
                         lastReinitializationTimestamp = System.currentTimeMillis();
 
@@ -609,9 +632,9 @@ public class Verifier {
                         // missing votes.
                         lastBlockFrozenTimestamp = System.currentTimeMillis();
 
-                        // Since the frozen edge height has changed, reduce the sleep time to zero to allow the next
-                        // block to be produced as quickly as possible.
-                        sleepTime = 0L;
+                        // Since the frozen edge height has changed, skip the wait to allow the next block to be
+                        // produced as quickly as possible.
+                        frozenEdgeChanged = true;
                     }
                 }
 
@@ -619,12 +642,15 @@ public class Verifier {
                 LogUtil.println("verifier main exception: " + PrintUtil.printException(reportOnly));
             }
 
-            // Sleep for a short time to avoid consuming too much computational power.
-            if (sleepTime > 0L) {
-                try {
-                    Thread.sleep(sleepTime);
-                } catch (Exception ignored) {
-                }
+            // Wait for an event or for the next timer pass to avoid consuming too much computational power. If the
+            // frozen edge changed, the next pass starts immediately. The pending events, which include the frozen-edge
+            // event raised by this pass, are taken for that pass without waiting, so they do not cause another pass.
+            if (frozenEdgeChanged) {
+                events = VerifierMainTrigger.awaitEvents(0L);
+            } else {
+                long timeUntilTimerPass = lastTimerPassTimestamp + VerifierMainTrigger.timerInterval -
+                        System.currentTimeMillis();
+                events = VerifierMainTrigger.awaitEvents(timeUntilTimerPass);
             }
         }
     }
@@ -714,8 +740,7 @@ public class Verifier {
                 // Remove any balance-list spam transactions. To avoid rejection of incoming blocks, these
                 // transactions are not currently removed from those blocks, but they are removed from blocks
                 // produced locally.
-                Map<ByteBuffer, Long> balanceMap = BalanceManager.makeBalanceMap(previousBalanceList);
-                approvedTransactions = BalanceManager.transactionsWithoutBalanceListSpam(balanceMap,
+                approvedTransactions = BalanceManager.transactionsWithoutBalanceListSpam(previousBalanceList,
                         approvedTransactions);
 
                 // Make the balance list for the new block. If the balance list is good, make the block.
@@ -743,6 +768,11 @@ public class Verifier {
         return SignatureUtil.signBytes(bytesToSign, privateSeed);
     }
 
+    public static byte[] sign(byte[] bytesToSign, int offset, int length) {
+
+        return SignatureUtil.signBytes(bytesToSign, offset, length, privateSeed);
+    }
+
     public static synchronized void registerMessage() {
 
         recentMessageTimestamps[recentMessageTimestampsIndex] = System.currentTimeMillis();
@@ -0,0 +1,127 @@
+package co.nyzo.verifier;
+
+import co.nyzo.verifier.util.PreferencesUtil;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// This class wakes the verifier main loop when something happens that the loop may need to act on. Previously, the loop
+// slept for 300ms between passes, so a vote that brought a block over the freezing threshold could wait most of that
+// time before the block was frozen. Now, the loop waits on this class, and it is woken immediately when a vote is
+// registered, a block is registered, or the frozen edge advances. Events that arrive while a pass is running are
+// combined into the next pass. The timer interval bounds the wait for time-based work when no events arrive.
+public class VerifierMainTrigger {
+
+    public enum Event {
+        Vote(1),
+        Block(2),
+        FrozenEdge(4);
+
+        private final int flag;
+
+        Event(int flag) {
+            this.flag = flag;
+        }
+    }
+
+    public static final long timerInterval = 300L;
+
+    // This is the minimum time between the starts of passes woken by events. Votes arrive from every verifier in the
+    // cycle, and this keeps a burst of votes from causing a burst of passes. The frozen-edge event is not limited.
+    private static final long minimumEventInterval = Math.max(0L,
+            PreferencesUtil.getLong("verifier_main_minimum_event_interval", 20L));
+
+    private static final Object monitor = new Object();
+    private static int pendingEvents = 0;
+    private static long pendingEventTimestamp = 0L;
+
+    private static long currentPassEventTimestamp = 0L;
+    private static long lastEventPassTimestamp = 0L;
+
+    private static final AtomicLong numberOfFreezeLatencies = new AtomicLong(0L);
+    private static final AtomicLong totalFreezeLatency = new AtomicLong(0L);
+    private static final AtomicLong maximumFreezeLatency = new AtomicLong(0L);
+    private static volatile long lastFreezeLatency = -1L;
+
+    public static void signal(Event event) {
+
+        synchronized (monitor) {
+            if (pendingEvents == 0) {
+                pendingEventTimestamp = System.currentTimeMillis();
+            }
+            pendingEvents |= event.flag;
+            monitor.notifyAll();
+        }
+    }
+
+    // This is called only by the main loop. It returns when events are pending or when the timeout has elapsed, and it
+    // returns the pending events as a combination of flags, clearing them for the next pass. With a timeout of zero, it
+    // takes the pending events without waiting.
+    static int awaitEvents(long timeout) {
+
+        int events;
+        synchronized (monitor) {
+            long waitEndTimestamp = System.currentTimeMillis() + timeout;
+            long currentTimestamp;
+            while ((currentTimestamp = System.currentTimeMillis()) < waitEndTimestamp && !shouldStartEventPass()) {
+                long waitTime = waitEndTimestamp - currentTimestamp;
+                if (pendingEvents != 0) {
+                    waitTime = Math.min(waitTime, lastEventPassTimestamp + minimumEventInterval - currentTimestamp);
+                }
+
+                try {
+                    monitor.wait(Math.max(1L, waitTime));
+                } catch (InterruptedException ignored) {
+                    waitEndTimestamp = 0L;
+                }
+            }
+
+            events = pendingEvents;
+            currentPassEventTimestamp = events == 0 ? 0L : pendingEventTimestamp;
+            if (events != 0) {
+                lastEventPassTimestamp = System.currentTimeMillis();
+            }
+            pendingEvents = 0;
+        }
+
+        return events;
+    }
+
+    private static boolean shouldStartEventPass() {
+
+        return (pendingEvents & Event.FrozenEdge.flag) != 0 || (pendingEvents != 0 &&
+                System.currentTimeMillis() >= lastEventPassTimestamp + minimumEventInterval);
+    }
+
+    static boolean includes(int events, Event event) {
+
+        return (events & event.flag) != 0;
+    }
+
+    // This is called by the main loop when a pass woken by a vote freezes a block. The latency is measured from the
+    // first event of the pass, which is no earlier than the vote that brought the block over the threshold.
+    static void registerFreeze() {
+
+        long eventTimestamp;
+        synchronized (monitor) {
+            eventTimestamp = currentPassEventTimestamp;
+        }
+
+        if (eventTimestamp > 0L) {
+            long latency = System.currentTimeMillis() - eventTimestamp;
+            lastFreezeLatency = latency;
+            numberOfFreezeLatencies.incrementAndGet();
+            totalFreezeLatency.addAndGet(latency);
+            long previousMaximum;
+            while (latency > (previousMaximum = maximumFreezeLatency.get()) &&
+                    !maximumFreezeLatency.compareAndSet(previousMaximum, latency)) { }
+        }
+    }
+
+    public static String getStatusDescription() {
+
+        long count = numberOfFreezeLatencies.get();
+        return "vote-to-freeze: last=" + (lastFreezeLatency < 0 ? "-" : lastFreezeLatency + "ms") + ", average=" +
+                (count == 0 ? "-" : totalFreezeLatency.get() / count + "ms") + ", maximum=" +
+                (count == 0 ? "-" : maximumFreezeLatency.get() + "ms") + ", count=" + count;
+    }
+}
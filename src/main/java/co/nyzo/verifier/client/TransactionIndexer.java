@@ -10,6 +10,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -18,11 +19,36 @@ public class TransactionIndexer {
     private static final String activeKey = "transaction_indexer_active";
     private static final boolean indexingActive = PreferencesUtil.getBoolean(activeKey, true);
 
+    // If no blocks have been indexed, indexing starts at this height. If this value is not set, indexing starts at the
+    // frozen edge.
+    private static final String startHeightKey = "transaction_indexer_start_height";
+    private static final long startHeight = PreferencesUtil.getLong(startHeightKey, -1L);
+
     private static final File directory = new File(Verifier.dataRootDirectory, "indexed_transactions");
     private static final int indexEntrySize = FieldByteSize.timestamp + FieldByteSize.transactionAmount +
             13;  // 13 == 8 bytes of sender data + 1 byte for sender/receiver + 4 bytes for transaction offset in file
     public static final int maximumTransactionsPerQuery = 100;
 
+    // The index for each account is stored in a stack of sorted runs and a segment file. Each run contains entries
+    // ordered on ascending timestamp, so it can be searched by timestamp, and block height through the timestamp of the
+    // block. The index file is the bottom run, and run files 1, 2, ... are stacked on top of it, each newer and smaller
+    // than the one below. New entries are appended to the segment file. The merge thread periodically sorts the segment
+    // into a new run on top of the stack, and then merges the top run into the run below while the top run is at least
+    // 1/runSizeRatio of its size. Run sizes therefore decrease geometrically, a pass only rewrites the recent runs, and
+    // each entry is rewritten a number of times logarithmic in the size of the index. Queries read the segment and all
+    // runs, so entries are visible as soon as they are appended. All writes for an account are made while holding the
+    // lock for the account.
+    private static final long segmentMergeInterval = 10000L;
+    private static final int runSizeRatio = 4;
+    private static final int readChunkEntries = 128;
+    private static final Set<ByteBuffer> accountsWithSegments = ConcurrentHashMap.newKeySet();
+    private static final Object[] accountLocks = new Object[64];
+    static {
+        for (int i = 0; i < accountLocks.length; i++) {
+            accountLocks[i] = new Object();
+        }
+    }
+
     private static final AtomicBoolean alive = new AtomicBoolean(false);
 
     private static final AtomicLong lastHeightIndexed = new AtomicLong(-1L);
@@ -37,22 +63,29 @@ public class TransactionIndexer {
                 public void run() {
 
                     while (!UpdateUtil.shouldTerminate()) {
+                        boolean indexedBlock = false;
                         try {
-                            // Sleep for 3 seconds.
-                            ThreadUtil.sleep(3000L);
-
-                            // If the last height indexed is not set, try to load it from the coverage file.
+                            // If the last height indexed is not set, try to load it from the coverage file. If the
+                            // coverage file is not available, use the start height from the preferences.
                             if (lastHeightIndexed.get() < 0) {
                                 lastHeightIndexed.set(getLastHeightFromCoverageFile());
+                                if (lastHeightIndexed.get() < 0 && startHeight >= 0) {
+                                    lastHeightIndexed.set(startHeight - 1L);
+                                }
                             }
 
                             // Only try to get a block if the frozen edge is higher than the last block indexed.
                             if (BlockManager.getFrozenEdgeHeight() > lastHeightIndexed.get()) {
                                 // Get one block to index. If the last block indexed is within 100 blocks of the frozen
-                                // edge, try to get the block at the next height.
+                                // edge, try to get the block at the next height. Otherwise, if indexing has started,
+                                // try to get the block at the next height from the historical files, so that gaps are
+                                // filled when the blocks are available.
                                 Block block = null;
+                                long nextHeight = lastHeightIndexed.get() + 1L;
                                 if (lastHeightIndexed.get() > BlockManager.getFrozenEdgeHeight() - 100L) {
-                                    block = BlockManager.frozenBlockForHeight(lastHeightIndexed.get() + 1);
+                                    block = BlockManager.frozenBlockForHeight(nextHeight);
+                                } else if (lastHeightIndexed.get() >= 0L || startHeight >= 0L) {
+                                    block = HistoricalBlockManager.blockForHeight(nextHeight);
                                 }
 
                                 // If a block has not yet been determined for indexing, get the frozen edge.
@@ -64,17 +97,45 @@ public class TransactionIndexer {
                                 if (block != null) {
                                     indexTransactionsForBlock(block);
                                     lastHeightIndexed.set(block.getBlockHeight());
+                                    indexedBlock = true;
                                 }
                             }
                         } catch (Exception e) {
                             LogUtil.println("TransactionIndexer: exception in outer thread" +
                                     PrintUtil.printException(e));
                         }
+
+                        // Only sleep when no block was indexed. This allows the indexer to catch up quickly.
+                        if (!indexedBlock) {
+                            ThreadUtil.sleep(3000L);
+                        }
                     }
 
                     alive.set(false);
                 }
-            }).start();
+            }, "TransactionIndexer").start();
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+
+                    // Segment files may remain from a previous run.
+                    addAccountsWithSegmentFiles();
+
+                    while (!UpdateUtil.shouldTerminate()) {
+                        ThreadUtil.sleep(segmentMergeInterval);
+                        try {
+                            for (ByteBuffer identifier : new ArrayList<>(accountsWithSegments)) {
+                                accountsWithSegments.remove(identifier);
+                                mergeSegmentForAccount(identifier.array());
+                            }
+                        } catch (Exception e) {
+                            LogUtil.println("TransactionIndexer: exception in merge thread" +
+                                    PrintUtil.printException(e));
+                        }
+                    }
+                }
+            }, "TransactionIndexer-merge").start();
         } else {
             LogUtil.println("TransactionIndexer: not starting");
         }
@@ -85,27 +146,34 @@ public class TransactionIndexer {
             // Ensure the directory exists.
             directory.mkdirs();
 
-            // Write all transactions to the index files for both sender and receiver.
+            // Write all transactions to the list files for both sender and receiver, and collect the index entries for
+            // each account.
+            Map<ByteBuffer, List<byte[]>> accountToEntriesMap = new LinkedHashMap<>();
             for (Transaction transaction : block.getTransactions()) {
                 if (transaction.getType() == Transaction.typeStandard) {
                     // Write the transaction to the sender file.
                     int fileOffsetSender = writeTransactionToList(transaction,
                             listFileForAccount(transaction.getSenderIdentifier()));
                     if (fileOffsetSender >= 0) {
-                        writeTransactionToIndex(transaction, indexFileForAccount(transaction.getSenderIdentifier()),
-                                true, fileOffsetSender);
+                        addEntry(accountToEntriesMap, transaction.getSenderIdentifier(),
+                                transactionIndexEntry(transaction, true, fileOffsetSender));
                     }
 
                     // Write the transaction to the receiver file.
                     int fileOffsetReceiver = writeTransactionToList(transaction,
                             listFileForAccount(transaction.getReceiverIdentifier()));
                     if (fileOffsetReceiver >= 0) {
-                        writeTransactionToIndex(transaction, indexFileForAccount(transaction.getReceiverIdentifier()),
-                                false, fileOffsetReceiver);
+                        addEntry(accountToEntriesMap, transaction.getReceiverIdentifier(),
+                                transactionIndexEntry(transaction, false, fileOffsetReceiver));
                     }
                 }
             }
 
+            // Write the index entries for each account.
+            for (ByteBuffer identifier : accountToEntriesMap.keySet()) {
+                writeEntriesToIndex(identifier.array(), accountToEntriesMap.get(identifier));
+            }
+
             // Write the block height to the block coverage file.
             addHeightToCoverageFile(block.getBlockHeight());
         }
@@ -148,54 +216,45 @@ public class TransactionIndexer {
                     BlockManager.startTimestampForHeight(maximumBlockHeight + 1L) - 1L);  // end of the block
         }
 
-        // TODO: When a maximum timestamp is specified, do a binary search to find the appropriate starting position for
-        // TODO: reading the file. Also, return the minimum timestamp scanned in the file to allow for paging behavior
-        // TODO: more precise than allowed by only the transactions returned. Finally, impose a maximum work in addition
-        // TODO: to the maximum result size. When an account has millions of transactions, this will be necessary for
-        // TODO: limiting query burden when filtering on the sender-data prefix.
+        // TODO: Return the minimum timestamp scanned in the file to allow for paging behavior more precise than allowed
+        // TODO: by only the transactions returned. Also, impose a maximum work in addition to the maximum result size.
+        // TODO: When an account has millions of transactions, this will be necessary for limiting query burden when
+        // TODO: filtering on the sender-data prefix.
 
         List<Transaction> transactions = new ArrayList<>();
-        RandomAccessFile indexFileReader = null;
         RandomAccessFile listFileReader = null;
         try {
-            // Get the list of offsets from the index file, starting at the end of the file. This will return the
-            // most recent transactions first.
-            List<Integer> offsets = new ArrayList<>();
-            indexFileReader = new RandomAccessFile(indexFileForAccount(accountIdentifier), "r");
-            long filePosition = indexFileReader.length() - indexEntrySize;
-            while (filePosition >= 0 && offsets.size() < maximumTransactionsPerQuery) {
-
-                // Seek and read the index information.
-                indexFileReader.seek(filePosition);
-                long timestamp = indexFileReader.readLong();
-                long amount = indexFileReader.readLong();
-                byte[] senderData = Message.getByteArray(indexFileReader, 8);
-                boolean isSender = indexFileReader.readBoolean();
-                int offset = indexFileReader.readInt();
-
-                // Check the sender/receiver value.
-                if ((acceptSender && isSender) || (acceptReceiver && !isSender)) {
-
-                    // Check the timestamp.
-                    if (timestamp >= minimumTimestamp && timestamp <= maximumTimestamp) {
-
-                        // Check the sender-data prefix.
-                        boolean isPrefixMatch = true;
-                        for (int i = 0; i < Math.min(searchPrefix.length, senderData.length) && isPrefixMatch; i++) {
-                            isPrefixMatch = searchPrefix[i] == senderData[i];
-                        }
-
-                        // If the prefix matches, store the offset.
-                        if (isPrefixMatch) {
-                            offsets.add(offset);
-                        }
-                    }
+            // Get the matching entries from the segment file and the runs. The files are read from newest to oldest.
+            // Merges only move entries to older runs, and a merged run is written before the newer run is deleted, so
+            // an entry that moves during the query is read from either its old or its new location. Duplicates are
+            // removed below.
+            List<byte[]> entries = new ArrayList<>();
+            for (byte[] entry : readEntries(segmentFileForAccount(accountIdentifier))) {
+                if (entryMatches(entry, acceptSender, acceptReceiver, minimumTimestamp, maximumTimestamp,
+                        searchPrefix)) {
+                    entries.add(entry);
                 }
+            }
+            for (int position = numberOfRuns(accountIdentifier) - 1; position >= 0; position--) {
+                addMatchingIndexEntries(runFileForAccount(accountIdentifier, position), acceptSender, acceptReceiver,
+                        minimumTimestamp, maximumTimestamp, searchPrefix, entries);
+            }
 
-                // Calculate the new file position, stepping back one record.
-                filePosition = indexFileReader.getFilePointer() - indexEntrySize * 2;
+            // Order the entries on descending timestamp. This returns the most recent transactions first. Then, get the
+            // list offsets of the distinct entries.
+            entries.sort(new Comparator<byte[]>() {
+                @Override
+                public int compare(byte[] entry1, byte[] entry2) {
+                    return Long.compare(entryTimestamp(entry2), entryTimestamp(entry1));
+                }
+            });
+            Set<ByteBuffer> distinctEntries = new HashSet<>();
+            List<Integer> offsets = new ArrayList<>();
+            for (int i = 0; i < entries.size() && offsets.size() < maximumTransactionsPerQuery; i++) {
+                if (distinctEntries.add(ByteBuffer.wrap(entries.get(i)))) {
+                    offsets.add(ByteBuffer.wrap(entries.get(i)).getInt(indexEntrySize - 4));
+                }
             }
-            safeClose(indexFileReader);
 
             // Read the transactions from the list file.
             if (!offsets.isEmpty()) {
@@ -223,8 +282,7 @@ public class TransactionIndexer {
                     ConsoleColor.reset);
         }
 
-        // Close both files.
-        safeClose(indexFileReader);
+        // Close the list file.
         safeClose(listFileReader);
 
         return transactions;
@@ -249,83 +307,246 @@ public class TransactionIndexer {
         return offset;
     }
 
-    private static void writeTransactionToIndex(Transaction transaction, File file, boolean isSender, int fileOffset) {
+    private static void addEntry(Map<ByteBuffer, List<byte[]>> accountToEntriesMap, byte[] identifier,
+                                 byte[] entry) {
 
-        // If the index file exists, rewrite it with the new entry.
-        if (file.exists()) {
-            RandomAccessFile fileReader = null;
-            RandomAccessFile fileWriter = null;
-            File temporaryFile = new File(file.getAbsolutePath() + "_temp");
+        ByteBuffer identifierBuffer = ByteBuffer.wrap(identifier);
+        List<byte[]> entries = accountToEntriesMap.get(identifierBuffer);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            accountToEntriesMap.put(identifierBuffer, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static void writeEntriesToIndex(byte[] identifier, List<byte[]> entries) {
+
+        synchronized (lockForAccount(identifier)) {
+            File indexFile = indexFileForAccount(identifier);
+            File segmentFile = segmentFileForAccount(identifier);
             try {
-                // Ensure the temporary file does not already exist.
-                if (!temporaryFile.exists() || temporaryFile.delete()) {
-                    // Open the previous file for reading and the temporary location for writing.
-                    fileReader = new RandomAccessFile(file, "r");
-                    fileWriter = new RandomAccessFile(temporaryFile, "rw");
-
-                    // Rewrite the file, inserting the new entry in the appropriate location so the indices are ordered
-                    // on ascending timestamp. This is written so blocks can be indexed in any order while retaining
-                    // timestamp order.
-                    long newTransactionTimestamp = transaction.getTimestamp();
-                    byte[] fileEntryArray = new byte[indexEntrySize];
-                    ByteBuffer fileEntryBuffer = ByteBuffer.wrap(fileEntryArray);
-                    boolean wroteEntry = false;
-                    while (fileReader.read(fileEntryArray) == indexEntrySize) {
-                        // Write the transaction as soon as the timestamp of the existing entry is greater than or equal
-                        // to the transaction timestamp.
-                        if (!wroteEntry) {
-                            fileEntryBuffer.position(0);
-                            long fileEntryTimestamp = fileEntryBuffer.getLong();
-                            if (fileEntryTimestamp >= newTransactionTimestamp) {
-                                // Write the new transaction if it is not already contained in the file.
-                                byte[] newTransactionArray = transactionIndexEntry(transaction, isSender, fileOffset);
-                                if (!ByteUtil.arraysAreEqual(newTransactionArray, fileEntryArray)) {
-                                    fileWriter.write(newTransactionArray);
-                                }
+                if (!indexFile.exists() && !segmentFile.exists()) {
+                    // If the account does not yet have an index, write the entries directly to the index file, ordered
+                    // on ascending timestamp.
+                    writeEntries(indexFile, sortedEntries(entries), false);
+                } else {
+                    // Otherwise, append the entries to the segment file. They will be merged into the index file by the
+                    // merge thread.
+                    writeEntries(segmentFile, entries, true);
+                    accountsWithSegments.add(ByteBuffer.wrap(identifier));
+                }
+            } catch (Exception e) {
+                LogUtil.println(ConsoleColor.Red.backgroundBright() + "exception writing transaction to index file: " +
+                        PrintUtil.printException(e) + ConsoleColor.reset);
+            }
+        }
+    }
 
-                                // Mark that the entry was written so it will not be written later.
-                                wroteEntry = true;
-                            }
-                        }
+    private static void mergeSegmentForAccount(byte[] identifier) {
+
+        synchronized (lockForAccount(identifier)) {
+            File segmentFile = segmentFileForAccount(identifier);
+            if (segmentFile.exists()) {
+                try {
+                    // Sort the segment into a new run on top of the stack. If the process stops before the segment is
+                    // deleted, its entries are written again on the next pass, and the duplicates are removed when the
+                    // runs are merged.
+                    int position = numberOfRuns(identifier);
+                    writeRun(runFileForAccount(identifier, position), sortedEntries(readEntries(segmentFile)));
+                    segmentFile.delete();
+
+                    // Merge the top run into the run below while the top run is not much smaller. The merged run
+                    // replaces the lower run before the top run is deleted.
+                    while (position > 0 && runFileForAccount(identifier, position).length() * runSizeRatio >=
+                            runFileForAccount(identifier, position - 1).length()) {
+                        File topFile = runFileForAccount(identifier, position);
+                        File lowerFile = runFileForAccount(identifier, position - 1);
+                        writeRun(lowerFile, mergedRuns(readEntries(topFile), readEntries(lowerFile)));
+                        topFile.delete();
+                        position--;
+                    }
+                } catch (Exception e) {
+                    accountsWithSegments.add(ByteBuffer.wrap(identifier));
+                    LogUtil.println(ConsoleColor.Red.backgroundBright() + "exception merging transaction index " +
+                            "segment: " + PrintUtil.printException(e) + ConsoleColor.reset);
+                }
+            }
+        }
+    }
+
+    private static List<byte[]> mergedRuns(List<byte[]> newerRun, List<byte[]> olderRun) {
+
+        // Both runs are ordered on ascending timestamp. Entries of the newer run are placed before entries of the older
+        // run with the same timestamp, and an entry that is in both runs is only written once.
+        List<byte[]> mergedEntries = new ArrayList<>(newerRun.size() + olderRun.size());
+        Set<ByteBuffer> distinctEntries = new HashSet<>();
+        int newerIndex = 0;
+        int olderIndex = 0;
+        while (newerIndex < newerRun.size() || olderIndex < olderRun.size()) {
+            byte[] entry;
+            if (olderIndex >= olderRun.size() || (newerIndex < newerRun.size() &&
+                    entryTimestamp(newerRun.get(newerIndex)) <= entryTimestamp(olderRun.get(olderIndex)))) {
+                entry = newerRun.get(newerIndex++);
+            } else {
+                entry = olderRun.get(olderIndex++);
+            }
+            if (distinctEntries.add(ByteBuffer.wrap(entry))) {
+                mergedEntries.add(entry);
+            }
+        }
+
+        return mergedEntries;
+    }
+
+    private static void writeRun(File file, List<byte[]> entries) throws IOException {
+
+        // The run is written to a temporary file and moved into place, so a query never reads a partial run.
+        File temporaryFile = new File(file.getAbsolutePath() + "_temp");
+        try {
+            temporaryFile.delete();
+            writeEntries(temporaryFile, entries, false);
+            Files.move(Paths.get(temporaryFile.getAbsolutePath()), Paths.get(file.getAbsolutePath()),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+
+    private static int numberOfRuns(byte[] identifier) {
+
+        // The runs are contiguous from the index file at position 0.
+        int numberOfRuns = 0;
+        while (runFileForAccount(identifier, numberOfRuns).exists()) {
+            numberOfRuns++;
+        }
+
+        return numberOfRuns;
+    }
+
+    private static void addAccountsWithSegmentFiles() {
+
+        String suffix = ".nyzotransactionsegment" + getTestSuffix();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(suffix)) {
+                    String identifierString = file.getName().substring(0, file.getName().length() - suffix.length());
+                    accountsWithSegments.add(ByteBuffer.wrap(ByteUtil.byteArrayFromHexString(identifierString,
+                            FieldByteSize.identifier)));
+                }
+            }
+        }
+    }
+
+    private static void addMatchingIndexEntries(File file, boolean acceptSender, boolean acceptReceiver,
+                                                long minimumTimestamp, long maximumTimestamp, byte[] searchPrefix,
+                                                List<byte[]> matchingEntries) throws IOException {
 
-                        // Write the entry from the existing file into the new file.
-                        fileWriter.write(fileEntryArray);
+        if (file.exists()) {
+            try (RandomAccessFile fileReader = new RandomAccessFile(file, "r")) {
+                // Find the number of entries with timestamps less than or equal to the maximum timestamp with a binary
+                // search.
+                long lowIndex = 0L;
+                long highIndex = fileReader.length() / indexEntrySize;
+                while (lowIndex < highIndex) {
+                    long midIndex = (lowIndex + highIndex) / 2L;
+                    fileReader.seek(midIndex * indexEntrySize);
+                    if (fileReader.readLong() <= maximumTimestamp) {
+                        lowIndex = midIndex + 1L;
+                    } else {
+                        highIndex = midIndex;
                     }
+                }
 
-                    // If the entry has not yet been written, write it at the end of the file.
-                    if (!wroteEntry) {
-                        fileWriter.write(transactionIndexEntry(transaction, isSender, fileOffset));
+                // Step back from the end of that range, in chunks, until enough entries have been found or the entries
+                // are older than the minimum timestamp.
+                int numberFound = 0;
+                long endIndex = lowIndex;
+                boolean belowMinimum = false;
+                while (endIndex > 0 && numberFound < maximumTransactionsPerQuery && !belowMinimum) {
+                    long startIndex = Math.max(0L, endIndex - readChunkEntries);
+                    byte[] chunk = new byte[(int) (endIndex - startIndex) * indexEntrySize];
+                    fileReader.seek(startIndex * indexEntrySize);
+                    fileReader.readFully(chunk);
+                    for (int i = chunk.length - indexEntrySize; i >= 0 && numberFound < maximumTransactionsPerQuery &&
+                            !belowMinimum; i -= indexEntrySize) {
+                        byte[] entry = Arrays.copyOfRange(chunk, i, i + indexEntrySize);
+                        if (entryTimestamp(entry) < minimumTimestamp) {
+                            belowMinimum = true;
+                        } else if (entryMatches(entry, acceptSender, acceptReceiver, minimumTimestamp,
+                                maximumTimestamp, searchPrefix)) {
+                            matchingEntries.add(entry);
+                            numberFound++;
+                        }
                     }
+                    endIndex = startIndex;
                 }
-            } catch (Exception e) {
-                LogUtil.println(ConsoleColor.Red.backgroundBright() + "exception writing transaction to index file: " +
-                        PrintUtil.printException(e) + ConsoleColor.reset);
             }
+        }
+    }
 
-            // Close the files.
-            safeClose(fileReader);
-            safeClose(fileWriter);
+    private static boolean entryMatches(byte[] entry, boolean acceptSender, boolean acceptReceiver,
+                                        long minimumTimestamp, long maximumTimestamp, byte[] searchPrefix) {
 
-            // Move the temporary file to replace the old file.
-            try {
-                Path temporaryPath = Paths.get(temporaryFile.getAbsolutePath());
-                Path path = Paths.get(file.getAbsolutePath());
-                Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-            } catch (Exception e) {
-                LogUtil.println(ConsoleColor.Red.backgroundBright() + "exception moving index file to permanent " +
-                        "location: " + PrintUtil.printException(e) + ConsoleColor.reset);
+        ByteBuffer entryBuffer = ByteBuffer.wrap(entry);
+        long timestamp = entryBuffer.getLong();
+        boolean isSender = entry[indexEntrySize - 5] != 0;
+
+        // Check the sender/receiver value and the timestamp.
+        boolean matches = ((acceptSender && isSender) || (acceptReceiver && !isSender)) &&
+                timestamp >= minimumTimestamp && timestamp <= maximumTimestamp;
+
+        // Check the sender-data prefix. The sender data is stored after the timestamp and amount.
+        for (int i = 0; i < Math.min(searchPrefix.length, 8) && matches; i++) {
+            matches = searchPrefix[i] == entry[16 + i];
+        }
+
+        return matches;
+    }
+
+    private static long entryTimestamp(byte[] entry) {
+        return ByteBuffer.wrap(entry).getLong();
+    }
+
+    private static List<byte[]> sortedEntries(List<byte[]> entries) {
+
+        // The sort is stable, so entries with the same timestamp retain their order.
+        List<byte[]> sortedEntries = new ArrayList<>(entries);
+        sortedEntries.sort(new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] entry1, byte[] entry2) {
+                return Long.compare(entryTimestamp(entry1), entryTimestamp(entry2));
             }
+        });
 
-        } else {
-            try {
-                // Otherwise, write the transaction directly to the file as the first entry.
-                Files.write(Paths.get(file.getAbsolutePath()), transactionIndexEntry(transaction, isSender,
-                        fileOffset));
-            } catch (Exception e) {
-                LogUtil.println(ConsoleColor.Red.backgroundBright() + "exception writing new transaction index file: " +
-                        PrintUtil.printException(e) + ConsoleColor.reset);
+        return sortedEntries;
+    }
+
+    private static List<byte[]> readEntries(File file) throws IOException {
+
+        // A partial entry at the end of a segment file, from an interrupted write, is ignored.
+        List<byte[]> entries = new ArrayList<>();
+        if (file.exists()) {
+            byte[] fileBytes = Files.readAllBytes(Paths.get(file.getAbsolutePath()));
+            for (int i = 0; i + indexEntrySize <= fileBytes.length; i += indexEntrySize) {
+                entries.add(Arrays.copyOfRange(fileBytes, i, i + indexEntrySize));
             }
         }
+
+        return entries;
+    }
+
+    private static void writeEntries(File file, List<byte[]> entries, boolean append) throws IOException {
+
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file, append))) {
+            for (byte[] entry : entries) {
+                outputStream.write(entry);
+            }
+        }
+    }
+
+    private static Object lockForAccount(byte[] identifier) {
+        return accountLocks[(Arrays.hashCode(identifier) & 0x7fffffff) % accountLocks.length];
     }
 
     private static void addHeightToCoverageFile(long height) {
@@ -473,6 +694,17 @@ public class TransactionIndexer {
                 getTestSuffix());
     }
 
+    private static File runFileForAccount(byte[] accountIdentifier, int position) {
+        return position == 0 ? indexFileForAccount(accountIdentifier) : new File(directory,
+                ByteUtil.arrayAsStringWithDashes(accountIdentifier) + ".nyzotransactionrun" + position +
+                        getTestSuffix());
+    }
+
+    private static File segmentFileForAccount(byte[] accountIdentifier) {
+        return new File(directory, ByteUtil.arrayAsStringWithDashes(accountIdentifier) + ".nyzotransactionsegment" +
+                getTestSuffix());
+    }
+
     private static File blockCoverageFile() {
         return new File(directory, "blocks_indexed" + getTestSuffix());
     }
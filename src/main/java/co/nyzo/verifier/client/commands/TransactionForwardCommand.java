@@ -213,8 +213,8 @@ public class TransactionForwardCommand implements Command {
                                 NyzoStringEncoder.encode(new NyzoStringPublicIdentifier(verifiers[2].array())),
                         valid, previouslyForwarded, inBlockchain,
                         (System.currentTimeMillis() - transaction.getTimestamp()) / 1000.0,
-                        PrintUtil.printAmount(BalanceListManager.getFrozenEdgeBalanceMap()
-                                .getOrDefault(ByteBuffer.wrap(transaction.getSenderIdentifier()), 0L)),
+                        PrintUtil.printAmount(BalanceListManager.frozenEdgeBalance(
+                                transaction.getSenderIdentifier())),
                         supplementalTransactionValid,
                         ByteUtil.arrayAsStringWithDashes(transaction.getSenderData())
                 );
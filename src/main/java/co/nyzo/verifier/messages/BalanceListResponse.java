@@ -78,13 +78,18 @@ public class BalanceListResponse implements MessageObject {
     public byte[] getBytes() {
 
         byte[] array = new byte[getByteSize()];
-        ByteBuffer buffer = ByteBuffer.wrap(array);
+        writeTo(ByteBuffer.wrap(array));
+
+        return array;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+
         buffer.put(balanceList == null ? (byte) 0 : (byte) 1);
         if (balanceList != null) {
-            buffer.put(balanceList.getBytes());
+            balanceList.writeTo(buffer);
         }
-
-        return array;
     }
 
     public static BalanceListResponse fromByteBuffer(ByteBuffer buffer) {
@@ -112,18 +112,23 @@ public class BlockResponse implements MessageObject {
     public byte[] getBytes() {
 
         byte[] array = new byte[getByteSize()];
-        ByteBuffer buffer = ByteBuffer.wrap(array);
+        writeTo(ByteBuffer.wrap(array));
+
+        return array;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+
         buffer.put(initialBalanceList == null ? (byte) 0 : (byte) 1);
         if (initialBalanceList != null) {
-            buffer.put(initialBalanceList.getBytes());
+            initialBalanceList.writeTo(buffer);
         }
 
         buffer.putShort((short) blocks.size());
         for (Block block : blocks) {
             buffer.put(block.getBytes());
         }
-
-        return array;
     }
 
     public static BlockResponse fromByteBuffer(ByteBuffer buffer) {
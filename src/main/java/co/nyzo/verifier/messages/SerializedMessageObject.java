@@ -0,0 +1,32 @@
+package co.nyzo.verifier.messages;
+
+import co.nyzo.verifier.MessageObject;
+
+import java.nio.ByteBuffer;
+
+// This is message content that has already been serialized. It is used for responses whose content is served from the
+// response cache, so that only the message envelope is produced and signed for each request. The array is shared by
+// all messages that use it, and it must not be modified.
+public class SerializedMessageObject implements MessageObject {
+
+    private final byte[] bytes;
+
+    public SerializedMessageObject(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int getByteSize() {
+        return bytes.length;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes);
+    }
+}
@@ -4,6 +4,7 @@ import co.nyzo.verifier.*;
 import co.nyzo.verifier.util.PrintUtil;
 import co.nyzo.verifier.util.TestnetUtil;
 
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -91,6 +92,18 @@ public class StatusResponse implements MessageObject {
             lines.add("maximum active read threads: " + MeshListener.getMaximumActiveReadThreads());
             lines.add("minimum connection threshold: " + MeshListener.getMinimumConnectionThreshold());
             lines.add("IP map size: " + MeshListener.getIpMapSize());
+            lines.add("TCP listener: " + MeshListener.getTcpListenerDescription());
+            lines.add("response lanes: " + ResponseLane.getStatusDescription());
+            lines.add("UDP listener: " + MeshListener.getUdpListenerDescription());
+            lines.add("live threads: " + ManagementFactory.getThreadMXBean().getThreadCount());
+            lines.add("message queue: " + MessageQueue.getStatusDescription());
+            lines.add("outbound: " + OutboundConnectionPool.getStatusDescription());
+            lines.add("broadcast: " + MessageBroadcast.getStatusDescription());
+            lines.add("response cache: " + ResponseCache.getStatusDescription());
+            lines.add("block hashes: " + Block.getHashStatistics());
+            lines.add("balance lists: " + BalanceListManager.getCacheStatistics());
+            lines.add("block validation: " + BlockValidationPipeline.getStatusDescription());
+            lines.add(VerifierMainTrigger.getStatusDescription());
 
             // This shows which in-cycle verifiers currently have no active mesh nodes.
             lines.add("missing in-cycle verifiers: " + NodeManager.getMissingInCycleVerifiers());
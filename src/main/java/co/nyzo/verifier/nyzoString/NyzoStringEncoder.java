@@ -50,7 +50,8 @@ public class NyzoStringEncoder {
         expandedBuffer.put(contentBytes);
 
         // Compute the checksum and add the appropriate number of bytes to the end of the array.
-        byte[] checksum = HashUtil.doubleSHA256(Arrays.copyOf(expandedArray, 4 + contentBytes.length));
+        byte[] checksum = new byte[HashUtil.hashLength];
+        HashUtil.doubleSHA256(expandedArray, 0, 4 + contentBytes.length, checksum, 0);
         expandedBuffer.put(checksum, 0, checksumLength);
 
         // Build and return the encoded string from the expanded array.
@@ -87,8 +88,9 @@ public class NyzoStringEncoder {
 
                     // Calculate the checksum and compare it to the provided checksum. Only create the result array if
                     // the checksums match.
-                    byte[] calculatedChecksum = Arrays.copyOf(HashUtil.doubleSHA256(Arrays.copyOf(expandedArray,
-                            headerLength + contentLength)), checksumLength);
+                    byte[] calculatedHash = new byte[HashUtil.hashLength];
+                    HashUtil.doubleSHA256(expandedArray, 0, headerLength + contentLength, calculatedHash, 0);
+                    byte[] calculatedChecksum = Arrays.copyOf(calculatedHash, checksumLength);
                     byte[] providedChecksum = Arrays.copyOfRange(expandedArray, expandedArray.length - checksumLength,
                             expandedArray.length);
 
@@ -3,18 +3,25 @@ package co.nyzo.verifier.scripts;
 import co.nyzo.verifier.*;
 import co.nyzo.verifier.client.ConsoleColor;
 import co.nyzo.verifier.messages.IpAddressMessageObject;
+import co.nyzo.verifier.messages.StatusResponse;
 import co.nyzo.verifier.messages.WhitelistResponse;
 import co.nyzo.verifier.nyzoString.NyzoString;
 import co.nyzo.verifier.nyzoString.NyzoStringEncoder;
 import co.nyzo.verifier.nyzoString.NyzoStringPrivateSeed;
 import co.nyzo.verifier.util.*;
 
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MeshListenerStressScript {
 
     private static final int defaultNumberOfRequests = 100;
+    private static final int defaultNumberOfStages = 4;
 
     public static void main(String[] args) {
 
@@ -28,6 +35,8 @@ public class MeshListenerStressScript {
             LogUtil.println("- host name or IP address of your verifier");
             LogUtil.println("- Nyzo string private key of your verifier");
             LogUtil.println("- number of requests (optional; default " + defaultNumberOfRequests + ")");
+            LogUtil.println("- number of listener comparison stages (optional; default " + defaultNumberOfStages +
+                    ")");
             LogUtil.println("***********************************************************************\n\n\n");
             return;
         }
@@ -62,6 +71,18 @@ public class MeshListenerStressScript {
         boolean whitelistingSuccessful = sendWhitelistRequest(hostNameOrIp, port, privateSeed);
         LogUtil.println("whitelisting successful: " + whitelistingSuccessful);
 
+        // Get the number of comparison stages.
+        int numberOfStages = defaultNumberOfStages;
+        if (args.length >= 4) {
+            try {
+                numberOfStages = Integer.parseInt(args[3]);
+            } catch (Exception ignored) { }
+
+            if (numberOfStages < 1) {
+                numberOfStages = defaultNumberOfStages;
+            }
+        }
+
         // Send the requests.
         if (whitelistingSuccessful) {
             AtomicInteger activeThreads = new AtomicInteger(numberOfRequests);
@@ -86,11 +107,111 @@ public class MeshListenerStressScript {
                 ThreadUtil.sleep(300L);
                 LogUtil.println("waiting for " + activeThreads.get() + " threads to complete");
             }
+
+            // Run the listener comparison. The number of concurrent connections doubles at each stage. To compare the
+            // thread-per-connection listener and the selector listener, run this script once with each setting of the
+            // mesh_listener_selector_tcp preference on the verifier. With the selector listener, the round-trip times
+            // and the verifier's thread count should stay flat as the number of connections grows.
+            LogUtil.println("");
+            LogUtil.println("concurrent connections | connect p50/p99 (ms) | round trip p50/p99 (ms) | failures | " +
+                    "verifier status");
+            for (int stage = 0; stage < numberOfStages; stage++) {
+                int numberOfConnections = numberOfRequests << stage;
+                LogUtil.println(stressStage(hostNameOrIp, port, privateSeed, numberOfConnections) + " | " +
+                        listenerStatus(hostNameOrIp, port, privateSeed));
+            }
         }
 
         UpdateUtil.terminate();
     }
 
+    private static String stressStage(String host, int port, byte[] seed, int numberOfConnections) {
+
+        // Each thread opens its own connection and sends a ping. All threads are released at the same time to produce
+        // the desired number of concurrent connections.
+        long[] connectTimes = new long[numberOfConnections];
+        long[] roundTripTimes = new long[numberOfConnections];
+        AtomicInteger numberOfFailures = new AtomicInteger(0);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch completeLatch = new CountDownLatch(numberOfConnections);
+        for (int i = 0; i < numberOfConnections; i++) {
+            int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Message message = new Message(MessageType.Ping200, null, seed);
+                    Socket socket = new Socket();
+                    try {
+                        startLatch.await();
+                        long startTime = System.nanoTime();
+                        socket.connect(new InetSocketAddress(host, port), 2000);
+                        connectTimes[index] = System.nanoTime() - startTime;
+
+                        socket.getOutputStream().write(message.getBytesForTransmission());
+                        socket.setSoTimeout(3000);
+                        Message response = Message.readFromStream(socket.getInputStream(),
+                                socket.getInetAddress().getAddress(), message.getType());
+                        roundTripTimes[index] = System.nanoTime() - startTime;
+                        if (response == null || response.getType() != MessageType.PingResponse201) {
+                            numberOfFailures.incrementAndGet();
+                        }
+                    } catch (Exception ignored) {
+                        numberOfFailures.incrementAndGet();
+                    }
+
+                    ConnectionManager.fastCloseSocket(socket);
+                    completeLatch.countDown();
+                }
+            }, "MeshListenerStressScript-connection-" + i).start();
+        }
+
+        startLatch.countDown();
+        try {
+            completeLatch.await();
+        } catch (Exception ignored) { }
+
+        Arrays.sort(connectTimes);
+        Arrays.sort(roundTripTimes);
+
+        return String.format("%22d | %9.1f/%-10.1f | %11.1f/%-11.1f | %8d", numberOfConnections,
+                percentile(connectTimes, 0.5), percentile(connectTimes, 0.99), percentile(roundTripTimes, 0.5),
+                percentile(roundTripTimes, 0.99), numberOfFailures.get());
+    }
+
+    private static double percentile(long[] sortedNanoseconds, double percentile) {
+
+        int index = Math.min(sortedNanoseconds.length - 1, (int) (sortedNanoseconds.length * percentile));
+        return sortedNanoseconds[index] / 1000000.0;
+    }
+
+    private static String listenerStatus(String host, int port, byte[] seed) {
+
+        // The status request is signed with the verifier's seed, so the response includes the listener lines.
+        AtomicReference<String> result = new AtomicReference<>(null);
+        Message statusRequest = new Message(MessageType.StatusRequest17, null, seed);
+        Message.fetchTcp(host, port, statusRequest, new MessageCallback() {
+            @Override
+            public void responseReceived(Message message) {
+                StringBuilder status = new StringBuilder();
+                if (message != null && message.getContent() instanceof StatusResponse) {
+                    for (String line : ((StatusResponse) message.getContent()).getLines()) {
+                        if (line.startsWith("TCP listener") || line.startsWith("live threads") ||
+                                line.startsWith("maximum active read threads")) {
+                            status.append(status.length() == 0 ? "" : ", ").append(line);
+                        }
+                    }
+                }
+                result.set(status.length() == 0 ? "status unavailable" : status.toString());
+            }
+        });
+
+        while (result.get() == null) {
+            ThreadUtil.sleep(100L);
+        }
+
+        return result.get();
+    }
+
     private static boolean sendWhitelistRequest(String host, int port, byte[] seed) {
 
         AtomicBoolean complete = new AtomicBoolean(false);
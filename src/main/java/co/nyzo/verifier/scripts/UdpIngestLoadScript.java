@@ -0,0 +1,131 @@
+package co.nyzo.verifier.scripts;
+
+import co.nyzo.verifier.*;
+import co.nyzo.verifier.client.ConsoleColor;
+import co.nyzo.verifier.messages.StatusResponse;
+import co.nyzo.verifier.nyzoString.NyzoString;
+import co.nyzo.verifier.nyzoString.NyzoStringEncoder;
+import co.nyzo.verifier.nyzoString.NyzoStringPrivateSeed;
+import co.nyzo.verifier.util.LogUtil;
+import co.nyzo.verifier.util.ThreadUtil;
+import co.nyzo.verifier.util.UpdateUtil;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class UdpIngestLoadScript {
+
+    private static final int defaultNumberOfPackets = 5000;
+    private static final int defaultNumberOfStages = 4;
+    private static final int numberOfDistinctMessages = 256;
+
+    public static void main(String[] args) {
+
+        if (args.length < 2) {
+            LogUtil.println("\n\n\n");
+            LogUtil.println("***********************************************************************");
+            LogUtil.println("arguments:");
+            LogUtil.println("- host name or IP address of your verifier");
+            LogUtil.println("- Nyzo string private key of your verifier (for status requests)");
+            LogUtil.println("- number of packets in the first stage (optional; default " + defaultNumberOfPackets +
+                    ")");
+            LogUtil.println("- number of stages (optional; default " + defaultNumberOfStages + ")");
+            LogUtil.println("***********************************************************************\n\n\n");
+            return;
+        }
+
+        String hostNameOrIp = args[0];
+
+        NyzoString privateSeedObject = NyzoStringEncoder.decode(args[1]);
+        if (!(privateSeedObject instanceof NyzoStringPrivateSeed)) {
+            LogUtil.println(ConsoleColor.Red.backgroundBright() + args[1] + " is not a valid Nyzo string private seed" +
+                    ConsoleColor.reset);
+            return;
+        }
+        byte[] privateSeed = ((NyzoStringPrivateSeed) privateSeedObject).getSeed();
+
+        int numberOfPackets = defaultNumberOfPackets;
+        if (args.length >= 3) {
+            try {
+                numberOfPackets = Math.max(1, Integer.parseInt(args[2]));
+            } catch (Exception ignored) { }
+        }
+
+        int numberOfStages = defaultNumberOfStages;
+        if (args.length >= 4) {
+            try {
+                numberOfStages = Math.max(1, Integer.parseInt(args[3]));
+            } catch (Exception ignored) { }
+        }
+
+        // The load is made of signed pings from a new identifier. Pings are harmless, and each one is fully decoded,
+        // verified, and answered by the verifier. The verifier does not send responses to UDP messages. If this script
+        // runs on a host outside the cycle, the verifier rejects the pings after reading the header, so the results
+        // measure the receiving path only. To measure the full path, run against a test verifier with an empty cycle.
+        byte[] loadSeed = KeyUtil.generateSeed();
+        ByteBuffer[] packets = new ByteBuffer[numberOfDistinctMessages];
+        for (int i = 0; i < numberOfDistinctMessages; i++) {
+            packets[i] = ByteBuffer.wrap(new Message(MessageType.Ping200, null, loadSeed).getBytesForTransmission());
+        }
+
+        // The stages double the number of packets, each sent as fast as this host can send them. After each stage, the
+        // script waits for the verifier's ping count to settle and prints the verifier's view of the stage.
+        LogUtil.println("packets | send rate (packets/s) | verifier status");
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress(hostNameOrIp, MeshListener.standardPortUdp));
+            for (int stage = 0; stage < numberOfStages; stage++) {
+                int stagePackets = numberOfPackets << stage;
+                long startTime = System.nanoTime();
+                for (int i = 0; i < stagePackets; i++) {
+                    ByteBuffer packet = packets[i % numberOfDistinctMessages];
+                    packet.clear();
+                    channel.write(packet);
+                }
+                double sendRate = stagePackets / ((System.nanoTime() - startTime) / 1000000000.0);
+
+                String status = null;
+                String previousStatus;
+                do {
+                    ThreadUtil.sleep(1000L);
+                    previousStatus = status;
+                    status = udpStatus(hostNameOrIp, privateSeed);
+                } while (!status.equals(previousStatus));
+
+                LogUtil.println(String.format("%7d | %21.0f | %s", stagePackets, sendRate, status));
+            }
+        } catch (Exception e) {
+            LogUtil.println("exception sending UDP load: " + e.getMessage());
+        }
+
+        UpdateUtil.terminate();
+    }
+
+    private static String udpStatus(String host, byte[] seed) {
+
+        // The status request is signed with the verifier's seed, so the response includes the UDP lines.
+        AtomicReference<String> result = new AtomicReference<>(null);
+        Message statusRequest = new Message(MessageType.StatusRequest17, null, seed);
+        Message.fetchTcp(host, MeshListener.standardPortTcp, statusRequest, new MessageCallback() {
+            @Override
+            public void responseReceived(Message message) {
+                StringBuilder status = new StringBuilder();
+                if (message != null && message.getContent() instanceof StatusResponse) {
+                    for (String line : ((StatusResponse) message.getContent()).getLines()) {
+                        if (line.startsWith("UDP ") || line.startsWith("ping count")) {
+                            status.append(status.length() == 0 ? "" : ", ").append(line);
+                        }
+                    }
+                }
+                result.set(status.length() == 0 ? "status unavailable" : status.toString());
+            }
+        });
+
+        while (result.get() == null) {
+            ThreadUtil.sleep(100L);
+        }
+
+        return result.get();
+    }
+}
@@ -753,8 +753,7 @@ public class Sentinel {
                     LogUtil.println("omitting sentinel transaction due to unavailable balance list");
                 } else {
                     // Only add the sentinel transaction if the balance is over the minimum preferred balance.
-                    Map<ByteBuffer, Long> balanceMap = BalanceManager.makeBalanceMap(balanceList);
-                    long verifierBalance = balanceMap.getOrDefault(ByteBuffer.wrap(verifier.getIdentifier()), 0L);
+                    long verifierBalance = balanceList.balanceForIdentifier(verifier.getIdentifier());
                     if (verifierBalance <= BalanceManager.minimumPreferredBalance) {
                         LogUtil.println("omitting sentinel transaction because balance of " +
                                 PrintUtil.compactPrintByteArray(verifier.getIdentifier()) + " is " +
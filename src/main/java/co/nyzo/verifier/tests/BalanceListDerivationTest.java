@@ -0,0 +1,268 @@
+package co.nyzo.verifier.tests;
+
+import co.nyzo.verifier.*;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class BalanceListDerivationTest implements NyzoTest {
+
+    private static final int numberOfAccounts = 10000;
+    private static final int numberOfBlocks = 800;
+    private static final int maximumTransactionsPerBlock = 30;
+
+    private String failureCause = null;
+
+    public static void main(String[] args) {
+
+        RunMode.setRunMode(RunMode.Test);
+        BalanceListDerivationTest test = new BalanceListDerivationTest();
+        boolean successful = test.run();
+
+        if (!successful) {
+            System.out.println(TestUtil.failureCause(test.getFailureCause()));
+        }
+    }
+
+    public boolean run() {
+
+        // The incremental derivation in Block must produce exactly the same balance lists as the original derivation,
+        // which rebuilt a map of all accounts for every block. The original derivation is reproduced below, and both
+        // are run on the same sequence of blocks for each blockchain version that affects account fees.
+        boolean successful = true;
+        for (int blockchainVersion = 0; blockchainVersion <= Block.maximumBlockchainVersion && successful;
+             blockchainVersion++) {
+            successful = runChain(blockchainVersion, new Random(blockchainVersion + 311));
+        }
+
+        return successful;
+    }
+
+    private boolean runChain(int blockchainVersion, Random random) {
+
+        boolean successful = true;
+
+        // Make the starting balance list. Some accounts have balances of less than ∩1 so that the version-1 account
+        // fee applies, and the blocks-until-fee counters are spread over the entire interval so that fees are
+        // charged in every block.
+        List<BalanceListItem> items = new ArrayList<>();
+        items.add(new BalanceListItem(BalanceListItem.transferIdentifier, Transaction.micronyzoMultiplierRatio * 10L,
+                (short) 0));
+        items.add(new BalanceListItem(BalanceListItem.cycleAccountIdentifier,
+                Transaction.micronyzoMultiplierRatio * 1000L, (short) random.nextInt(500)));
+        long sum = Transaction.micronyzoMultiplierRatio * 1010L;
+        for (int i = 0; i < numberOfAccounts; i++) {
+            long balance = random.nextInt(4) == 0 ? random.nextInt(1000) + 1L :
+                    random.nextInt(1000) * Transaction.micronyzoMultiplierRatio + random.nextInt(1000000);
+            items.add(new BalanceListItem(randomIdentifier(random), balance, (short) random.nextInt(501)));
+            sum += balance;
+        }
+        items.set(2, items.get(2).adjustByAmount(Transaction.micronyzosInSystem - sum));
+
+        long startHeight = 100000L;
+        List<byte[]> verifiers = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            verifiers.add(randomIdentifier(random));
+        }
+        BalanceList startList = new BalanceList(blockchainVersion, startHeight, (byte) 0, new ArrayList<>(), items,
+                0L, 0L, new HashMap<>(), new ArrayList<>());
+        Block previousBlock = block(blockchainVersion, startHeight, verifiers.get(0), new ArrayList<>());
+
+        BalanceList incrementalList = startList;
+        BalanceList referenceList = startList;
+        long incrementalTime = 0L;
+        long referenceTime = 0L;
+        for (int i = 0; i < numberOfBlocks && successful; i++) {
+
+            // Make transactions from distinct senders to existing and new accounts. Some transactions drain the
+            // sender's account.
+            List<BalanceListItem> currentItems = referenceList.getItems();
+            Set<ByteBuffer> senders = new HashSet<>();
+            List<Transaction> transactions = new ArrayList<>();
+            int numberOfTransactions = random.nextInt(maximumTransactionsPerBlock);
+            for (int j = 0; j < numberOfTransactions; j++) {
+                BalanceListItem sender = currentItems.get(random.nextInt(currentItems.size()));
+                if (senders.add(ByteBuffer.wrap(sender.getIdentifier())) &&
+                        !ByteUtil.arraysAreEqual(sender.getIdentifier(), BalanceListItem.transferIdentifier) &&
+                        !ByteUtil.arraysAreEqual(sender.getIdentifier(), BalanceListItem.cycleAccountIdentifier)) {
+                    long amount = random.nextBoolean() ? sender.getBalance() :
+                            Math.max(1L, (long) (sender.getBalance() * random.nextDouble()));
+                    byte[] receiver = random.nextBoolean() ? randomIdentifier(random) :
+                            currentItems.get(random.nextInt(currentItems.size())).getIdentifier();
+                    transactions.add(Transaction.standardTransaction(System.currentTimeMillis(), amount, receiver,
+                            0L, new byte[FieldByteSize.hash], sender.getIdentifier(), new byte[0],
+                            new byte[FieldByteSize.signature]));
+                }
+            }
+
+            byte[] verifier = verifiers.get(random.nextInt(verifiers.size()));
+            long startTime = System.nanoTime();
+            BalanceList nextIncrementalList = Block.balanceListForApprovedTransactions(previousBlock,
+                    incrementalList, transactions, verifier, blockchainVersion);
+            long midTime = System.nanoTime();
+            BalanceList nextReferenceList = referenceBalanceListForNextBlock(previousBlock, referenceList,
+                    transactions, verifier, blockchainVersion);
+            long endTime = System.nanoTime();
+            incrementalTime += midTime - startTime;
+            referenceTime += endTime - midTime;
+
+            if (nextIncrementalList == null || nextReferenceList == null) {
+                successful = false;
+                failureCause = "unable to derive balance list at height " + (previousBlock.getBlockHeight() + 1L) +
+                        " for version " + blockchainVersion + ": incremental=" + nextIncrementalList +
+                        ", reference=" + nextReferenceList;
+            } else if (!ByteUtil.arraysAreEqual(nextIncrementalList.getHash(), nextReferenceList.getHash())) {
+                successful = false;
+                failureCause = "balance list hash mismatch at height " + (previousBlock.getBlockHeight() + 1L) +
+                        " for version " + blockchainVersion + ": incremental=" +
+                        PrintUtil.compactPrintByteArray(nextIncrementalList.getHash()) + ", reference=" +
+                        PrintUtil.compactPrintByteArray(nextReferenceList.getHash());
+            } else if (!ByteUtil.arraysAreEqual(nextReferenceList.getHash(),
+                    HashUtil.doubleSHA256(nextReferenceList.getBytes()))) {
+                // The reference list is hashed after the incremental list at the same height, so its hash resumes
+                // from the checkpoints of the incremental list. It must match the hash of the full serialized list.
+                successful = false;
+                failureCause = "balance list hash does not match serialized list at height " +
+                        (previousBlock.getBlockHeight() + 1L) + " for version " + blockchainVersion;
+            } else if (nextIncrementalList.balanceForIdentifier(verifier) !=
+                    nextReferenceList.balanceForIdentifier(verifier)) {
+                successful = false;
+                failureCause = "balance mismatch for verifier at height " + (previousBlock.getBlockHeight() + 1L);
+            }
+
+            incrementalList = nextIncrementalList;
+            referenceList = nextReferenceList;
+            previousBlock = block(blockchainVersion, previousBlock.getBlockHeight() + 1L, verifier, transactions);
+        }
+
+        if (successful) {
+            System.out.println(String.format("balance list derivation, version %d: %d blocks, %d accounts, " +
+                    "incremental %.1f ms, reference %.1f ms", blockchainVersion, numberOfBlocks,
+                    incrementalList.getItems().size(), incrementalTime / 1000000.0, referenceTime / 1000000.0));
+        }
+
+        return successful;
+    }
+
+    private static Block block(int blockchainVersion, long height, byte[] verifier, List<Transaction> transactions) {
+
+        return new Block(blockchainVersion, height, new byte[FieldByteSize.hash], 0L, 0L, transactions,
+                new byte[FieldByteSize.hash], verifier, new byte[FieldByteSize.signature], false);
+    }
+
+    private static byte[] randomIdentifier(Random random) {
+
+        byte[] identifier = new byte[FieldByteSize.identifier];
+        random.nextBytes(identifier);
+
+        return identifier;
+    }
+
+    // This is the original derivation, without cycle transactions, which are not produced by this test.
+    private static BalanceList referenceBalanceListForNextBlock(Block previousBlock, BalanceList previousBalanceList,
+                                                                List<Transaction> transactions,
+                                                                byte[] verifierIdentifier, int blockchainVersion) {
+
+        long blockHeight = previousBlock.getBlockHeight() + 1L;
+        List<byte[]> previousVerifiers = new ArrayList<>(previousBalanceList.getPreviousVerifiers());
+        previousVerifiers.add(previousBlock.getVerifierIdentifier());
+        if (previousVerifiers.size() > 9) {
+            previousVerifiers.remove(0);
+        }
+
+        Map<ByteBuffer, BalanceListItem> identifierToItemMap = new HashMap<>();
+        for (BalanceListItem item : previousBalanceList.getItems()) {
+            identifierToItemMap.put(ByteBuffer.wrap(item.getIdentifier()), item);
+        }
+
+        long feesThisBlock = 0L;
+        long organicTransactionFees = 0L;
+        long transactionSumFromLockedAccounts = 0L;
+        for (Transaction transaction : transactions) {
+            feesThisBlock += transaction.getFee();
+            adjustBalance(transaction.getSenderIdentifier(), -transaction.getAmount(), identifierToItemMap);
+            long amountAfterFee = transaction.getAmount() - transaction.getFee();
+            if (amountAfterFee > 0) {
+                adjustBalance(transaction.getReceiverIdentifier(), amountAfterFee, identifierToItemMap);
+            }
+            organicTransactionFees += transaction.getFee();
+            if (LockedAccountManager.isSubjectToLock(transaction)) {
+                transactionSumFromLockedAccounts += transaction.getAmount();
+            }
+        }
+
+        if (blockchainVersion > 0 && organicTransactionFees >= 100L) {
+            long cycleTransferAmount = organicTransactionFees / 100L;
+            feesThisBlock -= cycleTransferAmount;
+            adjustBalance(BalanceListItem.cycleAccountIdentifier, cycleTransferAmount, identifierToItemMap);
+        }
+
+        long periodicAccountFees = 0L;
+        for (ByteBuffer identifier : identifierToItemMap.keySet()) {
+            BalanceListItem item = identifierToItemMap.get(identifier);
+            if (item.getBlocksUntilFee() <= 0 &&
+                    !ByteUtil.arraysAreEqual(identifier.array(), BalanceListItem.transferIdentifier)) {
+                item = item.resetBlocksUntilFee();
+                if (blockchainVersion == 0 && item.getBalance() > 0L) {
+                    item = item.adjustByAmount(-1L);
+                    periodicAccountFees++;
+                } else if ((blockchainVersion == 1 || blockchainVersion > 2) &&
+                        item.getBalance() < Transaction.micronyzoMultiplierRatio) {
+                    long fee = Math.min(item.getBalance(), 100L);
+                    item = item.adjustByAmount(-1L * fee);
+                    periodicAccountFees += fee;
+                }
+                identifierToItemMap.put(identifier, item);
+            }
+        }
+
+        List<byte[]> verifiers = new ArrayList<>(previousVerifiers);
+        verifiers.add(verifierIdentifier);
+        long totalFees = feesThisBlock + previousBalanceList.getRolloverFees() + periodicAccountFees;
+        long feesPerVerifier = totalFees / verifiers.size();
+        if (feesPerVerifier > 0L) {
+            for (byte[] verifier : verifiers) {
+                adjustBalance(verifier, feesPerVerifier, identifierToItemMap);
+            }
+        }
+
+        long micronyzosInSystem = 0L;
+        List<BalanceListItem> balanceItems = new ArrayList<>();
+        for (BalanceListItem item : identifierToItemMap.values()) {
+            if (item.getBalance() > 0L) {
+                balanceItems.add(item.decrementBlocksUntilFee());
+                micronyzosInSystem += item.getBalance();
+            }
+        }
+
+        BalanceList result = null;
+        byte rolloverFees = (byte) (totalFees % verifiers.size());
+        micronyzosInSystem += rolloverFees;
+        if (micronyzosInSystem == Transaction.micronyzosInSystem) {
+            long unlockThreshold = blockchainVersion == 0 ? 0 : previousBalanceList.getUnlockThreshold() +
+                    organicTransactionFees;
+            long unlockTransferSum = blockchainVersion == 0 ? 0 : previousBalanceList.getUnlockTransferSum() +
+                    transactionSumFromLockedAccounts;
+            result = new BalanceList(blockchainVersion, blockHeight, rolloverFees, previousVerifiers, balanceItems,
+                    unlockThreshold, unlockTransferSum, new HashMap<>(), new ArrayList<>());
+        }
+
+        return result;
+    }
+
+    private static void adjustBalance(byte[] identifier, long amount,
+                                      Map<ByteBuffer, BalanceListItem> identifierToItemMap) {
+
+        ByteBuffer identifierBuffer = ByteBuffer.wrap(identifier);
+        BalanceListItem item = identifierToItemMap.get(identifierBuffer);
+        if (item == null) {
+            item = new BalanceListItem(identifier, 0L);
+        }
+        identifierToItemMap.put(identifierBuffer, item.adjustByAmount(amount));
+    }
+
+    public String getFailureCause() {
+        return failureCause;
+    }
+}
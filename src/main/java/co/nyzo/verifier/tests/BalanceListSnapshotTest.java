@@ -0,0 +1,156 @@
+package co.nyzo.verifier.tests;
+
+import co.nyzo.verifier.*;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class BalanceListSnapshotTest implements NyzoTest {
+
+    private static final int numberOfAccounts = 5000;
+
+    private String failureCause = null;
+
+    public static void main(String[] args) {
+
+        RunMode.setRunMode(RunMode.Test);
+        BalanceListSnapshotTest test = new BalanceListSnapshotTest();
+        boolean successful = test.run();
+
+        if (!successful) {
+            System.out.println(TestUtil.failureCause(test.getFailureCause()));
+        }
+    }
+
+    public boolean run() {
+
+        boolean successful = true;
+        File file = null;
+        try {
+            // Make a list and a block with its hash.
+            Random random = new Random(77);
+            List<BalanceListItem> items = new ArrayList<>();
+            long sum = 0L;
+            for (int i = 0; i < numberOfAccounts; i++) {
+                long balance = random.nextInt(1000) * Transaction.micronyzoMultiplierRatio + random.nextInt(1000000) +
+                        1L;
+                items.add(new BalanceListItem(randomIdentifier(random), balance, (short) random.nextInt(501)));
+                sum += balance;
+            }
+            items.set(0, items.get(0).adjustByAmount(Transaction.micronyzosInSystem - sum));
+            List<byte[]> previousVerifiers = new ArrayList<>();
+            for (int i = 0; i < 9; i++) {
+                previousVerifiers.add(randomIdentifier(random));
+            }
+            long height = 200000L;
+            BalanceList balanceList = new BalanceList(Block.maximumBlockchainVersion, height, (byte) 0,
+                    previousVerifiers, items, 0L, 0L, new HashMap<>(), new ArrayList<>());
+            Block block = block(height, balanceList.getHash());
+
+            // A list read from its serialized form must be identical to the original list.
+            BalanceList deserialized = BalanceList.fromByteBuffer(ByteBuffer.wrap(balanceList.getBytes()));
+            if (!ByteUtil.arraysAreEqual(deserialized.getBytes(), balanceList.getBytes())) {
+                successful = false;
+                failureCause = "deserialized list does not match original list";
+            }
+
+            // Swap the first two items in the serialized form. The list read from these bytes must be sorted again.
+            byte[] unsortedBytes = balanceList.getBytes().clone();
+            int itemLength = FieldByteSize.identifier + FieldByteSize.transactionAmount + FieldByteSize.blocksUntilFee;
+            int itemOffset = indexOf(unsortedBytes, balanceList.getItems().get(0).getIdentifier());
+            byte[] firstItem = Arrays.copyOfRange(unsortedBytes, itemOffset, itemOffset + itemLength);
+            System.arraycopy(unsortedBytes, itemOffset + itemLength, unsortedBytes, itemOffset, itemLength);
+            System.arraycopy(firstItem, 0, unsortedBytes, itemOffset + itemLength, itemLength);
+            BalanceList unsortedList = BalanceList.fromByteBuffer(ByteBuffer.wrap(unsortedBytes));
+            if (successful && !ByteUtil.arraysAreEqual(unsortedList.getHash(), balanceList.getHash())) {
+                successful = false;
+                failureCause = "list read from unsorted items was not normalized";
+            }
+
+            // Write the snapshot and read it back.
+            file = File.createTempFile("balance_list", ".nyzosnapshot");
+            if (successful && !BalanceListSnapshot.write(file, block, balanceList)) {
+                successful = false;
+                failureCause = "unable to write snapshot";
+            }
+
+            if (successful && BalanceListSnapshot.blockHeight(file) != height) {
+                successful = false;
+                failureCause = "incorrect snapshot height: " + BalanceListSnapshot.blockHeight(file);
+            }
+
+            BalanceList snapshotList = BalanceListSnapshot.read(file, block);
+            if (successful && (snapshotList == null ||
+                    !ByteUtil.arraysAreEqual(snapshotList.getBytes(), balanceList.getBytes()) ||
+                    !ByteUtil.arraysAreEqual(HashUtil.doubleSHA256(snapshotList.getBytes()),
+                            block.getBalanceListHash()))) {
+                successful = false;
+                failureCause = "snapshot list does not match original list";
+            }
+
+            // The snapshot must not be accepted for a different block.
+            if (successful && BalanceListSnapshot.read(file, block(height, new byte[FieldByteSize.hash])) != null) {
+                successful = false;
+                failureCause = "snapshot accepted for block with different balance-list hash";
+            }
+
+            // The snapshot must not be accepted if any byte of the list is changed.
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                long position = file.length() / 2;
+                randomAccessFile.seek(position);
+                int value = randomAccessFile.read();
+                randomAccessFile.seek(position);
+                randomAccessFile.write(value ^ 1);
+            }
+            if (successful && BalanceListSnapshot.read(file, block) != null) {
+                successful = false;
+                failureCause = "corrupted snapshot accepted";
+            }
+        } catch (Exception e) {
+            failureCause = "exception in " + getClass().getSimpleName() + ": " + PrintUtil.printException(e);
+            successful = false;
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+
+        System.out.println(TestUtil.passFail(successful));
+
+        return successful;
+    }
+
+    private static Block block(long height, byte[] balanceListHash) {
+
+        return new Block(Block.maximumBlockchainVersion, height, new byte[FieldByteSize.hash], 0L, 0L,
+                new ArrayList<>(), balanceListHash, new byte[FieldByteSize.identifier],
+                new byte[FieldByteSize.signature], false);
+    }
+
+    private static int indexOf(byte[] array, byte[] target) {
+
+        int index = -1;
+        for (int i = 0; i <= array.length - target.length && index < 0; i++) {
+            if (ByteUtil.arraysAreEqual(Arrays.copyOfRange(array, i, i + target.length), target)) {
+                index = i;
+            }
+        }
+
+        return index;
+    }
+
+    private static byte[] randomIdentifier(Random random) {
+
+        byte[] identifier = new byte[FieldByteSize.identifier];
+        random.nextBytes(identifier);
+
+        return identifier;
+    }
+
+    public String getFailureCause() {
+        return failureCause;
+    }
+}
@@ -0,0 +1,100 @@
+package co.nyzo.verifier.tests;
+
+import co.nyzo.verifier.*;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.io.File;
+import java.util.List;
+
+public class ChainReplayTest implements NyzoTest {
+
+    private String failureCause = null;
+    private boolean skipped = false;
+
+    public static void main(String[] args) {
+
+        RunMode.setRunMode(RunMode.Test);
+        ChainReplayTest test = new ChainReplayTest();
+        boolean successful = test.run();
+
+        if (!successful) {
+            System.out.println(TestUtil.failureCause(test.getFailureCause()));
+        }
+    }
+
+    public boolean run() {
+
+        // This replays the archived blocks in the consolidated files of the data directory, starting at the Genesis
+        // block, and derives the balance list for each block. The hash of each derived list must match the hash
+        // recorded in the block, which was produced by the derivation that was in use when the block was frozen. If no
+        // archived blocks are present, there is nothing to compare, and the test is reported as skipped.
+        boolean successful = true;
+        long numberOfBlocks = 0L;
+        long startTime = System.nanoTime();
+        try {
+            Block previousBlock = null;
+            BalanceList previousBalanceList = null;
+            boolean missingFile = false;
+            for (long fileIndex = 0; !missingFile && successful; fileIndex++) {
+                long startBlockHeight = fileIndex * BlockManager.blocksPerFile;
+                File file = BlockManager.consolidatedFileForBlockHeight(startBlockHeight);
+                if (file.exists()) {
+                    long endBlockHeight = startBlockHeight + BlockManager.blocksPerFile - 1L;
+                    List<Block> blocks = BlockManager.loadBlocksInFile(file, startBlockHeight, endBlockHeight);
+                    for (int i = 0; i < blocks.size() && successful; i++) {
+                        Block block = blocks.get(i);
+                        if (block.getBlockHeight() != (previousBlock == null ? 0L :
+                                previousBlock.getBlockHeight() + 1L)) {
+                            successful = false;
+                            failureCause = "archived chain is not contiguous at height " + block.getBlockHeight();
+                        } else {
+                            BalanceList balanceList = Block.balanceListForApprovedTransactions(previousBlock,
+                                    previousBalanceList, block.getTransactions(), block.getVerifierIdentifier(),
+                                    block.getBlockchainVersion());
+                            if (balanceList == null || !ByteUtil.arraysAreEqual(balanceList.getHash(),
+                                    block.getBalanceListHash())) {
+                                successful = false;
+                                failureCause = "balance list hash mismatch at height " + block.getBlockHeight() +
+                                        ": derived=" + (balanceList == null ? "null" :
+                                        PrintUtil.compactPrintByteArray(balanceList.getHash())) + ", block=" +
+                                        PrintUtil.compactPrintByteArray(block.getBalanceListHash());
+                            }
+
+                            // The frozen edge provides the cycle information used for cycle transactions.
+                            BlockManager.setFrozenEdge(block, null);
+                            previousBlock = block;
+                            previousBalanceList = balanceList;
+                            numberOfBlocks++;
+                        }
+                    }
+                } else {
+                    missingFile = true;
+                }
+            }
+        } catch (Exception e) {
+            failureCause = "exception in " + getClass().getSimpleName() + ": " + PrintUtil.printException(e);
+            successful = false;
+        }
+
+        skipped = successful && numberOfBlocks == 0L;
+        if (skipped) {
+            System.out.println(TestUtil.skipped("no archived blocks in " + BlockManager.blockRootDirectory));
+        } else {
+            if (successful) {
+                System.out.println(String.format("replayed %d archived blocks in %.1f s", numberOfBlocks,
+                        (System.nanoTime() - startTime) / 1000000000.0));
+            }
+            System.out.println(TestUtil.passFail(successful));
+        }
+
+        return successful;
+    }
+
+    public String getFailureCause() {
+        return failureCause;
+    }
+
+    public boolean wasSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,175 @@
+package co.nyzo.verifier.tests;
+
+import co.nyzo.verifier.*;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+
+public class ConsolidatedBlockFileTest implements NyzoTest {
+
+    private static final long startHeight = 5000L;
+
+    private String failureCause = null;
+
+    public static void main(String[] args) {
+
+        RunMode.setRunMode(RunMode.Test);
+        ConsolidatedBlockFileTest test = new ConsolidatedBlockFileTest();
+        boolean successful = test.run();
+
+        if (!successful) {
+            System.out.println(TestUtil.failureCause(test.getFailureCause()));
+        }
+    }
+
+    public boolean run() {
+
+        boolean successful = true;
+        File version1File = null;
+        File version2File = null;
+        try {
+            // Make two runs of blocks with a gap between them. A balance list is stored for the first block of each
+            // run.
+            List<Block> blocks = new ArrayList<>();
+            List<BalanceList> balanceLists = new ArrayList<>();
+            for (long height = startHeight; height < startHeight + 25L; height++) {
+                if (height < startHeight + 10L || height >= startHeight + 20L) {
+                    BalanceList balanceList = balanceList(height);
+                    blocks.add(block(height, balanceList.getHash()));
+                    if (height == startHeight || height == startHeight + 20L) {
+                        balanceLists.add(balanceList);
+                    }
+                }
+            }
+
+            // Write the same blocks as a version-1 file and as a version-2 file.
+            version1File = File.createTempFile("consolidated_v1", ".nyzoblock");
+            version2File = File.createTempFile("consolidated_v2", ".nyzoblock");
+            if (!BlockManager.writeBlocksToFile(new ArrayList<>(blocks), balanceLists, version1File) ||
+                    !BlockManager.writeBlocksToFile(new ArrayList<>(blocks), balanceLists, version2File, true)) {
+                successful = false;
+                failureCause = "unable to write consolidated files";
+            }
+
+            // The version-2 file must be the version-1 file followed by the height index, so that readers of
+            // version-1 files can read it.
+            byte[] version1Bytes = Files.readAllBytes(version1File.toPath());
+            byte[] version2Bytes = Files.readAllBytes(version2File.toPath());
+            if (successful && (version2Bytes.length != version1Bytes.length + ConsolidatedBlockFile.heightIndexSize ||
+                    !ByteUtil.arraysAreEqual(Arrays.copyOf(version2Bytes, version1Bytes.length), version1Bytes))) {
+                successful = false;
+                failureCause = "version-2 file does not begin with the version-1 file";
+            }
+
+            if (successful && (ConsolidatedBlockFile.hasHeightIndex(version1File) ||
+                    !ConsolidatedBlockFile.hasHeightIndex(version2File))) {
+                successful = false;
+                failureCause = "height index detected incorrectly";
+            }
+
+            // Both files must produce all the blocks, and any range of them, when loaded.
+            if (successful) {
+                successful = checkBlocks(BlockManager.loadBlocksInFile(version1File, startHeight, startHeight + 999L),
+                        blocks, "version-1 file") &&
+                        checkBlocks(BlockManager.loadBlocksInFile(version2File, startHeight, startHeight + 999L),
+                                blocks, "version-2 file") &&
+                        checkBlocks(BlockManager.loadBlocksInFile(version1File, startHeight + 3L, startHeight + 21L),
+                                blocks.subList(3, 12), "range of version-1 file") &&
+                        checkBlocks(BlockManager.loadBlocksInFile(version2File, startHeight + 3L, startHeight + 21L),
+                                blocks.subList(3, 12), "range of version-2 file");
+            }
+
+            // Individual blocks are read from the version-2 file through the index. Heights that are not in the file
+            // return null, and the version-1 file is not read through an index.
+            for (int i = 0; i < blocks.size() && successful; i++) {
+                Block block = ConsolidatedBlockFile.blockForHeight(version2File, blocks.get(i).getBlockHeight(), false);
+                if (block == null || !ByteUtil.arraysAreEqual(block.getHash(), blocks.get(i).getHash())) {
+                    successful = false;
+                    failureCause = "incorrect block read through index at height " + blocks.get(i).getBlockHeight();
+                }
+            }
+            if (successful && (ConsolidatedBlockFile.blockForHeight(version2File, startHeight + 15L, false) != null ||
+                    ConsolidatedBlockFile.blockForHeight(version1File, startHeight, false) != null)) {
+                successful = false;
+                failureCause = "block read from index for missing height or version-1 file";
+            }
+
+            // Without a valid marker, the version-2 file is read as a version-1 file, and the index is ignored.
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(version2File, "rw")) {
+                randomAccessFile.seek(version2File.length() - 1L);
+                randomAccessFile.write(0);
+            }
+            version2File.setLastModified(version2File.lastModified() - 2000L);
+            if (successful && ConsolidatedBlockFile.hasHeightIndex(version2File)) {
+                successful = false;
+                failureCause = "height index detected without marker";
+            }
+            if (successful) {
+                successful = checkBlocks(BlockManager.loadBlocksInFile(version2File, startHeight, startHeight + 999L),
+                        blocks, "version-2 file read as version-1 file");
+            }
+        } catch (Exception e) {
+            failureCause = "exception in " + getClass().getSimpleName() + ": " + PrintUtil.printException(e);
+            successful = false;
+        } finally {
+            if (version1File != null) {
+                version1File.delete();
+            }
+            if (version2File != null) {
+                version2File.delete();
+            }
+        }
+
+        System.out.println(TestUtil.passFail(successful));
+
+        return successful;
+    }
+
+    private boolean checkBlocks(List<Block> actual, List<Block> expected, String description) {
+
+        boolean successful = actual.size() == expected.size();
+        for (int i = 0; i < expected.size() && successful; i++) {
+            successful = ByteUtil.arraysAreEqual(actual.get(i).getHash(), expected.get(i).getHash());
+        }
+
+        if (!successful) {
+            failureCause = "incorrect blocks loaded from " + description + ": " + actual.size() +
+                    " blocks instead of " + expected.size();
+        }
+
+        return successful;
+    }
+
+    private static BalanceList balanceList(long height) {
+
+        List<BalanceListItem> items = new ArrayList<>();
+        byte[] identifier = new byte[FieldByteSize.identifier];
+        identifier[0] = 1;
+        items.add(new BalanceListItem(identifier, Transaction.micronyzosInSystem, (short) 0));
+
+        // The number of previous verifiers is fixed by the height, so the list must have all of them to be read back.
+        List<byte[]> previousVerifiers = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            byte[] verifierIdentifier = new byte[FieldByteSize.identifier];
+            verifierIdentifier[0] = (byte) (i + 2);
+            previousVerifiers.add(verifierIdentifier);
+        }
+
+        return new BalanceList(Block.maximumBlockchainVersion, height, (byte) 0, previousVerifiers, items, 0L, 0L,
+                new HashMap<>(), new ArrayList<>());
+    }
+
+    private static Block block(long height, byte[] balanceListHash) {
+
+        return new Block(Block.maximumBlockchainVersion, height, new byte[FieldByteSize.hash], 0L, height * 7000L,
+                new ArrayList<>(), balanceListHash, new byte[FieldByteSize.identifier],
+                new byte[FieldByteSize.signature], false);
+    }
+
+    public String getFailureCause() {
+        return failureCause;
+    }
+}
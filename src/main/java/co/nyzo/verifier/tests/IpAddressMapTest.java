@@ -0,0 +1,217 @@
+package co.nyzo.verifier.tests;
+
+import co.nyzo.verifier.RunMode;
+import co.nyzo.verifier.util.IpAddressMap;
+import co.nyzo.verifier.util.IpUtil;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class IpAddressMapTest implements NyzoTest {
+
+    private String failureCause = null;
+
+    public static void main(String[] args) {
+
+        RunMode.setRunMode(RunMode.Test);
+        IpAddressMapTest test = new IpAddressMapTest();
+        boolean successful = test.run();
+
+        if (!successful) {
+            System.out.println(TestUtil.failureCause(test.getFailureCause()));
+        }
+    }
+
+    public boolean run() {
+
+        boolean successful = true;
+        try {
+            successful = testAddressConversion() && testAgainstHashMap() && testIpv6Addresses() &&
+                    testConcurrentMerge();
+        } catch (Exception e) {
+            failureCause = "exception in " + getClass().getSimpleName() + ": " + PrintUtil.printException(e);
+            successful = false;
+        }
+
+        System.out.println(TestUtil.passFail(successful));
+
+        return successful;
+    }
+
+    private boolean testAddressConversion() {
+
+        byte[] address = IpUtil.addressFromString("203.0.113.255");
+        int key = IpUtil.addressAsInt(address);
+
+        boolean successful = key == 0xcb0071ff &&
+                IpUtil.addressAsString(IpUtil.addressFromInt(key)).equals("203.0.113.255");
+        if (!successful) {
+            failureCause = "address 203.0.113.255 converted to key " + Integer.toHexString(key);
+        }
+
+        return successful;
+    }
+
+    private boolean testAgainstHashMap() {
+
+        // The addresses are drawn from a few small ranges, as the addresses of a mesh often are, so runs of occupied
+        // slots form and removals must shift entries back. Every operation is checked against a HashMap.
+        Random random = new Random(444);
+        IpAddressMap<Integer> map = new IpAddressMap<>();
+        Map<Integer, Integer> reference = new HashMap<>();
+
+        boolean successful = true;
+        for (int i = 0; i < 200000 && successful; i++) {
+            int key = (random.nextInt(4) << 24) | random.nextInt(2000);
+            byte[] address = IpUtil.addressFromInt(key);
+            int operation = random.nextInt(4);
+            Integer expected;
+            Integer actual;
+            if (operation == 0) {
+                expected = reference.put(key, i);
+                actual = map.put(address, i);
+            } else if (operation == 1) {
+                expected = reference.remove(key);
+                actual = map.remove(address);
+            } else if (operation == 2) {
+                expected = reference.merge(key, 1, Integer::sum);
+                actual = map.merge(address, 1, Integer::sum);
+            } else {
+                expected = reference.get(key);
+                actual = map.get(key);
+            }
+
+            if (expected == null ? actual != null : !expected.equals(actual)) {
+                successful = false;
+                failureCause = "operation " + operation + " on " + IpUtil.addressAsString(address) + " returned " +
+                        actual + " instead of " + expected;
+            } else if (map.size() != reference.size()) {
+                successful = false;
+                failureCause = "map size is " + map.size() + " instead of " + reference.size();
+            }
+        }
+
+        if (successful) {
+            Set<Integer> keys = new HashSet<>();
+            for (byte[] key : map.keys()) {
+                keys.add(IpUtil.addressAsInt(key));
+            }
+            List<Integer> values = map.values();
+            if (!keys.equals(reference.keySet()) || !new HashSet<>(values).equals(new HashSet<>(reference.values()))
+                    || values.size() != reference.size()) {
+                successful = false;
+                failureCause = "keys or values of the map do not match the reference";
+            }
+        }
+
+        return successful;
+    }
+
+    private boolean testIpv6Addresses() {
+
+        // An IPv4-mapped address is the same key as its IPv4 address. Another IPv6 address that ends in the same four
+        // bytes is a different key, and it must not see or change the entry of the IPv4 address.
+        byte[] ipv4Address = IpUtil.addressFromString("203.0.113.7");
+        byte[] mappedAddress = new byte[16];
+        mappedAddress[10] = (byte) 0xff;
+        mappedAddress[11] = (byte) 0xff;
+        System.arraycopy(ipv4Address, 0, mappedAddress, 12, 4);
+        byte[] ipv6Address = new byte[16];
+        ipv6Address[0] = 0x20;
+        ipv6Address[1] = 0x01;
+        ipv6Address[2] = 0x0d;
+        ipv6Address[3] = (byte) 0xb8;
+        System.arraycopy(ipv4Address, 0, ipv6Address, 12, 4);
+
+        IpAddressMap<Integer> map = new IpAddressMap<>();
+        map.put(ipv4Address, 4);
+
+        boolean successful = true;
+        if (!Integer.valueOf(4).equals(map.get(mappedAddress))) {
+            successful = false;
+            failureCause = "IPv4-mapped address did not find the entry of its IPv4 address";
+        } else if (map.containsKey(ipv6Address)) {
+            successful = false;
+            failureCause = "IPv6 address found the entry of the IPv4 address that ends its bytes";
+        }
+
+        if (successful) {
+            map.merge(ipv6Address, 1, Integer::sum);
+            map.merge(ipv6Address, 1, Integer::sum);
+            Set<String> keys = new HashSet<>();
+            for (byte[] key : map.keys()) {
+                keys.add(Arrays.toString(key));
+            }
+            if (!Integer.valueOf(2).equals(map.get(ipv6Address)) || !Integer.valueOf(4).equals(map.get(ipv4Address))
+                    || map.size() != 2 || map.values().size() != 2 ||
+                    !keys.equals(new HashSet<>(Arrays.asList(Arrays.toString(ipv4Address),
+                            Arrays.toString(ipv6Address))))) {
+                successful = false;
+                failureCause = "IPv6 entry is not separate from the IPv4 entry";
+            }
+        }
+
+        if (successful) {
+            map.remove(ipv6Address);
+            map.remove(mappedAddress);
+            if (!map.isEmpty()) {
+                successful = false;
+                failureCause = map.size() + " entries remained after removing the IPv4 and IPv6 addresses";
+            }
+        }
+
+        return successful;
+    }
+
+    private boolean testConcurrentMerge() throws Exception {
+
+        // Several threads increment and decrement counters for the same addresses, as MeshListener does when
+        // connections are opened and closed. Each thread makes as many decrements as increments, so all entries should
+        // be removed when the threads finish.
+        IpAddressMap<Integer> map = new IpAddressMap<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int seed = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int j = 0; j < 50000; j++) {
+                        byte[] address = IpUtil.addressFromInt(0x0a000000 | random.nextInt(64));
+                        map.merge(address, 1, IpAddressMapTest::sumOrNull);
+                        map.merge(address, -1, IpAddressMapTest::sumOrNull);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        boolean successful = map.isEmpty();
+        if (!successful) {
+            failureCause = map.size() + " entries remained after concurrent merges";
+        }
+
+        return successful;
+    }
+
+    private static Integer sumOrNull(Integer value0, Integer value1) {
+        int sum = value0 + value1;
+        return sum == 0 ? null : sum;
+    }
+
+    public String getFailureCause() {
+        return failureCause;
+    }
+}
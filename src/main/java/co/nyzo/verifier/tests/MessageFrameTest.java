@@ -0,0 +1,113 @@
+package co.nyzo.verifier.tests;
+
+import co.nyzo.verifier.*;
+import co.nyzo.verifier.messages.PingResponse;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class MessageFrameTest implements NyzoTest {
+
+    private String failureCause = null;
+
+    public static void main(String[] args) {
+
+        RunMode.setRunMode(RunMode.Test);
+        MessageFrameTest test = new MessageFrameTest();
+        boolean successful = test.run();
+
+        if (!successful) {
+            System.out.println(TestUtil.failureCause(test.getFailureCause()));
+        }
+    }
+
+    public boolean run() {
+
+        boolean successful = true;
+        try {
+            successful = testConsecutiveMessages() && testIncompleteMessage() && testOversizedLength();
+        } catch (Exception e) {
+            failureCause = "exception in " + getClass().getSimpleName() + ": " + PrintUtil.printException(e);
+            successful = false;
+        }
+
+        System.out.println(TestUtil.passFail(successful));
+
+        return successful;
+    }
+
+    private boolean testConsecutiveMessages() throws Exception {
+
+        // A small message, a message larger than the retained read buffer, and another small message are written to
+        // one stream, as they would be on a kept connection. Each should be read in full, without reading into the
+        // next.
+        char[] largeText = new char[60000];
+        Arrays.fill(largeText, 'n');
+        String[] texts = { "first", new String(largeText), "third" };
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (String text : texts) {
+            outputStream.write(new Message(MessageType.PingResponse201, new PingResponse(text))
+                    .getBytesForTransmission());
+        }
+
+        boolean successful = true;
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        for (int i = 0; i < texts.length && successful; i++) {
+            Message message = Message.readFromStream(inputStream, new byte[FieldByteSize.ipAddress],
+                    MessageType.IncomingRequest65533);
+            if (message == null || message.getType() != MessageType.PingResponse201 ||
+                    !texts[i].equals(String.valueOf(message.getContent()))) {
+                successful = false;
+                failureCause = "message " + i + " of the stream was not read correctly: " + message;
+            }
+        }
+
+        if (successful && inputStream.available() != 0) {
+            successful = false;
+            failureCause = inputStream.available() + " bytes remained after reading all messages";
+        }
+
+        return successful;
+    }
+
+    private boolean testIncompleteMessage() {
+
+        // The stream ends before the number of bytes specified by the length field.
+        byte[] bytes = new Message(MessageType.PingResponse201, new PingResponse("incomplete"))
+                .getBytesForTransmission();
+        Message message = Message.readFromStream(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)),
+                new byte[FieldByteSize.ipAddress], MessageType.IncomingRequest65533);
+
+        boolean successful = message == null;
+        if (!successful) {
+            failureCause = "an incomplete message was read as " + message;
+        }
+
+        return successful;
+    }
+
+    private boolean testOversizedLength() {
+
+        // A length greater than the maximum message size should be rejected without reading past the length field.
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.putInt(4 * 1024 * 1024 + 1);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(buffer.array());
+        Message message = Message.readFromStream(inputStream, new byte[FieldByteSize.ipAddress],
+                MessageType.IncomingRequest65533);
+
+        boolean successful = message == null && inputStream.available() == 96;
+        if (!successful) {
+            failureCause = "oversized length produced message " + message + " with " + inputStream.available() +
+                    " bytes remaining";
+        }
+
+        return successful;
+    }
+
+    public String getFailureCause() {
+        return failureCause;
+    }
+}
@@ -3,4 +3,10 @@ package co.nyzo.verifier.tests;
 public interface NyzoTest {
     boolean run();
     String getFailureCause();
+
+    // A test that needs data that is not available does not fail the suite, but it reports that it was skipped so
+    // that it is not counted as a pass.
+    default boolean wasSkipped() {
+        return false;
+    }
 }
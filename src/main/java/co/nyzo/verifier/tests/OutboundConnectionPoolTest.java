@@ -0,0 +1,213 @@
+package co.nyzo.verifier.tests;
+
+import co.nyzo.verifier.*;
+import co.nyzo.verifier.messages.PingResponse;
+import co.nyzo.verifier.util.PrintUtil;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OutboundConnectionPoolTest implements NyzoTest {
+
+    private static final int numberOfRequests = 200;
+
+    private String failureCause = null;
+
+    public static void main(String[] args) {
+
+        RunMode.setRunMode(RunMode.Test);
+        OutboundConnectionPoolTest test = new OutboundConnectionPoolTest();
+        boolean successful = test.run();
+
+        if (!successful) {
+            System.out.println(TestUtil.failureCause(test.getFailureCause()));
+        }
+    }
+
+    public boolean run() {
+
+        // A local listener stands in for the second node. With a listener that keeps connections open, sequential
+        // requests should share a single connection. With a listener that closes the connection after each response,
+        // as the thread-per-connection mesh listener does, every request should still receive a response. Finally,
+        // the requests are sent to the selector mesh listener itself, which should keep the connection open.
+        boolean successful = true;
+        try {
+            successful = runRequests(true) && runRequests(false) && runSelectorListenerRequests();
+        } catch (Exception e) {
+            failureCause = "exception in " + getClass().getSimpleName() + ": " + PrintUtil.printException(e);
+            successful = false;
+        }
+
+        System.out.println(TestUtil.passFail(successful));
+
+        return successful;
+    }
+
+    private boolean runRequests(boolean keepAlive) throws Exception {
+
+        boolean successful = true;
+        AtomicInteger numberOfConnections = new AtomicInteger(0);
+        ServerSocket serverSocket = new ServerSocket(0);
+        startListener(serverSocket, keepAlive, numberOfConnections);
+
+        // Send the requests one at a time and wait for each response so that the round trip is measured without
+        // queueing.
+        AtomicInteger numberOfResponses = new AtomicInteger(0);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < numberOfRequests && successful; i++) {
+            CountDownLatch latch = new CountDownLatch(1);
+            Message.fetchTcp("127.0.0.1", serverSocket.getLocalPort(), new Message(MessageType.Ping200, null),
+                    new MessageCallback() {
+                        @Override
+                        public void responseReceived(Message message) {
+                            if (message != null && message.getType() == MessageType.PingResponse201) {
+                                numberOfResponses.incrementAndGet();
+                            }
+                            latch.countDown();
+                        }
+                    });
+
+            if (!latch.await(5L, TimeUnit.SECONDS)) {
+                successful = false;
+                failureCause = "no callback for request " + i + " with keep-alive " + keepAlive;
+            }
+        }
+        double averageRoundTrip = (System.nanoTime() - startTime) / 1000000.0 / numberOfRequests;
+        serverSocket.close();
+
+        if (successful && numberOfResponses.get() != numberOfRequests) {
+            successful = false;
+            failureCause = "received " + numberOfResponses.get() + " responses for " + numberOfRequests +
+                    " requests with keep-alive " + keepAlive;
+        }
+
+        if (successful && keepAlive && numberOfConnections.get() != 1) {
+            successful = false;
+            failureCause = "expected 1 connection with keep-alive, but " + numberOfConnections.get() +
+                    " connections were opened";
+        }
+
+        if (successful) {
+            System.out.println(String.format("keep-alive %s: %d requests, %d connections, average round trip " +
+                    "%.3f ms", keepAlive, numberOfRequests, numberOfConnections.get(), averageRoundTrip));
+        }
+
+        return successful;
+    }
+
+    private boolean runSelectorListenerRequests() throws Exception {
+
+        // The listener runs on a daemon thread, so it does not keep the test from exiting. An ephemeral port is used,
+        // and the listener records the port when it is bound.
+        Thread listenerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SelectorMeshListener.run(0);
+                } catch (Exception ignored) { }
+            }
+        }, "OutboundConnectionPoolTest-selectorListener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+
+        for (int i = 0; i < 100 && MeshListener.getPortTcp() == 0; i++) {
+            Thread.sleep(20L);
+        }
+        int port = MeshListener.getPortTcp();
+
+        boolean successful = port > 0;
+        if (!successful) {
+            failureCause = "selector mesh listener did not start";
+        }
+
+        long newConnections = OutboundConnectionPool.getNumberOfNewConnections();
+        long retries = OutboundConnectionPool.getNumberOfRetries();
+        AtomicInteger numberOfResponses = new AtomicInteger(0);
+        for (int i = 0; i < 20 && successful; i++) {
+            CountDownLatch latch = new CountDownLatch(1);
+            Message.fetchTcp("127.0.0.1", port, new Message(MessageType.Ping200, null), new MessageCallback() {
+                @Override
+                public void responseReceived(Message message) {
+                    if (message != null && message.getType() == MessageType.PingResponse201) {
+                        numberOfResponses.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            });
+
+            if (!latch.await(5L, TimeUnit.SECONDS)) {
+                successful = false;
+                failureCause = "no callback for request " + i + " to selector mesh listener";
+            }
+        }
+
+        // All requests should be answered on one connection, without a failed attempt to reuse it.
+        newConnections = OutboundConnectionPool.getNumberOfNewConnections() - newConnections;
+        retries = OutboundConnectionPool.getNumberOfRetries() - retries;
+        if (successful && (numberOfResponses.get() != 20 || newConnections != 1 || retries != 0)) {
+            successful = false;
+            failureCause = "selector mesh listener: " + numberOfResponses.get() + " responses for 20 requests, " +
+                    newConnections + " connections, " + retries + " retries";
+        }
+
+        return successful;
+    }
+
+    private static void startListener(ServerSocket serverSocket, boolean keepAlive,
+                                      AtomicInteger numberOfConnections) {
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        numberOfConnections.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                respond(socket, keepAlive);
+                            }
+                        }).start();
+                    } catch (Exception ignored) { }
+                }
+            }
+        }, "OutboundConnectionPoolTest-listener").start();
+    }
+
+    private static void respond(Socket socket, boolean keepAlive) {
+
+        try {
+            InputStream inputStream = socket.getInputStream();
+            OutputStream outputStream = socket.getOutputStream();
+            boolean open = true;
+            while (open) {
+                Message message = Message.readFromStream(inputStream, new byte[FieldByteSize.ipAddress],
+                        MessageType.IncomingRequest65533);
+                if (message == null) {
+                    open = false;
+                } else {
+                    Message response = new Message(MessageType.PingResponse201, new PingResponse("test"));
+                    outputStream.write(response.getBytesForTransmission());
+                    outputStream.flush();
+                    open = keepAlive;
+                }
+            }
+        } catch (Exception ignored) { }
+
+        // The socket is closed directly. ConnectionManager would start its close thread, which does not end until the
+        // verifier terminates, and the test would then not exit.
+        try {
+            socket.close();
+        } catch (Exception ignored) { }
+    }
+
+    public String getFailureCause() {
+        return failureCause;
+    }
+}
@@ -11,31 +11,49 @@ public class TestUtil {
     private static final String failureDark = ConsoleColor.Red.background() + ConsoleColor.White.bright();
     private static final String failureLight = ConsoleColor.Red.backgroundBright() + ConsoleColor.Black;
 
+    private static final String skipDark = ConsoleColor.Yellow.background() + ConsoleColor.Black;
+    private static final String skipLight = ConsoleColor.Yellow.backgroundBright() + ConsoleColor.Black;
+
     public static void main(String[] args) {
 
         RunMode.setRunMode(RunMode.Test);
         NyzoTest[] tests = {
+                new BalanceListDerivationTest(),
+                new BalanceListSnapshotTest(),
+                new ChainReplayTest(),
                 new ClientArgumentUtilTest(),
                 new ClientNodeManagerTest(),
                 new CommandManagerTest(),
+                new ConsolidatedBlockFileTest(),
+                new IpAddressMapTest(),
                 new IpUtilTest(),
                 new JsonTest(),
+                new MessageFrameTest(),
                 new NyzoScriptStateTest(),
                 new NyzoStringTest(),
+                new OutboundConnectionPoolTest(),
                 new ShortLongTest(),
                 new TransactionIndexerTest()
         };
 
         boolean successful = true;
+        int numberOfSkippedTests = 0;
         for (int i = 0; i < tests.length && successful; i++) {
             successful = tests[i].run();
             if (!successful) {
                 System.out.println(failureCause(tests[i].getFailureCause()));
+            } else if (tests[i].wasSkipped()) {
+                numberOfSkippedTests++;
             }
         }
 
         if (successful) {
-            System.out.println(successDark + "++ALL TESTS PASSED++" + ConsoleColor.reset);
+            if (numberOfSkippedTests == 0) {
+                System.out.println(successDark + "++ALL TESTS PASSED++" + ConsoleColor.reset);
+            } else {
+                System.out.println(skipDark + "++ALL TESTS PASSED OR SKIPPED++" + skipLight + " " +
+                        numberOfSkippedTests + " skipped " + ConsoleColor.reset);
+            }
         }
     }
 
@@ -55,6 +73,15 @@ public class TestUtil {
         return result;
     }
 
+    public static String skipped(String reason) {
+
+        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        String[] fullClassName =  stackTrace[2].getClassName().split("\\.");
+        String methodDescription = fullClassName[fullClassName.length - 1] + "." + stackTrace[2].getMethodName() + "()";
+
+        return skipDark + "~~SKIP~~" + skipLight + " " + methodDescription + ": " + reason + " " + ConsoleColor.reset;
+    }
+
     public static String failureCause(String failureCause) {
         return failureDark + "failure cause: " + failureCause + ConsoleColor.reset;
     }
@@ -56,12 +56,24 @@ public class TransactionIndexerTest implements NyzoTest {
             coverageFileMethod.setAccessible(true);
             File blockCoverageFile = (File) coverageFileMethod.invoke(transactionIndexerClass);
 
+            // Get the paths of the segment files. Entries for accounts that already have index files are appended to
+            // these files and later merged into the index files.
+            Method segmentFileMethod = transactionIndexerClass.getDeclaredMethod("segmentFileForAccount",
+                    (new byte[0]).getClass());
+            segmentFileMethod.setAccessible(true);
+            File segmentFileSender = (File) segmentFileMethod.invoke(transactionIndexerClass,
+                    (Object) senderIdentifier);
+            File segmentFileReceiver = (File) segmentFileMethod.invoke(transactionIndexerClass,
+                    (Object) receiverIdentifier);
+
             // Delete all files for a clean test. These files use a special path for the Test run mode.
             indexFileSender.delete();
             indexFileReceiver.delete();
             listFileSender.delete();
             listFileReceiver.delete();
             blockCoverageFile.delete();
+            segmentFileSender.delete();
+            segmentFileReceiver.delete();
 
             // Ensure that the getLastHeightFromCoverageFile() method produces -1 before the first block is indexed.
             Method lastHeightMethod = TransactionIndexer.class.getDeclaredMethod("getLastHeightFromCoverageFile");
@@ -105,6 +117,11 @@ public class TransactionIndexerTest implements NyzoTest {
                 successful = checkBlockCoverageFile(blockCoverageFile);
             }
 
+            // Check appending to and merging of the segment files.
+            if (successful) {
+                successful = checkSegmentMerge(transactions, indexFileSender, segmentFileSender, segmentFileReceiver);
+            }
+
             // Delete all files to avoid contaminating the environment. These files use a special path for the Test run
             // mode.
             indexFileSender.delete();
@@ -112,6 +129,8 @@ public class TransactionIndexerTest implements NyzoTest {
             listFileSender.delete();
             listFileReceiver.delete();
             blockCoverageFile.delete();
+            segmentFileSender.delete();
+            segmentFileReceiver.delete();
 
         } catch (Exception e) {
             failureCause = "exception in TransactionIndexManagerTest: " + PrintUtil.printException(e);
@@ -371,6 +390,176 @@ public class TransactionIndexerTest implements NyzoTest {
         return successful;
     }
 
+    private boolean checkSegmentMerge(List<Transaction> transactions, File indexFileSender, File segmentFileSender,
+                                      File segmentFileReceiver) throws Exception {
+
+        // Create 5 more transactions with timestamps between the timestamps of the first 10 transactions, and register
+        // them in block 1. The accounts already have index files, so these entries are appended to the segment files.
+        List<Transaction> allTransactions = new ArrayList<>(transactions);
+        Random random = new Random(59);
+        for (int i = 0; i < 5; i++) {
+            long timestamp = i * 20 + 5;
+            byte[] previousBlockHash = new byte[FieldByteSize.hash];
+            random.nextBytes(previousBlockHash);
+            byte[] senderData = new byte[random.nextInt(32)];
+            random.nextBytes(senderData);
+            byte[] signature = new byte[FieldByteSize.signature];
+            random.nextBytes(signature);
+
+            allTransactions.add(Transaction.standardTransaction(timestamp, random.nextLong(), receiverIdentifier,
+                    random.nextLong(), previousBlockHash, senderIdentifier, senderData, signature));
+        }
+        Block block = new Block(0, 1, new byte[FieldByteSize.hash], 0, allTransactions.subList(10, 15),
+                new byte[FieldByteSize.hash]);
+        TransactionIndexer.indexTransactionsForBlock(block);
+
+        boolean successful = true;
+        if (!segmentFileSender.exists() || !segmentFileReceiver.exists()) {
+            successful = false;
+            failureCause = "in checkSegmentMerge(), segment files were not written";
+        }
+
+        // The lookup must include the entries of both the index files and the segment files.
+        if (successful) {
+            successful = checkTransactionLookup(allTransactions, senderIdentifier, "sender before merge");
+        }
+        if (successful) {
+            successful = checkTransactionLookup(allTransactions, receiverIdentifier, "receiver before merge");
+        }
+
+        // Merge the segment files. After the merge, the segment files should not exist, and the index files should
+        // contain all entries in timestamp order.
+        if (successful) {
+            Method mergeMethod = TransactionIndexer.class.getDeclaredMethod("mergeSegmentForAccount",
+                    (new byte[0]).getClass());
+            mergeMethod.setAccessible(true);
+            mergeMethod.invoke(null, (Object) senderIdentifier);
+            mergeMethod.invoke(null, (Object) receiverIdentifier);
+
+            if (segmentFileSender.exists() || segmentFileReceiver.exists()) {
+                successful = false;
+                failureCause = "in checkSegmentMerge(), segment files were not removed by merge";
+            }
+        }
+        if (successful) {
+            byte[] fileArray = Files.readAllBytes(Paths.get(indexFileSender.getAbsolutePath()));
+            ByteBuffer fileBuffer = ByteBuffer.wrap(fileArray);
+            long previousTimestamp = -1L;
+            for (int i = 0; i < allTransactions.size() && successful; i++) {
+                fileBuffer.position(i * 29);
+                long timestamp = fileBuffer.getLong();
+                if (timestamp < previousTimestamp) {
+                    successful = false;
+                    failureCause = "in checkSegmentMerge(), index file is not ordered on timestamp at entry " + i;
+                }
+                previousTimestamp = timestamp;
+            }
+            if (successful && fileArray.length != allTransactions.size() * 29) {
+                successful = false;
+                failureCause = "in checkSegmentMerge(), expected " + allTransactions.size() * 29 + " bytes in index " +
+                        "file, got " + fileArray.length;
+            }
+        }
+        if (successful) {
+            successful = checkTransactionLookup(allTransactions, senderIdentifier, "sender after merge");
+        }
+        if (successful) {
+            successful = checkTransactionLookup(allTransactions, receiverIdentifier, "receiver after merge");
+        }
+
+        // Check a lookup with a timestamp range. This uses the binary search of the index file.
+        if (successful) {
+            List<Transaction> retrievedTransactions = TransactionIndexer.transactionsForAccount(senderIdentifier,
+                    new byte[0], "", 20L, 60L, -1L, -1L);
+            List<Long> retrievedTimestamps = new ArrayList<>();
+            for (Transaction transaction : retrievedTransactions) {
+                retrievedTimestamps.add(transaction.getTimestamp());
+            }
+            List<Long> expectedTimestamps = Arrays.asList(60L, 50L, 45L, 40L, 30L, 25L, 20L);
+            if (!retrievedTimestamps.equals(expectedTimestamps)) {
+                successful = false;
+                failureCause = "in checkSegmentMerge(), expected timestamps " + expectedTimestamps + " for range " +
+                        "lookup, got " + retrievedTimestamps;
+            }
+        }
+
+        // Check the tiers of runs.
+        if (successful) {
+            successful = checkRunTiers(allTransactions, indexFileSender);
+        }
+
+        return successful;
+    }
+
+    private boolean checkRunTiers(List<Transaction> allTransactions, File indexFileSender) throws Exception {
+
+        Method runFileMethod = TransactionIndexer.class.getDeclaredMethod("runFileForAccount",
+                (new byte[0]).getClass(), int.class);
+        runFileMethod.setAccessible(true);
+        File runFileSender = (File) runFileMethod.invoke(null, senderIdentifier, 1);
+        File runFileReceiver = (File) runFileMethod.invoke(null, receiverIdentifier, 1);
+        Method mergeMethod = TransactionIndexer.class.getDeclaredMethod("mergeSegmentForAccount",
+                (new byte[0]).getClass());
+        mergeMethod.setAccessible(true);
+
+        // A segment of 1 entry is much smaller than the index of 15 entries, so it is left as a run above the index.
+        List<Transaction> transactions = new ArrayList<>(allTransactions);
+        indexAndMergeTransactions(transactions, 200L, 1, 2L, mergeMethod);
+        boolean successful = true;
+        if (!runFileSender.exists() || indexFileSender.length() != 15 * 29) {
+            successful = false;
+            failureCause = "in checkRunTiers(), small segment was not left as a separate run";
+        }
+        if (successful) {
+            successful = checkTransactionLookup(transactions, senderIdentifier, "sender with run");
+        }
+
+        // A segment of 4 entries is merged with the run of 1 entry, and the resulting run of 5 entries is merged into
+        // the index.
+        if (successful) {
+            indexAndMergeTransactions(transactions, 201L, 4, 3L, mergeMethod);
+        }
+        if (successful && (runFileSender.exists() || indexFileSender.length() != 20 * 29)) {
+            successful = false;
+            failureCause = "in checkRunTiers(), runs were not merged into the index file";
+        }
+        if (successful) {
+            successful = checkTransactionLookup(transactions, senderIdentifier, "sender after run merge");
+        }
+        if (successful) {
+            successful = checkTransactionLookup(transactions, receiverIdentifier, "receiver after run merge");
+        }
+
+        runFileSender.delete();
+        runFileReceiver.delete();
+
+        return successful;
+    }
+
+    private static void indexAndMergeTransactions(List<Transaction> transactions, long firstTimestamp,
+                                                  int numberOfTransactions, long height, Method mergeMethod)
+            throws Exception {
+
+        Random random = new Random(height);
+        List<Transaction> newTransactions = new ArrayList<>();
+        for (int i = 0; i < numberOfTransactions; i++) {
+            byte[] previousBlockHash = new byte[FieldByteSize.hash];
+            random.nextBytes(previousBlockHash);
+            byte[] senderData = new byte[random.nextInt(32)];
+            random.nextBytes(senderData);
+            byte[] signature = new byte[FieldByteSize.signature];
+            random.nextBytes(signature);
+            newTransactions.add(Transaction.standardTransaction(firstTimestamp + i, random.nextLong(),
+                    receiverIdentifier, random.nextLong(), previousBlockHash, senderIdentifier, senderData,
+                    signature));
+        }
+        transactions.addAll(newTransactions);
+        TransactionIndexer.indexTransactionsForBlock(new Block(0, height, new byte[FieldByteSize.hash], 0,
+                newTransactions, new byte[FieldByteSize.hash]));
+        mergeMethod.invoke(null, (Object) senderIdentifier);
+        mergeMethod.invoke(null, (Object) receiverIdentifier);
+    }
+
     private boolean checkBlockCoverageFile(File file) {
 
         // These are the heights that will be registered. Height 0 is already registered.
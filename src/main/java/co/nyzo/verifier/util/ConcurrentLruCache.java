@@ -0,0 +1,101 @@
+package co.nyzo.verifier.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// This is a bounded, thread-safe cache with least-recently-used eviction. The entries are spread over a number of
+// independently locked segments, each an access-ordered LinkedHashMap, so concurrent callers rarely contend for the same
+// lock, and each lock is only held for a single map operation. Eviction is per segment, so the entry evicted is the
+// least-recently-used entry of its segment, not necessarily of the entire cache.
+public class ConcurrentLruCache<K, V> {
+
+    private static final int defaultNumberOfSegments = 16;
+
+    private final Segment<K, V>[] segments;
+
+    public ConcurrentLruCache(int maximumSize) {
+        this(maximumSize, defaultNumberOfSegments);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruCache(int maximumSize, int numberOfSegments) {
+
+        // The number of segments is rounded up to a power of two so the segment can be selected with a mask.
+        int segmentCount = numberOfSegments <= 1 ? 1 : Integer.highestOneBit(numberOfSegments - 1) << 1;
+        int maximumSegmentSize = Math.max(1, (maximumSize + segmentCount - 1) / segmentCount);
+        segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(maximumSegmentSize);
+        }
+    }
+
+    public V get(K key) {
+
+        Segment<K, V> segment = segmentForKey(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public void put(K key, V value) {
+
+        Segment<K, V> segment = segmentForKey(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public void remove(K key) {
+
+        Segment<K, V> segment = segmentForKey(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public int size() {
+
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    public void clear() {
+
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment<K, V> segmentForKey(K key) {
+
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        Segment(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maximumSize;
+        }
+    }
+}
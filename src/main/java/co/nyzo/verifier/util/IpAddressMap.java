@@ -0,0 +1,350 @@
+package co.nyzo.verifier.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+
+// This is a thread-safe map keyed by IP address. An IPv4 address is stored as a primitive int in open-addressed arrays,
+// so lookups neither wrap the address nor box the key, and they produce no garbage. As in ConcurrentLruCache, the
+// entries are spread over independently locked segments, and each lock is only held for a single operation. Lookups do
+// not take the lock; they read the segment optimistically and are only repeated under the read lock if the segment
+// changed during the lookup. Values may not be null; a merge function that returns null removes the entry, as with
+// ConcurrentHashMap.merge().
+//
+// An IPv4-mapped IPv6 address is the same key as the IPv4 address it contains. Any other address, such as that of a
+// client connecting over IPv6, is stored by its full bytes in a separate ConcurrentHashMap, so it never shares an entry
+// with an IPv4 address.
+public class IpAddressMap<V> {
+
+    private static final int numberOfSegments = 64;  // selected by the top six bits of the hash
+    private static final int initialSegmentCapacity = 8;
+
+    private final Segment[] segments;
+    private final Map<ByteBuffer, V> otherAddresses = new ConcurrentHashMap<>();
+
+    public IpAddressMap() {
+
+        segments = new Segment[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public V get(byte[] ipAddress) {
+        return IpUtil.isIpv4(ipAddress) ? get(IpUtil.addressAsInt(ipAddress)) :
+                otherAddresses.get(ByteBuffer.wrap(ipAddress));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int ipAddress) {
+
+        int hash = hash(ipAddress);
+        Segment segment = segmentForHash(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        Object value = segment.get(ipAddress, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                value = segment.get(ipAddress, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+
+        return (V) value;
+    }
+
+    public boolean containsKey(byte[] ipAddress) {
+        return get(ipAddress) != null;
+    }
+
+    public boolean containsKey(int ipAddress) {
+        return get(ipAddress) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(byte[] ipAddress, V value) {
+
+        if (!IpUtil.isIpv4(ipAddress)) {
+            return otherAddresses.put(key(ipAddress), value);
+        }
+
+        int key = IpUtil.addressAsInt(ipAddress);
+        int hash = hash(key);
+        Segment segment = segmentForHash(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            return (V) segment.put(key, hash, value, false);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(byte[] ipAddress, V value) {
+
+        if (!IpUtil.isIpv4(ipAddress)) {
+            return otherAddresses.putIfAbsent(key(ipAddress), value);
+        }
+
+        int key = IpUtil.addressAsInt(ipAddress);
+        int hash = hash(key);
+        Segment segment = segmentForHash(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            return (V) segment.put(key, hash, value, true);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    public V remove(byte[] ipAddress) {
+        return IpUtil.isIpv4(ipAddress) ? remove(IpUtil.addressAsInt(ipAddress)) :
+                otherAddresses.remove(ByteBuffer.wrap(ipAddress));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int ipAddress) {
+
+        int hash = hash(ipAddress);
+        Segment segment = segmentForHash(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            return (V) segment.remove(ipAddress, hash);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    // If the address is not present, the value is stored. Otherwise, the function is applied to the current value and
+    // the provided value, and the result is stored, or the entry is removed if the result is null. The function is
+    // called while the segment is locked, so it must not use the map.
+    @SuppressWarnings("unchecked")
+    public V merge(byte[] ipAddress, V value, BiFunction<? super V, ? super V, ? extends V> function) {
+
+        if (!IpUtil.isIpv4(ipAddress)) {
+            return otherAddresses.merge(key(ipAddress), value, function);
+        }
+
+        int key = IpUtil.addressAsInt(ipAddress);
+        int hash = hash(key);
+        Segment segment = segmentForHash(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            V currentValue = (V) segment.get(key, hash);
+            V newValue = currentValue == null ? value : function.apply(currentValue, value);
+            if (newValue == null) {
+                segment.remove(key, hash);
+            } else {
+                segment.put(key, hash, newValue, false);
+            }
+
+            return newValue;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    // The segment sizes are read without locking, so these are cheap enough to call for every message.
+    public int size() {
+
+        int size = otherAddresses.size();
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+
+        return size;
+    }
+
+    public boolean isEmpty() {
+
+        if (!otherAddresses.isEmpty()) {
+            return false;
+        }
+
+        for (Segment segment : segments) {
+            if (segment.size > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // The following methods return copies. Each segment is copied under its lock, but the map may change between
+    // segments, so the result is not a snapshot of the entire map at a single point in time. IPv4 addresses are
+    // returned as four-byte arrays, and other addresses are returned as they were stored.
+    public List<byte[]> keys() {
+
+        List<byte[]> keys = new ArrayList<>();
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                for (int i = 0; i < segment.values.length; i++) {
+                    if (segment.values[i] != null) {
+                        keys.add(IpUtil.addressFromInt(segment.keys[i]));
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        for (ByteBuffer key : otherAddresses.keySet()) {
+            keys.add(key.array().clone());
+        }
+
+        return keys;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+
+        List<V> values = new ArrayList<>();
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                for (Object value : segment.values) {
+                    if (value != null) {
+                        values.add((V) value);
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        values.addAll(otherAddresses.values());
+
+        return values;
+    }
+
+    private static ByteBuffer key(byte[] ipAddress) {
+
+        // The address is copied for storage so that later changes to the caller's array do not change the key.
+        return ByteBuffer.wrap(ipAddress.clone());
+    }
+
+    private static int hash(int ipAddress) {
+
+        // Addresses that share a prefix differ only in their low bits, so the bits are mixed before the segment and
+        // slot are selected.
+        int hash = ipAddress * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private Segment segmentForHash(int hash) {
+        return segments[hash >>> 26];
+    }
+
+    // This is a linear-probing table. An empty slot is marked by a null value, so no key value is reserved, and removal
+    // shifts the following entries back instead of leaving markers. The table is kept at most half full.
+    private static class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private int[] keys = new int[initialSegmentCapacity];
+        private Object[] values = new Object[initialSegmentCapacity];
+        private volatile int size = 0;
+
+        Object get(int key, int hash) {
+
+            // For an optimistic lookup, the arrays may be replaced or modified while they are read. Each array is read
+            // once, a mismatch in lengths means a resize is in progress, and the probe is limited to the length of the
+            // table, so the lookup always ends. Any result it produces is discarded if the segment changed.
+            Object[] values = this.values;
+            int[] keys = this.keys;
+            if (keys.length == values.length) {
+                int mask = values.length - 1;
+                int i = hash & mask;
+                Object value;
+                for (int probes = 0; probes < values.length && (value = values[i]) != null; probes++) {
+                    if (keys[i] == key) {
+                        return value;
+                    }
+                    i = (i + 1) & mask;
+                }
+            }
+
+            return null;
+        }
+
+        Object put(int key, int hash, Object value, boolean onlyIfAbsent) {
+
+            if (value == null) {
+                throw new NullPointerException("null values are not supported");
+            }
+
+            int mask = values.length - 1;
+            int i = hash & mask;
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    Object previousValue = values[i];
+                    if (!onlyIfAbsent) {
+                        values[i] = value;
+                    }
+                    return previousValue;
+                }
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = key;
+            values[i] = value;
+            size++;
+            if (size * 2 > values.length) {
+                resize();
+            }
+
+            return null;
+        }
+
+        Object remove(int key, int hash) {
+
+            int mask = values.length - 1;
+            int i = hash & mask;
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+
+            Object previousValue = values[i];
+            if (previousValue != null) {
+                values[i] = null;
+                size--;
+
+                // Move back each following entry of the run that would no longer be reachable from its home slot.
+                int j = i;
+                while (values[j = (j + 1) & mask] != null) {
+                    int home = hash(keys[j]) & mask;
+                    if (((j - home) & mask) >= ((j - i) & mask)) {
+                        keys[i] = keys[j];
+                        values[i] = values[j];
+                        values[j] = null;
+                        i = j;
+                    }
+                }
+            }
+
+            return previousValue;
+        }
+
+        private void resize() {
+
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new Object[oldValues.length * 2];
+            int mask = values.length - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int j = hash(oldKeys[i]) & mask;
+                    while (values[j] != null) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+}
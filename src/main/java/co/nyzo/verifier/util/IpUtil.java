@@ -37,6 +37,35 @@ public class IpUtil {
         return (address[0] & 0xff) + "." + (address[1] & 0xff) + "." + (address[2] & 0xff) + "." + (address[3] & 0xff);
     }
 
+    // This returns true for a four-byte IPv4 address and for an IPv4-mapped IPv6 address (::ffff:a.b.c.d). Only these
+    // addresses can be packed into an int with addressAsInt().
+    public static boolean isIpv4(byte[] address) {
+
+        boolean ipv4 = address.length == 4;
+        if (address.length == 16) {
+            ipv4 = address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+            for (int i = 0; i < 10 && ipv4; i++) {
+                ipv4 = address[i] == 0;
+            }
+        }
+
+        return ipv4;
+    }
+
+    // This packs an IPv4 address into an int, most significant byte first. For an IPv4-mapped IPv6 address, the last
+    // four bytes are used. Other addresses must not be passed to this method; see isIpv4().
+    public static int addressAsInt(byte[] address) {
+
+        int offset = address.length - 4;
+        return ((address[offset] & 0xff) << 24) | ((address[offset + 1] & 0xff) << 16) |
+                ((address[offset + 2] & 0xff) << 8) | (address[offset + 3] & 0xff);
+    }
+
+    public static byte[] addressFromInt(int address) {
+
+        return new byte[] { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address };
+    }
+
     public static boolean isPrivate(byte[] address) {
 
         // 10.0.0.0/8, 172.16.0.0/12, 192.168.0.0/16
@@ -9,13 +9,31 @@ import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
 
 import java.nio.ByteBuffer;
 import java.security.*;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SignatureUtil {
 
-    private static final Map<ByteBuffer, EdDSAEngine> seedToSignatureMap = new HashMap<>();
-    private static final Map<ByteBuffer, EdDSAEngine> identifierToSignatureMap = new HashMap<>();
+    // Decoding a public key is the expensive part of preparing for verification, so decoded keys are cached. Key objects
+    // are immutable, so they are shared by all threads. The engines are not thread-safe, so each thread has its own
+    // signing and verification engines, and signing and verification proceed concurrently on all cores.
+    private static final int maximumPublicKeyCacheSize = 20000;
+    private static final ConcurrentLruCache<ByteBuffer, PublicKey> identifierToPublicKeyCache =
+            new ConcurrentLruCache<>(maximumPublicKeyCacheSize);
+    private static final Map<ByteBuffer, PrivateKey> seedToPrivateKeyMap = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<EdDSAEngine> signingEngine = new ThreadLocal<EdDSAEngine>() {
+        @Override
+        protected EdDSAEngine initialValue() {
+            return newEngine();
+        }
+    };
+    private static final ThreadLocal<EdDSAEngine> verificationEngine = new ThreadLocal<EdDSAEngine>() {
+        @Override
+        protected EdDSAEngine initialValue() {
+            return newEngine();
+        }
+    };
 
     public static final EdDSAParameterSpec spec;
 
@@ -24,27 +42,43 @@ public class SignatureUtil {
         spec = EdDSANamedCurveTable.getByName("Ed25519");
     }
 
+    private static EdDSAEngine newEngine() {
+
+        EdDSAEngine engine = null;
+        try {
+            engine = new EdDSAEngine(MessageDigest.getInstance(spec.getHashAlgorithm()));
+        } catch (Exception reportOnly) {
+            System.err.println("exception creating signature engine: " + PrintUtil.printException(reportOnly));
+        }
+
+        return engine;
+    }
+
     public static byte[] signBytes(byte[] bytesToSign, byte[] privateSeed) {
 
+        return signBytes(bytesToSign, 0, bytesToSign == null ? 0 : bytesToSign.length, privateSeed);
+    }
+
+    // This signs a range of the array, so that a message can be signed in place in the array that is transmitted.
+    public static byte[] signBytes(byte[] bytesToSign, int offset, int length, byte[] privateSeed) {
+
         byte[] signatureBytes = null;
 
         try {
             ByteBuffer seedBuffer = ByteBuffer.wrap(privateSeed);
-            EdDSAEngine signature = seedToSignatureMap.get(seedBuffer);
-            if (signature == null) {
-                signature = new EdDSAEngine(MessageDigest.getInstance(spec.getHashAlgorithm()));
-                PrivateKey privateKey = KeyUtil.privateKeyFromSeed(privateSeed);
-                signature.initSign(privateKey);
-                seedToSignatureMap.put(seedBuffer, signature);
+            PrivateKey privateKey = seedToPrivateKeyMap.get(seedBuffer);
+            if (privateKey == null) {
+                privateKey = KeyUtil.privateKeyFromSeed(privateSeed);
+                seedToPrivateKeyMap.put(ByteBuffer.wrap(privateSeed.clone()), privateKey);
             }
 
-            synchronized (SignatureUtil.class) {
-                signatureBytes = signature.signOneShot(bytesToSign);
-            }
+            EdDSAEngine signature = signingEngine.get();
+            signature.initSign(privateKey);
+            signatureBytes = signature.signOneShot(bytesToSign, offset, length);
 
         } catch (Exception reportOnly) {
             System.err.println("exception signing bytes of length " + (bytesToSign == null ? "(null)" :
-                    bytesToSign.length) + " with seed " + ByteUtil.arrayAsStringWithDashes(privateSeed));
+                    length) + " with seed " + ByteUtil.arrayAsStringWithDashes(privateSeed));
         }
 
         return signatureBytes;
@@ -61,25 +95,21 @@ public class SignatureUtil {
 
         try {
             ByteBuffer identifierBuffer = ByteBuffer.wrap(publicIdentifier);
-            EdDSAEngine signature = identifierToSignatureMap.get(identifierBuffer);
-            if (signature == null) {
-                signature = new EdDSAEngine(MessageDigest.getInstance(spec.getHashAlgorithm()));
-                PublicKey publicKey = KeyUtil.publicKeyFromIdentifier(publicIdentifier);
-                signature.initVerify(publicKey);
-                identifierToSignatureMap.put(identifierBuffer, signature);
-
-                // If the map has gotten too big, remove an element from it.
-                if (identifierToSignatureMap.size() > 20000) {
-                    ByteBuffer key = identifierToSignatureMap.keySet().iterator().next();
-                    identifierToSignatureMap.remove(key);
+            PublicKey publicKey = identifierToPublicKeyCache.get(identifierBuffer);
+            if (publicKey == null) {
+                publicKey = KeyUtil.publicKeyFromIdentifier(publicIdentifier);
+
+                // The key is copied so that later changes to the caller's array cannot affect the cache.
+                if (publicKey != null) {
+                    identifierToPublicKeyCache.put(ByteBuffer.wrap(publicIdentifier.clone()), publicKey);
                 }
             }
 
-            synchronized (SignatureUtil.class) {
-                int signedBytesLength = signedBytesEnd - signedBytesStart;
-                signatureIsValid = signature.verifyOneShot(signedBytes, signedBytesStart, signedBytesLength,
-                        signatureBytes, 0, signatureBytes.length);
-            }
+            EdDSAEngine signature = verificationEngine.get();
+            signature.initVerify(publicKey);
+            int signedBytesLength = signedBytesEnd - signedBytesStart;
+            signatureIsValid = signature.verifyOneShot(signedBytes, signedBytesStart, signedBytesLength,
+                    signatureBytes, 0, signatureBytes.length);
 
         } catch (Exception ignored) {
 